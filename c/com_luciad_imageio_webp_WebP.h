@@ -7,13 +7,103 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+#undef com_luciad_imageio_webp_WebP_INCREMENTAL_CHUNK_SIZE
+#define com_luciad_imageio_webp_WebP_INCREMENTAL_CHUNK_SIZE 16384L
+#undef com_luciad_imageio_webp_WebP_FRAME_INFO_SIZE
+#define com_luciad_imageio_webp_WebP_FRAME_INFO_SIZE 9L
+#undef com_luciad_imageio_webp_WebP_PICTURE_RGBA
+#define com_luciad_imageio_webp_WebP_PICTURE_RGBA 0L
+#undef com_luciad_imageio_webp_WebP_PICTURE_RGB
+#define com_luciad_imageio_webp_WebP_PICTURE_RGB 1L
+#undef com_luciad_imageio_webp_WebP_PICTURE_INT_ARGB
+#define com_luciad_imageio_webp_WebP_PICTURE_INT_ARGB 2L
+#undef com_luciad_imageio_webp_WebP_PICTURE_INT_RGB
+#define com_luciad_imageio_webp_WebP_PICTURE_INT_RGB 3L
+#undef com_luciad_imageio_webp_WebP_PICTURE_4BYTE_ABGR
+#define com_luciad_imageio_webp_WebP_PICTURE_4BYTE_ABGR 4L
+#undef com_luciad_imageio_webp_WebP_PICTURE_3BYTE_BGR
+#define com_luciad_imageio_webp_WebP_PICTURE_3BYTE_BGR 5L
+#undef com_luciad_imageio_webp_WebP_PICTURE_RGBX
+#define com_luciad_imageio_webp_WebP_PICTURE_RGBX 6L
 /*
  * Class:     com_luciad_imageio_webp_WebP
  * Method:    decode
- * Signature: (J[BII[IZ)[I
+ * Signature: ([I[BII[IZ)[I
  */
 JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_decode
-  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jintArray, jboolean);
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jintArray, jboolean);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    decodeInto
+ * Signature: ([I[BII[IIIIIZZ[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeInto
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jintArray, jint, jint, jint, jint, jboolean, jboolean, jintArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    decodeToBuffer
+ * Signature: ([ILjava/nio/ByteBuffer;IILjava/nio/ByteBuffer;II[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeToBuffer
+  (JNIEnv *, jclass, jintArray, jobject, jint, jint, jobject, jint, jint, jintArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    decodeBuffer
+ * Signature: ([ILjava/nio/ByteBuffer;II[IIIIIIIZZZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeBuffer
+  (JNIEnv *, jclass, jintArray, jobject, jint, jint, jintArray, jint, jint, jint, jint, jint, jint, jboolean, jboolean, jboolean);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    createIncrementalDecoder
+ * Signature: ([IZZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createIncrementalDecoder
+  (JNIEnv *, jclass, jintArray, jboolean, jboolean);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    appendIncrementalData
+ * Signature: (J[BII)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_appendIncrementalData
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    getIncrementalPixels
+ * Signature: (J[I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_getIncrementalPixels
+  (JNIEnv *, jclass, jlong, jintArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    getIncrementalSize
+ * Signature: (J[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getIncrementalSize
+  (JNIEnv *, jclass, jlong, jintArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    copyIncrementalPixels
+ * Signature: (J[IIIIIII)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_copyIncrementalPixels
+  (JNIEnv *, jclass, jlong, jintArray, jint, jint, jint, jint, jint, jint);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    deleteIncrementalDecoder
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deleteIncrementalDecoder
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     com_luciad_imageio_webp_WebP
@@ -23,21 +113,141 @@ JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_decode
 JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getInfo
   (JNIEnv *, jclass, jbyteArray, jint, jint, jintArray);
 
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    getFeatures
+ * Signature: ([BII[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getFeatures
+  (JNIEnv *, jclass, jbyteArray, jint, jint, jintArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    demux
+ * Signature: (Ljava/nio/ByteBuffer;II[I)[I
+ */
+JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_demux
+  (JNIEnv *, jclass, jobject, jint, jint, jintArray);
+
 /*
  * Class:     com_luciad_imageio_webp_WebP
  * Method:    encodeRGBA
- * Signature: (J[BIII)[B
+ * Signature: ([I[BIIIIIZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGBA
-  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jint);
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jint, jint, jint, jboolean, jobject, jobject, jfloatArray, jlongArray);
 
 /*
  * Class:     com_luciad_imageio_webp_WebP
  * Method:    encodeRGB
- * Signature: (J[BIII)[B
+ * Signature: ([I[BIIIIIZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGB
-  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jint);
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jint, jint, jint, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encodeRGBX
+ * Signature: ([I[BIIIIIZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGBX
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jint, jint, jint, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encodeBuffer
+ * Signature: ([ILjava/nio/ByteBuffer;IIIIIIILjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeBuffer
+  (JNIEnv *, jclass, jintArray, jobject, jint, jint, jint, jint, jint, jint, jint, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encodeIntARGB
+ * Signature: ([I[IIIIIIIZZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeIntARGB
+  (JNIEnv *, jclass, jintArray, jintArray, jint, jint, jint, jint, jint, jint, jboolean, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encodeIntRGB
+ * Signature: ([I[IIIIIIIZZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeIntRGB
+  (JNIEnv *, jclass, jintArray, jintArray, jint, jint, jint, jint, jint, jint, jboolean, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encode4ByteABGR
+ * Signature: ([I[BIIIIIIZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encode4ByteABGR
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jint, jint, jint, jint, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encode3ByteBGR
+ * Signature: ([I[BIIIIIIZLjava/io/OutputStream;Lcom/luciad/imageio/webp/WebP/ProgressListener;[F[J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encode3ByteBGR
+  (JNIEnv *, jclass, jintArray, jbyteArray, jint, jint, jint, jint, jint, jint, jboolean, jobject, jobject, jfloatArray, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    createPicture
+ * Signature: ([ILjava/lang/Object;IIIIIIIZZ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createPicture
+  (JNIEnv *, jclass, jintArray, jobject, jint, jint, jint, jint, jint, jint, jint, jboolean, jboolean);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    encodePicture
+ * Signature: ([IJFI[F[JLcom/luciad/imageio/webp/WebP/ProgressListener;)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodePicture
+  (JNIEnv *, jclass, jintArray, jlong, jfloat, jint, jfloatArray, jlongArray, jobject);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    deletePicture
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deletePicture
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    createMux
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createMux
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    addMuxFrame
+ * Signature: (J[BIIIZZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_addMuxFrame
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jint, jboolean, jboolean);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    assembleMux
+ * Signature: (JIILjava/io/OutputStream;)V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_assembleMux
+  (JNIEnv *, jclass, jlong, jint, jint, jobject);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebP
+ * Method:    deleteMux
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deleteMux
+  (JNIEnv *, jclass, jlong);
 
 #ifdef __cplusplus
 }
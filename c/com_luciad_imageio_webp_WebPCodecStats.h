@@ -0,0 +1,41 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_luciad_imageio_webp_WebPCodecStats */
+
+#ifndef _Included_com_luciad_imageio_webp_WebPCodecStats
+#define _Included_com_luciad_imageio_webp_WebPCodecStats
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef com_luciad_imageio_webp_WebPCodecStats_LIVE_DECODERS
+#define com_luciad_imageio_webp_WebPCodecStats_LIVE_DECODERS 0L
+#undef com_luciad_imageio_webp_WebPCodecStats_LIVE_PICTURES
+#define com_luciad_imageio_webp_WebPCodecStats_LIVE_PICTURES 1L
+#undef com_luciad_imageio_webp_WebPCodecStats_NATIVE_BYTES
+#define com_luciad_imageio_webp_WebPCodecStats_NATIVE_BYTES 2L
+#undef com_luciad_imageio_webp_WebPCodecStats_PEAK_NATIVE_BYTES
+#define com_luciad_imageio_webp_WebPCodecStats_PEAK_NATIVE_BYTES 3L
+#undef com_luciad_imageio_webp_WebPCodecStats_NATIVE_STATS_SIZE
+#define com_luciad_imageio_webp_WebPCodecStats_NATIVE_STATS_SIZE 4L
+#undef com_luciad_imageio_webp_WebPCodecStats_LATENCY_BUCKETS
+#define com_luciad_imageio_webp_WebPCodecStats_LATENCY_BUCKETS 32L
+/*
+ * Class:     com_luciad_imageio_webp_WebPCodecStats
+ * Method:    getNativeStats
+ * Signature: ([J)V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPCodecStats_getNativeStats
+  (JNIEnv *, jclass, jlongArray);
+
+/*
+ * Class:     com_luciad_imageio_webp_WebPCodecStats
+ * Method:    resetNativePeak
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPCodecStats_resetNativePeak
+  (JNIEnv *, jclass);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -13,15 +13,19 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+#include <stddef.h>
 #include <stdlib.h>
 #include <malloc.h>
 #include <stdio.h>
 #include <string.h>
 
 #include <webp/decode.h>
+#include <webp/demux.h>
 #include <webp/encode.h>
+#include <webp/mux.h>
 
 #include "com_luciad_imageio_webp_WebP.h"
+#include "com_luciad_imageio_webp_WebPCodecStats.h"
 #include "com_luciad_imageio_webp_WebPReadParam.h"
 #include "com_luciad_imageio_webp_WebPWriteParam.h"
 
@@ -34,6 +38,70 @@
 # define UNUSED(x) x 
 #endif
 
+#define LIVE_DECODERS com_luciad_imageio_webp_WebPCodecStats_LIVE_DECODERS
+#define LIVE_PICTURES com_luciad_imageio_webp_WebPCodecStats_LIVE_PICTURES
+#define NATIVE_BYTES com_luciad_imageio_webp_WebPCodecStats_NATIVE_BYTES
+#define PEAK_NATIVE_BYTES com_luciad_imageio_webp_WebPCodecStats_PEAK_NATIVE_BYTES
+#define NATIVE_STATS_SIZE com_luciad_imageio_webp_WebPCodecStats_NATIVE_STATS_SIZE
+
+// The live native objects and allocated native bytes, in the order of their positions in
+// WebPCodecStats. They are updated with atomic operations, as all threads share them.
+static volatile jlong native_stats[NATIVE_STATS_SIZE];
+
+// Adds to the number of live native objects of the given kind.
+static void TrackObjects(int kind, jlong delta) {
+  __sync_fetch_and_add(&native_stats[kind], delta);
+}
+
+// Adds to the number of allocated native bytes, and raises the peak when it is exceeded.
+static void TrackBytes(jlong delta) {
+  jlong current;
+  jlong peak;
+
+  if (delta == 0) {
+    return;
+  }
+  current = __sync_add_and_fetch(&native_stats[NATIVE_BYTES], delta);
+  peak = native_stats[PEAK_NATIVE_BYTES];
+  while (current > peak && !__sync_bool_compare_and_swap(&native_stats[PEAK_NATIVE_BYTES], peak, current)) {
+    peak = native_stats[PEAK_NATIVE_BYTES];
+  }
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPCodecStats_getNativeStats(
+  JNIEnv *env, jclass UNUSED(cls),
+  jlongArray outStats) {
+  jlong stats[NATIVE_STATS_SIZE];
+  int i;
+
+  for (i = 0; i < NATIVE_STATS_SIZE; i++) {
+    stats[i] = __sync_add_and_fetch(&native_stats[i], 0);
+  }
+  (*env)->SetLongArrayRegion(env, outStats, 0, NATIVE_STATS_SIZE, stats);
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPCodecStats_resetNativePeak(
+  JNIEnv* UNUSED(env), jclass UNUSED(cls)) {
+  jlong current = __sync_add_and_fetch(&native_stats[NATIVE_BYTES], 0);
+  jlong peak;
+
+  // Another thread may raise the peak meanwhile, which is then kept.
+  do {
+    peak = native_stats[PEAK_NATIVE_BYTES];
+  } while (!__sync_bool_compare_and_swap(&native_stats[PEAK_NATIVE_BYTES], peak, current));
+}
+
+// Returns the number of bytes of the pixels of a picture.
+static size_t PictureBytes(const WebPPicture* pic) {
+  size_t uv_height = (size_t) (pic->height + 1) / 2;
+
+  if (pic->use_argb) {
+    return (size_t) pic->argb_stride * pic->height * sizeof(uint32_t);
+  }
+  return (size_t) pic->y_stride * pic->height + 2 * (size_t) pic->uv_stride * uv_height +
+         (pic->a != NULL ? (size_t) pic->a_stride * pic->height : 0);
+}
+
 static VP8StatusCode setDecBufferSize(WebPDecoderConfig* const out) {
   // TODO: this is a copy of WebPAllocateDecBuffer from dec/buffer.c. Width/height determination should be shared.
   int w, h;
@@ -72,6 +140,15 @@ static VP8StatusCode setDecBufferSize(WebPDecoderConfig* const out) {
   return VP8_STATUS_OK;
 }
 
+static WEBP_CSP_MODE getIntPixelMode(jboolean bigendian, jboolean premultiplied) {
+  // Java expects ARGB with A in the most significant byte of each int.
+  if (bigendian) {
+    return premultiplied ? MODE_Argb : MODE_ARGB;
+  } else {
+    return premultiplied ? MODE_bgrA : MODE_BGRA;
+  }
+}
+
 JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getInfo(
   JNIEnv *env, jclass UNUSED(cls),
   jbyteArray data, jint offset, jint length,
@@ -105,9 +182,202 @@ exit:
   return result;
 }
 
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getFeatures(
+  JNIEnv *env, jclass UNUSED(cls),
+  jbyteArray data, jint offset, jint length,
+  jintArray outFeatures) {
+
+  VP8StatusCode status;
+  WebPBitstreamFeatures features;
+  jint features_out[5];
+  uint8_t* data_ptr = NULL;
+
+  data_ptr = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+  if (data_ptr == NULL) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  status = WebPGetFeatures(data_ptr + offset, length, &features);
+
+  (*env)->ReleasePrimitiveArrayCritical(env, data, data_ptr, JNI_ABORT);
+
+  if (status == VP8_STATUS_OK) {
+    features_out[0] = features.width;
+    features_out[1] = features.height;
+    features_out[2] = features.has_alpha;
+    features_out[3] = features.has_animation;
+    features_out[4] = features.format;
+    (*env)->SetIntArrayRegion(env, outFeatures, 0, 5, features_out);
+  }
+
+  return status;
+}
+
+#define FRAME_INFO_SIZE com_luciad_imageio_webp_WebP_FRAME_INFO_SIZE
+
+JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_demux(
+  JNIEnv *env, jclass UNUSED(cls),
+  jobject data, jint offset, jint length,
+  jintArray outCanvas) {
+  uint8_t* data_ptr = NULL;
+  WebPData webp_data;
+  WebPDemuxer* demux = NULL;
+  WebPIterator iter;
+  jint canvas[2];
+  jint* frames = NULL;
+  jint* info = NULL;
+  jintArray result = NULL;
+  int frame_count;
+  int i;
+
+  data_ptr = (*env)->GetDirectBufferAddress(env, data);
+  if (data_ptr == NULL || offset < 0 || length < 0 ||
+      (jlong)offset + length > (*env)->GetDirectBufferCapacity(env, data)) {
+    return NULL;
+  }
+
+  // The demuxer only indexes the chunks; the frame bitstreams are returned as offsets into the
+  // buffer so that they can be decoded in place later on.
+  webp_data.bytes = data_ptr + offset;
+  webp_data.size = length;
+  demux = WebPDemux(&webp_data);
+  if (demux == NULL) {
+    return NULL;
+  }
+
+  canvas[0] = WebPDemuxGetI(demux, WEBP_FF_CANVAS_WIDTH);
+  canvas[1] = WebPDemuxGetI(demux, WEBP_FF_CANVAS_HEIGHT);
+  frame_count = WebPDemuxGetI(demux, WEBP_FF_FRAME_COUNT);
+
+  frames = calloc((size_t)frame_count * FRAME_INFO_SIZE + 1, sizeof(jint));
+  if (frames == NULL) {
+    goto exit;
+  }
+
+  for (i = 0; i < frame_count; i++) {
+    if (!WebPDemuxGetFrame(demux, i + 1, &iter)) {
+      goto exit;
+    }
+    info = frames + i * FRAME_INFO_SIZE;
+    info[0] = iter.x_offset;
+    info[1] = iter.y_offset;
+    info[2] = iter.width;
+    info[3] = iter.height;
+    info[4] = iter.has_alpha;
+    info[5] = iter.blend_method == WEBP_MUX_BLEND;
+    info[6] = iter.dispose_method == WEBP_MUX_DISPOSE_BACKGROUND;
+    info[7] = (jint)(iter.fragment.bytes - data_ptr);
+    info[8] = (jint)iter.fragment.size;
+    WebPDemuxReleaseIterator(&iter);
+  }
+
+  result = (*env)->NewIntArray(env, frame_count * FRAME_INFO_SIZE);
+  if (result == NULL) {
+    goto exit;
+  }
+  (*env)->SetIntArrayRegion(env, result, 0, frame_count * FRAME_INFO_SIZE, frames);
+  (*env)->SetIntArrayRegion(env, outCanvas, 0, 2, canvas);
+
+exit:
+  free(frames);
+  WebPDemuxDelete(demux);
+
+  return result;
+}
+
+#define MAX_FIELDS 32
+
+// Copies the int and float fields at the given offsets of a native struct to packed Java ints,
+// floats as their bits, so all fields of the struct are read in a single call.
+static void GetFields(JNIEnv* env, const void* object, const size_t* offsets, jsize count, jintArray values) {
+  jint packed[MAX_FIELDS];
+  jsize i;
+
+  for (i = 0; i < count; i++) {
+    memcpy(&packed[i], (const char*) object + offsets[i], sizeof(jint));
+  }
+  (*env)->SetIntArrayRegion(env, values, 0, count, packed);
+}
+
+// Copies packed Java ints to the int and float fields at the given offsets of a native struct.
+// Returns 0, with a pending exception, if the ints could not be read.
+static int SetFields(JNIEnv* env, void* object, const size_t* offsets, jsize count, jintArray values) {
+  jint packed[MAX_FIELDS];
+  jsize i;
+
+  (*env)->GetIntArrayRegion(env, values, 0, count, packed);
+  if ((*env)->ExceptionCheck(env)) {
+    return 0;
+  }
+  for (i = 0; i < count; i++) {
+    memcpy((char*) object + offsets[i], &packed[i], sizeof(jint));
+  }
+  return 1;
+}
+
+#define DECODER_OPTIONS_SIZE com_luciad_imageio_webp_WebPReadParam_OPTIONS_SIZE
+
+// The offsets of the WebPDecoderOptions fields, in the order of their positions in WebPReadParam.
+static const size_t DECODER_OPTIONS_FIELDS[DECODER_OPTIONS_SIZE] = {
+  offsetof(WebPDecoderOptions, bypass_filtering),
+  offsetof(WebPDecoderOptions, no_fancy_upsampling),
+  offsetof(WebPDecoderOptions, use_cropping),
+  offsetof(WebPDecoderOptions, crop_left),
+  offsetof(WebPDecoderOptions, crop_top),
+  offsetof(WebPDecoderOptions, crop_width),
+  offsetof(WebPDecoderOptions, crop_height),
+  offsetof(WebPDecoderOptions, use_scaling),
+  offsetof(WebPDecoderOptions, scaled_width),
+  offsetof(WebPDecoderOptions, scaled_height),
+  offsetof(WebPDecoderOptions, use_threads),
+  offsetof(WebPDecoderOptions, force_rotation),
+  offsetof(WebPDecoderOptions, no_enhancement)
+};
+
+#define CONFIG_SIZE com_luciad_imageio_webp_WebPWriteParam_CONFIG_SIZE
+
+// The offsets of the WebPConfig fields, in the order of their positions in WebPWriteParam.
+static const size_t CONFIG_FIELDS[CONFIG_SIZE] = {
+  offsetof(WebPConfig, lossless),
+  offsetof(WebPConfig, quality),
+  offsetof(WebPConfig, method),
+  offsetof(WebPConfig, target_size),
+  offsetof(WebPConfig, target_PSNR),
+  offsetof(WebPConfig, segments),
+  offsetof(WebPConfig, sns_strength),
+  offsetof(WebPConfig, filter_strength),
+  offsetof(WebPConfig, filter_sharpness),
+  offsetof(WebPConfig, filter_type),
+  offsetof(WebPConfig, autofilter),
+  offsetof(WebPConfig, alpha_compression),
+  offsetof(WebPConfig, alpha_filtering),
+  offsetof(WebPConfig, alpha_quality),
+  offsetof(WebPConfig, pass),
+  offsetof(WebPConfig, show_compressed),
+  offsetof(WebPConfig, preprocessing),
+  offsetof(WebPConfig, partitions),
+  offsetof(WebPConfig, partition_limit),
+  offsetof(WebPConfig, emulate_jpeg_size),
+  offsetof(WebPConfig, thread_level),
+  offsetof(WebPConfig, low_memory)
+};
+
+// Fills the options of a decoder configuration that was initialized by WebPInitDecoderConfig from
+// the packed options of a WebPReadParam. Every call gets its own copy, so the options can not
+// change while it decodes.
+static int ReadDecoderOptions(JNIEnv* env, jintArray values, WebPDecoderOptions* options) {
+  return SetFields(env, options, DECODER_OPTIONS_FIELDS, DECODER_OPTIONS_SIZE, values);
+}
+
+// Fills a configuration from the packed configuration of a WebPWriteParam, on top of the libwebp
+// defaults for the fields that it does not hold.
+static int ReadConfig(JNIEnv* env, jintArray values, WebPConfig* config) {
+  return WebPConfigInit(config) && SetFields(env, config, CONFIG_FIELDS, CONFIG_SIZE, values);
+}
+
 JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_decode(
   JNIEnv *env, jclass UNUSED(cls),
-  jlong optionsPtr,
+  jintArray options,
   jbyteArray data, jint offset, jint length, 
   jintArray outFlags, 
   jboolean bigendian) {
@@ -125,11 +395,10 @@ JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_decode(
   }
 
   // Init a configuration object
-  if(!WebPInitDecoderConfig(&config)) {
+  if(!WebPInitDecoderConfig(&config) || !ReadDecoderOptions(env, options, &config.options)) {
     flags_ptr[0] = VP8_STATUS_INVALID_PARAM;
     goto exit;
   }
-  config.options = *((WebPDecoderOptions*)(intptr_t)optionsPtr);
 
   // Retrieve the bitstream features to determine the image's intrinsic size.
   data_ptr = (*env)->GetPrimitiveArrayCritical(env, data, NULL) + offset;
@@ -202,151 +471,1211 @@ exit:
   return pixels;
 }
 
-#define PROPERTY(cls, jtype, get, set, property, type, field) \
-JNIEXPORT jtype JNICALL Java_com_luciad_imageio_webp_##cls##_##get##property \
-  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong optionsPtr) { \
-  type* options = (type*) (intptr_t) optionsPtr; \
-  return options->field; \
-} \
-\
-JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_##cls##_##set##property \
-  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong optionsPtr, jtype value) { \
-  type* options = (type*) (intptr_t) optionsPtr; \
-  options->field = value; \
-}
-
-JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebPReadParam_createDecoderOptions
-  (JNIEnv* UNUSED(env), jclass UNUSED(cls)) {
-  WebPDecoderOptions* options = calloc(1, sizeof(WebPDecoderOptions));
-  return (jlong)(intptr_t)options;
-}
-
-JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPReadParam_deleteDecoderOptions
-  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong optionsPtr) {
-  WebPDecoderOptions* options = (WebPDecoderOptions*) (intptr_t) optionsPtr;
-  free(options);
-}
-
-PROPERTY(WebPReadParam, jint, get, set, CropHeight, WebPDecoderOptions, crop_height)
-PROPERTY(WebPReadParam, jint, get, set, CropLeft, WebPDecoderOptions, crop_left)
-PROPERTY(WebPReadParam, jint, get, set, CropTop, WebPDecoderOptions, crop_top)
-PROPERTY(WebPReadParam, jint, get, set, CropWidth, WebPDecoderOptions, crop_width)
-PROPERTY(WebPReadParam, jboolean, is, set, ForceRotation, WebPDecoderOptions, force_rotation)
-PROPERTY(WebPReadParam, jboolean, is, set, NoEnhancement, WebPDecoderOptions, no_enhancement)
-PROPERTY(WebPReadParam, jboolean, is, set, NoFancyUpsampling, WebPDecoderOptions, no_fancy_upsampling)
-PROPERTY(WebPReadParam, jint, get, set, ScaledWidth, WebPDecoderOptions, scaled_width)
-PROPERTY(WebPReadParam, jint, get, set, ScaledHeight, WebPDecoderOptions, scaled_height)
-PROPERTY(WebPReadParam, jboolean, is, set, UseCropping, WebPDecoderOptions, use_cropping)
-PROPERTY(WebPReadParam, jboolean, is, set, UseScaling, WebPDecoderOptions, use_scaling)
-PROPERTY(WebPReadParam, jboolean, is, set, UseThreads, WebPDecoderOptions, use_threads)
-PROPERTY(WebPReadParam, jboolean, is, set, BypassFiltering, WebPDecoderOptions, bypass_filtering)
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeInto(
+  JNIEnv *env, jclass UNUSED(cls),
+  jintArray options,
+  jbyteArray data, jint offset, jint length,
+  jintArray pixels, jint pixelOffset, jint scanlineStride, jint maxWidth, jint maxHeight,
+  jboolean bigendian, jboolean premultiplied,
+  jintArray outSize) {
+  uint8_t* data_ptr = NULL;
+  jint* pixels_ptr = NULL;
+  VP8StatusCode status;
+  WebPDecoderConfig config;
+
+  if (!WebPInitDecoderConfig(&config) || !ReadDecoderOptions(env, options, &config.options)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  data_ptr = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+  if (data_ptr == NULL) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  status = WebPGetFeatures(data_ptr + offset, length, &config.input);
+  if (status == VP8_STATUS_OK) {
+    status = setDecBufferSize(&config);
+  }
+  if (status == VP8_STATUS_OK && (config.output.width > maxWidth || config.output.height > maxHeight)) {
+    status = VP8_STATUS_INVALID_PARAM;
+  }
+  if (status != VP8_STATUS_OK) {
+    goto exit;
+  }
+
+  pixels_ptr = (*env)->GetPrimitiveArrayCritical(env, pixels, NULL);
+  if (pixels_ptr == NULL) {
+    status = VP8_STATUS_INVALID_PARAM;
+    goto exit;
+  }
+
+  // Decode straight into the caller's pixel array, honouring its offset and scanline stride.
+  config.output.colorspace = getIntPixelMode(bigendian, premultiplied);
+  config.output.is_external_memory = 1;
+  config.output.u.RGBA.rgba = (uint8_t*)(pixels_ptr + pixelOffset);
+  config.output.u.RGBA.stride = scanlineStride * sizeof(jint);
+  config.output.u.RGBA.size = ((size_t)scanlineStride * (config.output.height - 1) + config.output.width) * sizeof(jint);
+
+  status = WebPDecode(data_ptr + offset, length, &config);
+
+exit:
+  if (pixels_ptr != NULL) {
+    (*env)->ReleasePrimitiveArrayCritical(env, pixels, pixels_ptr, 0);
+  }
+
+  (*env)->ReleasePrimitiveArrayCritical(env, data, data_ptr, JNI_ABORT);
+
+  if (status == VP8_STATUS_OK) {
+    jint size[2];
+    size[0] = config.output.width;
+    size[1] = config.output.height;
+    (*env)->SetIntArrayRegion(env, outSize, 0, 2, size);
+  }
+
+  return status;
+}
+
+typedef struct {
+  WebPDecoderConfig config;
+  WebPIDecoder* idec;
+  // Start of the bitstream, retained until the bitstream features can be parsed from it.
+  uint8_t* header;
+  size_t header_size;
+  int has_features;
+  // Scratch buffer used to copy chunks out of the Java heap before appending them.
+  uint8_t* chunk;
+  size_t chunk_size;
+  // The native bytes that were last counted for this decoder.
+  size_t tracked_bytes;
+} IncrementalDecoder;
+
+// Counts the native bytes that the decoder holds now: its buffers, and the output buffer once
+// libwebp has allocated it.
+static void TrackDecoderBytes(IncrementalDecoder* decoder) {
+  int last_y = 0;
+  int width = 0;
+  int height = 0;
+  int stride = 0;
+  size_t bytes = sizeof(IncrementalDecoder) + decoder->chunk_size + decoder->header_size;
+
+  if (WebPIDecGetRGB(decoder->idec, &last_y, &width, &height, &stride) != NULL) {
+    bytes += (size_t) stride * height;
+  }
+  TrackBytes((jlong) bytes - (jlong) decoder->tracked_bytes);
+  decoder->tracked_bytes = bytes;
+}
+
+// Decodes the data of a direct buffer into RGBA bytes in another direct buffer. Neither buffer is
+// copied or pinned. The width and height of the decoded image are stored in outSize.
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeToBuffer(
+  JNIEnv *env, jclass UNUSED(cls),
+  jintArray options,
+  jobject data, jint offset, jint length,
+  jobject pixels, jint pixelOffset, jint stride,
+  jintArray outSize) {
+  uint8_t* data_ptr = NULL;
+  uint8_t* pixels_ptr = NULL;
+  VP8StatusCode status;
+  WebPDecoderConfig config;
+  jint size[2];
+
+  data_ptr = (*env)->GetDirectBufferAddress(env, data);
+  pixels_ptr = (*env)->GetDirectBufferAddress(env, pixels);
+  if (data_ptr == NULL || pixels_ptr == NULL || offset < 0 || length < 0 || pixelOffset < 0 ||
+      (jlong)offset + length > (*env)->GetDirectBufferCapacity(env, data)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  if (!WebPInitDecoderConfig(&config) || !ReadDecoderOptions(env, options, &config.options)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  status = WebPGetFeatures(data_ptr + offset, length, &config.input);
+  if (status == VP8_STATUS_OK) {
+    status = setDecBufferSize(&config);
+  }
+  if (status == VP8_STATUS_OK &&
+      (stride < config.output.width * 4 ||
+       pixelOffset + (jlong)stride * (config.output.height - 1) + config.output.width * 4 >
+         (*env)->GetDirectBufferCapacity(env, pixels))) {
+    status = VP8_STATUS_INVALID_PARAM;
+  }
+  if (status != VP8_STATUS_OK) {
+    return status;
+  }
+
+  config.output.colorspace = MODE_RGBA;
+  config.output.is_external_memory = 1;
+  config.output.u.RGBA.rgba = pixels_ptr + pixelOffset;
+  config.output.u.RGBA.stride = stride;
+  config.output.u.RGBA.size = (size_t)stride * (config.output.height - 1) + config.output.width * 4;
+
+  status = WebPDecode(data_ptr + offset, length, &config);
+  if (status == VP8_STATUS_OK) {
+    size[0] = config.output.width;
+    size[1] = config.output.height;
+    (*env)->SetIntArrayRegion(env, outSize, 0, 2, size);
+  }
+  return status;
+}
+
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_decodeBuffer(
+  JNIEnv *env, jclass UNUSED(cls),
+  jintArray options,
+  jobject data, jint offset, jint length,
+  jintArray pixels, jint pixelOffset, jint scanlineStride,
+  jint srcX, jint srcY, jint width, jint height,
+  jboolean bigendian, jboolean premultiplied, jboolean pinFree) {
+  uint8_t* data_ptr = NULL;
+  jint* pixels_ptr = NULL;
+  const uint8_t* rgba = NULL;
+  VP8StatusCode status;
+  WebPDecoderConfig config;
+  int y;
+
+  data_ptr = (*env)->GetDirectBufferAddress(env, data);
+  if (data_ptr == NULL || offset < 0 || length < 0 ||
+      (jlong)offset + length > (*env)->GetDirectBufferCapacity(env, data)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  if (!WebPInitDecoderConfig(&config) || !ReadDecoderOptions(env, options, &config.options)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  status = WebPGetFeatures(data_ptr + offset, length, &config.input);
+  if (status == VP8_STATUS_OK) {
+    status = setDecBufferSize(&config);
+  }
+  if (status == VP8_STATUS_OK &&
+      (srcX < 0 || srcY < 0 || width < 0 || height < 0 ||
+       width > config.output.width - srcX || height > config.output.height - srcY)) {
+    status = VP8_STATUS_INVALID_PARAM;
+  }
+  if (status != VP8_STATUS_OK) {
+    return status;
+  }
+
+  config.output.colorspace = getIntPixelMode(bigendian, premultiplied);
+  if (!pinFree && srcX == 0 && srcY == 0 && width == config.output.width && height == config.output.height) {
+    // The whole decoded image is requested: decode straight into the caller's pixel array.
+    pixels_ptr = (*env)->GetPrimitiveArrayCritical(env, pixels, NULL);
+    if (pixels_ptr == NULL) {
+      return VP8_STATUS_INVALID_PARAM;
+    }
+
+    config.output.is_external_memory = 1;
+    config.output.u.RGBA.rgba = (uint8_t*)(pixels_ptr + pixelOffset);
+    config.output.u.RGBA.stride = scanlineStride * sizeof(jint);
+    config.output.u.RGBA.size = ((size_t)scanlineStride * (config.output.height - 1) + config.output.width) * sizeof(jint);
+
+    status = WebPDecode(data_ptr + offset, length, &config);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, pixels, pixels_ptr, 0);
+    return status;
+  }
+
+  // Only a region is requested, or the pixel array may not be pinned: decode into a temporary
+  // buffer and copy the region row by row.
+  status = WebPDecode(data_ptr + offset, length, &config);
+  if (status == VP8_STATUS_OK) {
+    TrackBytes((jlong) config.output.u.RGBA.size);
+    rgba = config.output.u.RGBA.rgba;
+    for (y = 0; y < height; y++) {
+      (*env)->SetIntArrayRegion(env, pixels, pixelOffset + y * scanlineStride, width,
+                                (const jint*)(rgba + (size_t)(srcY + y) * config.output.u.RGBA.stride + srcX * 4));
+    }
+    if ((*env)->ExceptionCheck(env)) {
+      status = VP8_STATUS_INVALID_PARAM;
+    }
+    TrackBytes(-(jlong) config.output.u.RGBA.size);
+  }
+  WebPFreeDecBuffer(&config.output);
+
+  return status;
+}
+
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createIncrementalDecoder(
+  JNIEnv* env, jclass UNUSED(cls),
+  jintArray options,
+  jboolean bigendian, jboolean premultiplied) {
+  IncrementalDecoder* decoder = calloc(1, sizeof(IncrementalDecoder));
+  if (decoder == NULL) {
+    return 0;
+  }
+
+  if (!WebPInitDecoderConfig(&decoder->config) || !ReadDecoderOptions(env, options, &decoder->config.options)) {
+    free(decoder);
+    return 0;
+  }
+
+  // The output buffer is allocated by libwebp once the headers have been decoded, taking the
+  // cropping and scaling options into account.
+  decoder->config.output.colorspace = getIntPixelMode(bigendian, premultiplied);
+
+  // The incremental decoder keeps a reference to the options, so the config has to outlive it.
+  decoder->idec = WebPIDecode(NULL, 0, &decoder->config);
+  if (decoder->idec == NULL) {
+    free(decoder);
+    return 0;
+  }
+
+  TrackObjects(LIVE_DECODERS, 1);
+  TrackDecoderBytes(decoder);
+  return (jlong)(intptr_t)decoder;
+}
+
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_appendIncrementalData(
+  JNIEnv *env, jclass UNUSED(cls),
+  jlong decoderPtr,
+  jbyteArray data, jint offset, jint length) {
+  IncrementalDecoder* decoder = (IncrementalDecoder*)(intptr_t)decoderPtr;
+  VP8StatusCode status;
+
+  if (length <= 0) {
+    return VP8_STATUS_SUSPENDED;
+  }
+
+  if (decoder->chunk_size < (size_t)length) {
+    uint8_t* chunk = realloc(decoder->chunk, length);
+    if (chunk == NULL) {
+      return VP8_STATUS_OUT_OF_MEMORY;
+    }
+    decoder->chunk = chunk;
+    decoder->chunk_size = length;
+  }
+  (*env)->GetByteArrayRegion(env, data, offset, length, (jbyte*)decoder->chunk);
+  if ((*env)->ExceptionCheck(env)) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  if (!decoder->has_features) {
+    uint8_t* header = realloc(decoder->header, decoder->header_size + length);
+    if (header == NULL) {
+      return VP8_STATUS_OUT_OF_MEMORY;
+    }
+    memcpy(header + decoder->header_size, decoder->chunk, length);
+    decoder->header = header;
+    decoder->header_size += length;
+
+    status = WebPGetFeatures(decoder->header, decoder->header_size, &decoder->config.input);
+    if (status == VP8_STATUS_OK) {
+      decoder->has_features = 1;
+      free(decoder->header);
+      decoder->header = NULL;
+      decoder->header_size = 0;
+    } else if (status != VP8_STATUS_NOT_ENOUGH_DATA) {
+      return status;
+    }
+  }
+
+  status = WebPIAppend(decoder->idec, decoder->chunk, length);
+  TrackDecoderBytes(decoder);
+  return status;
+}
+
+JNIEXPORT jintArray JNICALL Java_com_luciad_imageio_webp_WebP_getIncrementalPixels(
+  JNIEnv *env, jclass UNUSED(cls),
+  jlong decoderPtr,
+  jintArray outFlags) {
+  IncrementalDecoder* decoder = (IncrementalDecoder*)(intptr_t)decoderPtr;
+  jint* flags_ptr = NULL;
+  jintArray pixels = NULL;
+  uint8_t* rgba = NULL;
+  int last_y = 0;
+  int width = 0;
+  int height = 0;
+  int stride = 0;
+  int y;
+
+  flags_ptr = (*env)->GetIntArrayElements(env, outFlags, NULL);
+  if (flags_ptr == NULL) {
+    goto exit;
+  }
+
+  rgba = WebPIDecGetRGB(decoder->idec, &last_y, &width, &height, &stride);
+  if (rgba == NULL || !decoder->has_features || last_y < height) {
+    flags_ptr[0] = VP8_STATUS_NOT_ENOUGH_DATA;
+    goto exit;
+  }
+
+  pixels = (*env)->NewIntArray(env, width * height);
+  if (pixels == NULL) {
+    flags_ptr[0] = VP8_STATUS_OUT_OF_MEMORY;
+    goto exit;
+  }
+
+  // Copy the decoded rows from the native output buffer into the Java array.
+  for (y = 0; y < height; y++) {
+    (*env)->SetIntArrayRegion(env, pixels, y * width, width, (const jint*)(rgba + y * stride));
+  }
+
+  flags_ptr[0] = VP8_STATUS_OK;
+  flags_ptr[1] = width;
+  flags_ptr[2] = height;
+  flags_ptr[3] = decoder->config.input.has_alpha;
+
+exit:
+  if (flags_ptr != NULL) {
+    (*env)->ReleaseIntArrayElements(env, outFlags, flags_ptr, 0);
+  }
+
+  return pixels;
+}
+
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_getIncrementalSize(
+  JNIEnv *env, jclass UNUSED(cls),
+  jlong decoderPtr,
+  jintArray outSize) {
+  IncrementalDecoder* decoder = (IncrementalDecoder*)(intptr_t)decoderPtr;
+  int last_y = 0;
+  jint size[2] = { 0, 0 };
+  int stride = 0;
+
+  if (WebPIDecGetRGB(decoder->idec, &last_y, &size[0], &size[1], &stride) == NULL ||
+      !decoder->has_features || last_y < size[1]) {
+    return VP8_STATUS_NOT_ENOUGH_DATA;
+  }
+
+  (*env)->SetIntArrayRegion(env, outSize, 0, 2, size);
+  return (*env)->ExceptionCheck(env) ? VP8_STATUS_INVALID_PARAM : VP8_STATUS_OK;
+}
+
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_copyIncrementalPixels(
+  JNIEnv *env, jclass UNUSED(cls),
+  jlong decoderPtr,
+  jintArray pixels, jint pixelOffset, jint scanlineStride,
+  jint srcX, jint srcY, jint width, jint height) {
+  IncrementalDecoder* decoder = (IncrementalDecoder*)(intptr_t)decoderPtr;
+  uint8_t* rgba = NULL;
+  int last_y = 0;
+  int out_width = 0;
+  int out_height = 0;
+  int stride = 0;
+  int y;
+
+  rgba = WebPIDecGetRGB(decoder->idec, &last_y, &out_width, &out_height, &stride);
+  if (rgba == NULL || !decoder->has_features || last_y < out_height) {
+    return VP8_STATUS_NOT_ENOUGH_DATA;
+  }
+
+  if (srcX < 0 || srcY < 0 || width < 0 || height < 0 ||
+      width > out_width - srcX || height > out_height - srcY) {
+    return VP8_STATUS_INVALID_PARAM;
+  }
+
+  // Copy the requested region of the decoded rows into the caller's pixel array, honouring its
+  // offset and scanline stride.
+  for (y = 0; y < height; y++) {
+    (*env)->SetIntArrayRegion(env, pixels, pixelOffset + y * scanlineStride, width,
+                              (const jint*)(rgba + (srcY + y) * stride + srcX * 4));
+  }
+
+  return (*env)->ExceptionCheck(env) ? VP8_STATUS_INVALID_PARAM : VP8_STATUS_OK;
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deleteIncrementalDecoder(
+  JNIEnv* UNUSED(env), jclass UNUSED(cls),
+  jlong decoderPtr) {
+  IncrementalDecoder* decoder = (IncrementalDecoder*)(intptr_t)decoderPtr;
+  if (decoder == NULL) {
+    return;
+  }
+
+  TrackObjects(LIVE_DECODERS, -1);
+  TrackBytes(-(jlong) decoder->tracked_bytes);
+  WebPIDelete(decoder->idec);
+  WebPFreeDecBuffer(&decoder->config.output);
+  free(decoder->header);
+  free(decoder->chunk);
+  free(decoder);
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPReadParam_getDefaultOptions
+  (JNIEnv* env, jclass UNUSED(cls_), jintArray values) {
+  WebPDecoderConfig config;
+
+  if (WebPInitDecoderConfig(&config)) {
+    GetFields(env, &config.options, DECODER_OPTIONS_FIELDS, DECODER_OPTIONS_SIZE, values);
+  }
+}
 
 typedef int (*Importer)(WebPPicture* const, const uint8_t* const, int);
 
+// Imports 32 bit pixels in native byte order, laid out as 0xAARRGGBB like TYPE_INT_ARGB. The
+// alpha mask is or-ed into every pixel, so images without alpha can be imported as opaque.
+static int ImportInts(WebPPicture* const picture, const uint8_t* const data, int stride, uint32_t alpha_mask) {
+  const uint32_t* src;
+  uint32_t* dst;
+  int x;
+  int y;
+
+  picture->use_argb = 1;
+  if (!WebPPictureAlloc(picture)) {
+    return 0;
+  }
+
+  for (y = 0; y < picture->height; y++) {
+    src = (const uint32_t*)(data + (size_t)y * stride);
+    dst = picture->argb + (size_t)y * picture->argb_stride;
+    for (x = 0; x < picture->width; x++) {
+      dst[x] = src[x] | alpha_mask;
+    }
+  }
+  return 1;
+}
+
+static int ImportIntARGB(WebPPicture* const picture, const uint8_t* const data, int stride) {
+  return ImportInts(picture, data, stride, 0);
+}
+
+static int ImportIntRGB(WebPPicture* const picture, const uint8_t* const data, int stride) {
+  return ImportInts(picture, data, stride, 0xff000000u);
+}
+
+// Imports A, B, G, R byte pixels like TYPE_4BYTE_ABGR, for which libwebp has no importer.
+static int Import4ByteABGR(WebPPicture* const picture, const uint8_t* const data, int stride) {
+  const uint8_t* src;
+  uint32_t* dst;
+  int x;
+  int y;
+
+  picture->use_argb = 1;
+  if (!WebPPictureAlloc(picture)) {
+    return 0;
+  }
+
+  for (y = 0; y < picture->height; y++) {
+    src = data + (size_t)y * stride;
+    dst = picture->argb + (size_t)y * picture->argb_stride;
+    for (x = 0; x < picture->width; x++, src += 4) {
+      dst[x] = ((uint32_t)src[0] << 24) | ((uint32_t)src[3] << 16) | ((uint32_t)src[2] << 8) | src[1];
+    }
+  }
+  return 1;
+}
+
+#define STREAM_CHUNK_SIZE (64 * 1024)
+
+// Passes the encoded data on to an OutputStream, in chunks of at most STREAM_CHUNK_SIZE bytes.
+typedef struct {
+  JNIEnv* env;
+  jobject output;
+  jmethodID write;
+  jbyteArray buffer;
+} StreamWriter;
+
+static int InitStreamWriter(JNIEnv *env, StreamWriter* writer, jobject output) {
+  writer->env = env;
+  writer->output = output;
+  writer->write = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, output), "write", "([BII)V");
+  if (writer->write == NULL) {
+    return 0;
+  }
+  writer->buffer = (*env)->NewByteArray(env, STREAM_CHUNK_SIZE);
+  return writer->buffer != NULL;
+}
+
+static int WriteStream(StreamWriter* writer, const uint8_t* data, size_t data_size) {
+  JNIEnv* env = writer->env;
+  jsize chunk_size;
+
+  while (data_size > 0) {
+    chunk_size = data_size < STREAM_CHUNK_SIZE ? (jsize)data_size : STREAM_CHUNK_SIZE;
+    (*env)->SetByteArrayRegion(env, writer->buffer, 0, chunk_size, (const jbyte*)data);
+    (*env)->CallVoidMethod(env, writer->output, writer->write, writer->buffer, 0, chunk_size);
+    if ((*env)->ExceptionCheck(env)) {
+      // Leave the exception pending; it is thrown once the native method returns.
+      return 0;
+    }
+    data += chunk_size;
+    data_size -= chunk_size;
+  }
+  return 1;
+}
+
+static int StreamWrite(const uint8_t* data, size_t data_size, const WebPPicture* picture) {
+  return WriteStream((StreamWriter*)picture->custom_ptr, data, data_size);
+}
+
+// Collects the encoded data in memory, and counts the buffer in the native statistics whenever it
+// grows, so that they include the output while the picture is still being encoded.
+typedef struct {
+  WebPMemoryWriter memory;  // First, so that WebPMemoryWrite finds it through custom_ptr.
+  size_t tracked_bytes;
+} TrackedWriter;
+
+static void InitTrackedWriter(TrackedWriter* writer) {
+  WebPMemoryWriterInit(&writer->memory);
+  writer->tracked_bytes = 0;
+}
+
+static int TrackedWrite(const uint8_t* data, size_t data_size, const WebPPicture* picture) {
+  TrackedWriter* writer = (TrackedWriter*)picture->custom_ptr;
+  int ok = WebPMemoryWrite(data, data_size, picture);
+  if (writer->memory.max_size != writer->tracked_bytes) {
+    TrackBytes((jlong) writer->memory.max_size - (jlong) writer->tracked_bytes);
+    writer->tracked_bytes = writer->memory.max_size;
+  }
+  return ok;
+}
+
+static void FreeTrackedWriter(TrackedWriter* writer) {
+  TrackBytes(-(jlong) writer->tracked_bytes);
+  writer->tracked_bytes = 0;
+  free(writer->memory.mem);
+}
+
+static void throwIOException(JNIEnv *env, const char* format, int code) {
+  char message[64];
+  jclass cls = (*env)->FindClass(env, "java/io/IOException");
+  if (cls != NULL) {
+    snprintf(message, sizeof(message), format, code);
+    (*env)->ThrowNew(env, cls, message);
+  }
+}
+
+static void throwEncodingError(JNIEnv *env, WebPEncodingError error) {
+  throwIOException(env, "Encode returned code %d", error);
+}
+
+#define COPY_CHUNK_SIZE (64 * 1024)
+
+// Copies the rows of pixels of a byte or int array, starting at the given byte offset, into a
+// native buffer that must be freed. The array is copied in chunks instead of being pinned, so the
+// garbage collector is never held up for more than the copy of one chunk. The size of the buffer
+// is stored in copy_size.
+static uint8_t* CopyPixels(JNIEnv *env, jarray data, size_t offset, size_t stride, int height, size_t* copy_size) {
+  jclass int_array;
+  size_t element_size = 1;
+  size_t size;
+  size_t done;
+  size_t chunk;
+  uint8_t* copy;
+
+  int_array = (*env)->FindClass(env, "[I");
+  if (int_array == NULL) {
+    return NULL;
+  }
+  if ((*env)->IsInstanceOf(env, data, int_array)) {
+    element_size = sizeof(jint);
+  }
+
+  // The last row usually ends before the stride does.
+  size = (size_t) (*env)->GetArrayLength(env, data) * element_size - offset;
+  if (size > stride * height) {
+    size = stride * height;
+  }
+  copy = malloc(size);
+  if (copy == NULL) {
+    return NULL;
+  }
+  for (done = 0; done < size && !(*env)->ExceptionCheck(env); done += chunk) {
+    chunk = size - done < COPY_CHUNK_SIZE ? size - done : COPY_CHUNK_SIZE;
+    if (element_size == 1) {
+      (*env)->GetByteArrayRegion(env, data, offset + done, chunk, (jbyte*) (copy + done));
+    } else {
+      (*env)->GetIntArrayRegion(env, data, (offset + done) / element_size, chunk / element_size, (jint*) (copy + done));
+    }
+  }
+  if ((*env)->ExceptionCheck(env)) {
+    free(copy);
+    return NULL;
+  }
+  *copy_size = size;
+  return copy;
+}
+
+// Imports the pixels of a Java array or a direct buffer into the picture, and rescales them when
+// the picture should have a different size. Direct buffers are read by address. Unless pin_free
+// is set, an array is pinned while importing.
+static int ImportPicture(JNIEnv *env, WebPPicture* pic, Importer import, jobject data, size_t offset, size_t stride,
+                         jint scaled_width, jint scaled_height, jboolean pin_free) {
+  uint8_t* data_ptr;
+  size_t copy_size;
+  int ok;
+
+  data_ptr = (*env)->GetDirectBufferAddress(env, data);
+  if (data_ptr != NULL) {
+    ok = import(pic, data_ptr + offset, (int) stride);
+  } else if (pin_free) {
+    data_ptr = CopyPixels(env, data, offset, stride, pic->height, &copy_size);
+    if (data_ptr == NULL) {
+      return 0;
+    }
+    TrackBytes((jlong) copy_size);
+    ok = import(pic, data_ptr, (int) stride);
+    TrackBytes(-(jlong) copy_size);
+    free(data_ptr);
+  } else {
+    data_ptr = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
+    if (data_ptr == NULL) {
+      return 0;
+    }
+    ok = import(pic, data_ptr + offset, (int) stride);
+    (*env)->ReleasePrimitiveArrayCritical(env, data, data_ptr, JNI_ABORT);
+  }
+
+  if (ok && (scaled_width != pic->width || scaled_height != pic->height)) {
+    ok = WebPPictureRescale(pic, scaled_width, scaled_height);
+  }
+  return ok;
+}
+
+// Reports the progress of an encode to a WebP.ProgressListener, which can abort the encode.
+typedef struct {
+  JNIEnv* env;
+  JavaVM* vm;
+  jobject listener;
+  jmethodID update;
+} ProgressReporter;
+
+static int InitProgressReporter(JNIEnv *env, ProgressReporter* reporter, jobject listener) {
+  reporter->env = env;
+  reporter->listener = listener;
+  if ((*env)->GetJavaVM(env, &reporter->vm) != JNI_OK) {
+    return 0;
+  }
+  reporter->update = (*env)->GetMethodID(env, (*env)->GetObjectClass(env, listener), "update", "(I)Z");
+  return reporter->update != NULL;
+}
+
+// Progress that libwebp reports from its worker threads is skipped, as the listener can only be
+// called on the thread that started the encode.
+static int ReportProgress(int percent, const WebPPicture* picture) {
+  ProgressReporter* reporter = (ProgressReporter*)picture->user_data;
+  JNIEnv* env;
+  jboolean proceed;
+
+  if ((*reporter->vm)->GetEnv(reporter->vm, (void**)&env, JNI_VERSION_1_6) != JNI_OK || env != reporter->env) {
+    return 1;
+  }
+  proceed = (*env)->CallBooleanMethod(env, reporter->listener, reporter->update, percent);
+  if ((*env)->ExceptionCheck(env)) {
+    return 0;
+  }
+  return proceed == JNI_TRUE;
+}
+
+// The number of values that StoreStats stores in the statistics array of a WebPEncodeResult.
+#define STATS_SIZE 41
+
+// System and System.nanoTime(), looked up by the first call to NanoTime.
+static jclass system_class = NULL;
+static jmethodID nano_time_method = NULL;
+
+// Returns System.nanoTime(), so that the times measured here can be combined with those measured
+// in Java.
+static jlong NanoTime(JNIEnv *env) {
+  jclass cls;
+  jclass global;
+
+  if (nano_time_method == NULL) {
+    cls = (*env)->FindClass(env, "java/lang/System");
+    if (cls == NULL) {
+      return 0;
+    }
+    global = (jclass)(*env)->NewGlobalRef(env, cls);
+    (*env)->DeleteLocalRef(env, cls);
+    if (global == NULL) {
+      return 0;
+    }
+    // Threads that look up the class at the same time keep the reference of the first one.
+    if (__sync_val_compare_and_swap(&system_class, NULL, global) != NULL) {
+      (*env)->DeleteGlobalRef(env, global);
+    }
+    nano_time_method = (*env)->GetStaticMethodID(env, system_class, "nanoTime", "()J");
+    if (nano_time_method == NULL) {
+      return 0;
+    }
+  }
+  return (*env)->CallStaticLongMethod(env, system_class, nano_time_method);
+}
+
+// Stores the statistics of an encode for a WebPEncodeResult: the PSNR of Y, U, V, all channels and
+// alpha, and the other statistics followed by the import, encode and output times in nanoseconds.
+static void StoreStats(JNIEnv *env, const WebPAuxStats* stats, jlong import_time, jlong encode_time, jlong output_time,
+                       jfloatArray out_psnr, jlongArray out_stats) {
+  jlong values[STATS_SIZE];
+  int n = 0;
+  int i;
+  int j;
+
+  values[n++] = stats->coded_size;
+  for (i = 0; i < 3; i++) {
+    values[n++] = stats->block_count[i];
+  }
+  for (i = 0; i < 2; i++) {
+    values[n++] = stats->header_bytes[i];
+  }
+  for (i = 0; i < 3; i++) {
+    for (j = 0; j < 4; j++) {
+      values[n++] = stats->residual_bytes[i][j];
+    }
+  }
+  for (i = 0; i < 4; i++) {
+    values[n++] = stats->segment_size[i];
+  }
+  for (i = 0; i < 4; i++) {
+    values[n++] = stats->segment_quant[i];
+  }
+  for (i = 0; i < 4; i++) {
+    values[n++] = stats->segment_level[i];
+  }
+  values[n++] = stats->alpha_data_size;
+  values[n++] = stats->layer_data_size;
+  values[n++] = stats->lossless_features;
+  values[n++] = stats->histogram_bits;
+  values[n++] = stats->transform_bits;
+  values[n++] = stats->cache_bits;
+  values[n++] = stats->palette_size;
+  values[n++] = stats->lossless_size;
+  values[n++] = import_time;
+  values[n++] = encode_time;
+  values[n++] = output_time;
+
+  (*env)->SetFloatArrayRegion(env, out_psnr, 0, 5, stats->PSNR);
+  (*env)->SetLongArrayRegion(env, out_stats, 0, n, values);
+}
+
+// Encodes the imported pixels. Without an output stream the encoded data is collected in memory
+// and returned. Otherwise it is written to the stream while encoding, and NULL is returned; errors
+// are then thrown as an IOException. The progress listener is optional, and so are the arrays that
+// receive the statistics, see StoreStats.
 static jbyteArray encode
-  (JNIEnv *env, jlong configPtr, Importer import, jbyteArray data, jint width, jint height, jint stride) {
+  (JNIEnv *env, jintArray configValues, Importer import, jobject data, jint offset, jint width, jint height, jint stride,
+   jint scaled_width, jint scaled_height, jboolean pin_free, jobject output, jobject progress, jfloatArray out_psnr,
+   jlongArray out_stats) {
   WebPPicture pic;
-  WebPConfig* config = (WebPConfig*) (intptr_t) configPtr;
-  WebPMemoryWriter wrt;
-  int ok;
-  uint8_t* data_ptr = NULL;
+  WebPConfig config;
+  TrackedWriter wrt;
+  StreamWriter stream;
+  ProgressReporter reporter;
+  WebPAuxStats stats;
+  jlong start_time = 0;
+  jlong import_time = 0;
+  jlong encode_time = 0;
+  int encoded = 0;
   jbyteArray result = NULL;
-  uint8_t* result_ptr = NULL;
+  size_t tracked_bytes = 0;
 
-  if (!WebPPictureInit(&pic)) {
+  if (!ReadConfig(env, configValues, &config) || !WebPPictureInit(&pic)) {
     return NULL;
   }
 
   pic.width = width;
   pic.height = height;
-  pic.writer = WebPMemoryWrite;
-  pic.custom_ptr = &wrt;
 
-  if (config->lossless) {
+  if (config.lossless) {
     pic.use_argb = 1;
   } else {
     pic.use_argb = 0;
   }
 
-  WebPMemoryWriterInit(&wrt);
+  InitTrackedWriter(&wrt);
 
-  data_ptr = (*env)->GetPrimitiveArrayCritical(env, data, NULL);
-  if (data_ptr == NULL) {
-    goto exit;
+  if (output != NULL) {
+    if (!InitStreamWriter(env, &stream, output)) {
+      goto exit;
+    }
+    pic.writer = StreamWrite;
+    pic.custom_ptr = &stream;
+  } else {
+    pic.writer = TrackedWrite;
+    pic.custom_ptr = &wrt;
   }
-  ok = import(&pic, data_ptr, stride);
-  if (data_ptr != NULL) {
-    (*env)->ReleasePrimitiveArrayCritical(env, data, data_ptr, JNI_ABORT);
+
+  if (progress != NULL) {
+    if (!InitProgressReporter(env, &reporter, progress)) {
+      goto exit;
+    }
+    pic.progress_hook = ReportProgress;
+    pic.user_data = &reporter;
   }
-  if (!ok) goto exit;
 
-  if (!WebPEncode(config, &pic)) {
-    goto exit;
+  if (out_stats != NULL) {
+    memset(&stats, 0, sizeof(stats));
+    pic.stats = &stats;
+    start_time = NanoTime(env);
   }
 
-  result = (*env)->NewByteArray(env, wrt.size);
-  if (!result) {
+  if (!ImportPicture(env, &pic, import, data, offset, stride, scaled_width, scaled_height, pin_free)) {
     goto exit;
   }
+  tracked_bytes = PictureBytes(&pic);
+  TrackBytes((jlong) tracked_bytes);
 
-  result_ptr = (*env)->GetPrimitiveArrayCritical(env, result, NULL);
-  if (!result_ptr) {
+  if (out_stats != NULL) {
+    import_time = NanoTime(env);
+  }
+
+  if (!WebPEncode(&config, &pic)) {
     goto exit;
   }
+  encoded = 1;
+
+  if (out_stats != NULL) {
+    encode_time = NanoTime(env);
+  }
+
+  // A stream receives the output while encoding, so its output time is part of the encode time.
+  if (output == NULL) {
+    result = (*env)->NewByteArray(env, wrt.memory.size);
+    if (!result) {
+      goto exit;
+    }
+
+    (*env)->SetByteArrayRegion(env, result, 0, wrt.memory.size, (const jbyte*) wrt.memory.mem);
+    if ((*env)->ExceptionCheck(env)) {
+      result = NULL;
+      goto exit;
+    }
+  }
 
-  memmove(result_ptr, wrt.mem, wrt.size);
-  (*env)->ReleasePrimitiveArrayCritical(env, result, result_ptr, 0);
+  if (out_stats != NULL) {
+    StoreStats(env, &stats, import_time - start_time, encode_time - import_time,
+               output == NULL ? NanoTime(env) - encode_time : 0, out_psnr, out_stats);
+  }
 
 exit:
+  if (output != NULL && !encoded && !(*env)->ExceptionCheck(env)) {
+    throwEncodingError(env, pic.error_code);
+  }
+  TrackBytes(-(jlong) tracked_bytes);
   WebPPictureFree(&pic);
-  if (wrt.mem) free(wrt.mem);
+  FreeTrackedWriter(&wrt);
   return result;
 }
 
 JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGBA
-  (JNIEnv *env, jclass UNUSED(cls_), jlong configPtr, jbyteArray data, jint width, jint height, jint stride) {
- return encode(env, configPtr, WebPPictureImportRGBA, data, width, height, stride);
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jbyteArray data, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, WebPPictureImportRGBA, data, 0, width, height, stride, scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
 }
 
 JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGB
-  (JNIEnv *env, jclass UNUSED(cls_), jlong configPtr, jbyteArray data, jint width, jint height, jint stride) {
-  return encode(env, configPtr, WebPPictureImportRGB, data, width, height, stride);
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jbyteArray data, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, WebPPictureImportRGB, data, 0, width, height, stride, scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+// Imports RGBA pixels without their alpha, for pixels that are known to be opaque.
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeRGBX
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jbyteArray data, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, WebPPictureImportRGBX, data, 0, width, height, stride, scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+// Returns the importer for one of the PICTURE_* layouts of WebP.java, and the size of its array
+// elements.
+static Importer GetImporter(jint format, jboolean bigendian, size_t* element_size) {
+  *element_size = 1;
+  switch (format) {
+    case com_luciad_imageio_webp_WebP_PICTURE_RGBA:
+      return WebPPictureImportRGBA;
+    case com_luciad_imageio_webp_WebP_PICTURE_RGB:
+      return WebPPictureImportRGB;
+    case com_luciad_imageio_webp_WebP_PICTURE_RGBX:
+      return WebPPictureImportRGBX;
+    case com_luciad_imageio_webp_WebP_PICTURE_INT_ARGB:
+      *element_size = sizeof(jint);
+      return bigendian ? ImportIntARGB : WebPPictureImportBGRA;
+    case com_luciad_imageio_webp_WebP_PICTURE_INT_RGB:
+      *element_size = sizeof(jint);
+      return bigendian ? ImportIntRGB : WebPPictureImportBGRX;
+    case com_luciad_imageio_webp_WebP_PICTURE_4BYTE_ABGR:
+      return Import4ByteABGR;
+    case com_luciad_imageio_webp_WebP_PICTURE_3BYTE_BGR:
+      return WebPPictureImportBGR;
+    default:
+      return NULL;
+  }
+}
+
+// Encodes RGBA, RGBX or RGB bytes in a direct buffer, given by one of the PICTURE_* layouts of
+// WebP.java. The offset is in bytes from the start of the buffer.
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeBuffer
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jobject data, jint format, jint offset, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  Importer import;
+  size_t element_size;
+
+  import = GetImporter(format, JNI_FALSE, &element_size);
+  if (import == NULL || element_size != 1) {
+    return NULL;
+  }
+  return encode(env, config, import, data, offset, width, height, stride, scaledWidth, scaledHeight, JNI_FALSE, output, progress, outPSNR, outStats);
+}
+
+// The raster entry points import straight from the backing array of the image. Offsets and strides
+// are given in array elements.
+
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeIntARGB
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jintArray data, jint offset, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean bigendian, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  // On little-endian platforms the ints are laid out as B, G, R, A bytes.
+  return encode(env, config, bigendian ? ImportIntARGB : WebPPictureImportBGRA,
+                data, offset * sizeof(jint), width, height, stride * sizeof(jint), scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodeIntRGB
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jintArray data, jint offset, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean bigendian, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, bigendian ? ImportIntRGB : WebPPictureImportBGRX,
+                data, offset * sizeof(jint), width, height, stride * sizeof(jint), scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encode4ByteABGR
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jbyteArray data, jint offset, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, Import4ByteABGR, data, offset, width, height, stride, scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encode3ByteBGR
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray config, jbyteArray data, jint offset, jint width, jint height, jint stride,
+   jint scaledWidth, jint scaledHeight, jboolean pinFree, jobject output, jobject progress, jfloatArray outPSNR, jlongArray outStats) {
+  return encode(env, config, WebPPictureImportBGR, data, offset, width, height, stride, scaledWidth, scaledHeight, pinFree, output, progress, outPSNR, outStats);
+}
+
+// Imports the pixels once, so that they can be encoded with several configurations. For lossy
+// encoding the pixels are converted to YUV right away, unless the conversion depends on the
+// configuration.
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createPicture
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray configValues, jobject data, jint format, jint offset,
+   jint width, jint height, jint stride, jint scaledWidth, jint scaledHeight, jboolean bigendian, jboolean pinFree) {
+  WebPConfig config;
+  WebPPicture* pic;
+  Importer import;
+  size_t element_size;
+  int ok;
+
+  import = GetImporter(format, bigendian, &element_size);
+  if (import == NULL || !ReadConfig(env, configValues, &config)) {
+    return 0;
+  }
+
+  pic = malloc(sizeof(WebPPicture));
+  if (pic == NULL) {
+    return 0;
+  }
+  if (!WebPPictureInit(pic)) {
+    free(pic);
+    return 0;
+  }
+  pic->width = width;
+  pic->height = height;
+  pic->use_argb = config.lossless ? 1 : 0;
+
+  ok = ImportPicture(env, pic, import, data, offset * element_size, stride * element_size, scaledWidth, scaledHeight, pinFree);
+
+  if (ok && !config.lossless && pic->use_argb && !(config.preprocessing & 2)) {
+    ok = WebPPictureARGBToYUVA(pic, WEBP_YUV420);
+  }
+  if (!ok) {
+    WebPPictureFree(pic);
+    free(pic);
+    return 0;
+  }
+  TrackObjects(LIVE_PICTURES, 1);
+  TrackBytes((jlong) (sizeof(WebPPicture) + PictureBytes(pic)));
+  return (jlong) (intptr_t) pic;
+}
+
+// Encodes a copy of an imported picture with the given quality and method. The picture itself is
+// only read, so several threads can encode the same picture at once. Target sizes and qualities
+// of the configuration are ignored. The five PSNR values of the result are stored in outPSNR, and
+// when outStats is not NULL, the other statistics as well, with the copy of the picture as import
+// time. The progress listener is optional.
+JNIEXPORT jbyteArray JNICALL Java_com_luciad_imageio_webp_WebP_encodePicture
+  (JNIEnv *env, jclass UNUSED(cls_), jintArray configValues, jlong picturePtr, jfloat quality, jint method, jfloatArray outPSNR,
+   jlongArray outStats, jobject progress) {
+  WebPConfig config;
+  const WebPPicture* source = (const WebPPicture*) (intptr_t) picturePtr;
+  WebPPicture pic;
+  TrackedWriter wrt;
+  WebPAuxStats stats;
+  ProgressReporter reporter;
+  jbyteArray result = NULL;
+  jlong start_time = 0;
+  jlong import_time = 0;
+  jlong encode_time = 0;
+  size_t tracked_bytes;
+
+  if (!ReadConfig(env, configValues, &config)) {
+    return NULL;
+  }
+  config.quality = quality;
+  config.method = method;
+  config.target_size = 0;
+  config.target_PSNR = 0;
+  if (!WebPValidateConfig(&config)) {
+    throwEncodingError(env, VP8_ENC_ERROR_INVALID_CONFIGURATION);
+    return NULL;
+  }
+
+  if (outStats != NULL) {
+    start_time = NanoTime(env);
+  }
+  if (!WebPPictureCopy(source, &pic)) {
+    throwEncodingError(env, VP8_ENC_ERROR_OUT_OF_MEMORY);
+    return NULL;
+  }
+  tracked_bytes = PictureBytes(&pic);
+  TrackBytes((jlong) tracked_bytes);
+  if (outStats != NULL) {
+    import_time = NanoTime(env);
+  }
+
+  memset(&stats, 0, sizeof(stats));
+  InitTrackedWriter(&wrt);
+  pic.writer = TrackedWrite;
+  pic.custom_ptr = &wrt;
+  pic.stats = &stats;
+
+  if (progress != NULL) {
+    if (!InitProgressReporter(env, &reporter, progress)) {
+      goto exit;
+    }
+    pic.progress_hook = ReportProgress;
+    pic.user_data = &reporter;
+  }
+
+  if (!WebPEncode(&config, &pic)) {
+    if (!(*env)->ExceptionCheck(env)) {
+      throwEncodingError(env, pic.error_code);
+    }
+    goto exit;
+  }
+
+  if (outStats != NULL) {
+    encode_time = NanoTime(env);
+  }
+
+  result = (*env)->NewByteArray(env, wrt.memory.size);
+  if (result == NULL) {
+    goto exit;
+  }
+  (*env)->SetByteArrayRegion(env, result, 0, wrt.memory.size, (const jbyte*) wrt.memory.mem);
+
+  if (outStats != NULL) {
+    StoreStats(env, &stats, import_time - start_time, encode_time - import_time, NanoTime(env) - encode_time,
+               outPSNR, outStats);
+  } else {
+    (*env)->SetFloatArrayRegion(env, outPSNR, 0, 5, stats.PSNR);
+  }
+
+exit:
+  TrackBytes(-(jlong) tracked_bytes);
+  WebPPictureFree(&pic);
+  FreeTrackedWriter(&wrt);
+  return result;
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deletePicture
+  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong picturePtr) {
+  WebPPicture* pic = (WebPPicture*) (intptr_t) picturePtr;
+  if (pic != NULL) {
+    TrackObjects(LIVE_PICTURES, -1);
+    TrackBytes(-(jlong) (sizeof(WebPPicture) + PictureBytes(pic)));
+  }
+  WebPPictureFree(pic);
+  free(pic);
 }
 
-JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebPWriteParam_createConfig
+JNIEXPORT jlong JNICALL Java_com_luciad_imageio_webp_WebP_createMux
   (JNIEnv* UNUSED(env), jclass UNUSED(cls_)) {
-  WebPConfig* config = calloc(1, sizeof(WebPConfig));
-  if (config) {
-    WebPConfigInit(config);
-  }
-  return (jlong)(intptr_t)config;
-}
-
-JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPWriteParam_deleteConfig
-  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong configPtr) {
-  WebPConfig* config = (WebPConfig*) (intptr_t) configPtr;
-  free(config);
-}
-
-PROPERTY(WebPWriteParam, jfloat, get, set, Quality, WebPConfig, quality)
-PROPERTY(WebPWriteParam, jint, get, set, TargetSize, WebPConfig, target_size)
-PROPERTY(WebPWriteParam, jfloat, get, set, TargetPSNR, WebPConfig, target_PSNR)
-PROPERTY(WebPWriteParam, jint, get, set, Method, WebPConfig, method)
-PROPERTY(WebPWriteParam, jint, get, set, Segments, WebPConfig, segments)
-PROPERTY(WebPWriteParam, jint, get, set, SnsStrength, WebPConfig, sns_strength)
-PROPERTY(WebPWriteParam, jint, get, set, FilterStrength, WebPConfig, filter_strength)
-PROPERTY(WebPWriteParam, jint, get, set, FilterSharpness, WebPConfig, filter_sharpness)
-PROPERTY(WebPWriteParam, jint, get, set, FilterType, WebPConfig, filter_type)
-PROPERTY(WebPWriteParam, jint, get, set, Autofilter, WebPConfig, autofilter)
-PROPERTY(WebPWriteParam, jint, get, set, Pass, WebPConfig, pass)
-PROPERTY(WebPWriteParam, jint, get, set, ShowCompressed, WebPConfig, show_compressed)
-PROPERTY(WebPWriteParam, jint, get, set, Preprocessing, WebPConfig, preprocessing)
-PROPERTY(WebPWriteParam, jint, get, set, Partitions, WebPConfig, partitions)
-PROPERTY(WebPWriteParam, jint, get, set, PartitionLimit, WebPConfig, partition_limit)
-PROPERTY(WebPWriteParam, jint, get, set, AlphaCompression, WebPConfig, alpha_compression)
-PROPERTY(WebPWriteParam, jint, get, set, AlphaFiltering, WebPConfig, alpha_filtering)
-PROPERTY(WebPWriteParam, jint, get, set, AlphaQuality, WebPConfig, alpha_quality)
-PROPERTY(WebPWriteParam, jint, get, set, Lossless, WebPConfig, lossless)
-PROPERTY(WebPWriteParam, jint, get, set, EmulateJpegSize, WebPConfig, emulate_jpeg_size)
-PROPERTY(WebPWriteParam, jint, get, set, ThreadLevel, WebPConfig, thread_level)
-PROPERTY(WebPWriteParam, jint, get, set, LowMemory, WebPConfig, low_memory)
+  return (jlong) (intptr_t) WebPMuxNew();
+}
+
+JNIEXPORT jint JNICALL Java_com_luciad_imageio_webp_WebP_addMuxFrame
+  (JNIEnv *env, jclass UNUSED(cls_), jlong muxPtr, jbyteArray data, jint x, jint y, jint duration, jboolean blend, jboolean disposeBackground) {
+  WebPMux* mux = (WebPMux*) (intptr_t) muxPtr;
+  WebPMuxFrameInfo frame;
+  jbyte* data_ptr;
+  WebPMuxError result;
+
+  data_ptr = (*env)->GetByteArrayElements(env, data, NULL);
+  if (data_ptr == NULL) {
+    return WEBP_MUX_MEMORY_ERROR;
+  }
+
+  memset(&frame, 0, sizeof(frame));
+  frame.bitstream.bytes = (const uint8_t*) data_ptr;
+  frame.bitstream.size = (*env)->GetArrayLength(env, data);
+  frame.x_offset = x;
+  frame.y_offset = y;
+  frame.duration = duration;
+  frame.id = WEBP_CHUNK_ANMF;
+  frame.dispose_method = disposeBackground ? WEBP_MUX_DISPOSE_BACKGROUND : WEBP_MUX_DISPOSE_NONE;
+  frame.blend_method = blend ? WEBP_MUX_BLEND : WEBP_MUX_NO_BLEND;
+
+  // The mux keeps a copy of the frame, so the Java array does not have to outlive this call.
+  result = WebPMuxPushFrame(mux, &frame, 1);
+  (*env)->ReleaseByteArrayElements(env, data, data_ptr, JNI_ABORT);
+  return result;
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_assembleMux
+  (JNIEnv *env, jclass UNUSED(cls_), jlong muxPtr, jint loopCount, jint backgroundColor, jobject output) {
+  WebPMux* mux = (WebPMux*) (intptr_t) muxPtr;
+  WebPMuxAnimParams params;
+  WebPData assembled;
+  StreamWriter stream;
+  WebPMuxError result;
+
+  WebPDataInit(&assembled);
+
+  params.bgcolor = (uint32_t) backgroundColor;
+  params.loop_count = loopCount;
+  result = WebPMuxSetAnimationParams(mux, &params);
+  if (result != WEBP_MUX_OK) {
+    goto exit;
+  }
+
+  result = WebPMuxAssemble(mux, &assembled);
+  if (result != WEBP_MUX_OK) {
+    goto exit;
+  }
+
+  if (InitStreamWriter(env, &stream, output)) {
+    WriteStream(&stream, assembled.bytes, assembled.size);
+  }
+
+exit:
+  if (result != WEBP_MUX_OK) {
+    throwIOException(env, "Mux returned code %d", result);
+  }
+  WebPDataClear(&assembled);
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebP_deleteMux
+  (JNIEnv* UNUSED(env), jclass UNUSED(cls_), jlong muxPtr) {
+  WebPMuxDelete((WebPMux*) (intptr_t) muxPtr);
+}
+
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPWriteParam_getDefaultConfig
+  (JNIEnv* env, jclass UNUSED(cls_), jintArray values) {
+  WebPConfig config;
+
+  if (WebPConfigInit(&config)) {
+    GetFields(env, &config, CONFIG_FIELDS, CONFIG_SIZE, values);
+  }
+}
+
+// Gives a lossy configuration for an image that was analysed by the Auto compression type the
+// filter and spatial noise shaping settings of the given WebPPreset.
+JNIEXPORT void JNICALL Java_com_luciad_imageio_webp_WebPWriteParam_applyPreset
+  (JNIEnv* env, jclass UNUSED(cls_), jintArray values, jint preset) {
+  WebPConfig config;
+  WebPConfig tuned;
+
+  if (!ReadConfig(env, values, &config) || !WebPConfigPreset(&tuned, (WebPPreset) preset, config.quality)) {
+    return;
+  }
+  config.sns_strength = tuned.sns_strength;
+  config.filter_strength = tuned.filter_strength;
+  config.filter_sharpness = tuned.filter_sharpness;
+  config.segments = tuned.segments;
+  config.preprocessing = (config.preprocessing & ~2) | (tuned.preprocessing & 2);
+  GetFields(env, &config, CONFIG_FIELDS, CONFIG_SIZE, values);
+}
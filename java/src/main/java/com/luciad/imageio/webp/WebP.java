@@ -15,6 +15,11 @@
  */
 package com.luciad.imageio.webp;
 
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
@@ -23,24 +28,75 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Hashtable;
 
 final class WebP {
+  private static final int INCREMENTAL_CHUNK_SIZE = 16 * 1024;
+
+  /**
+   * The default of {@link WebPReadParam#isPinFree()} and {@link WebPWriteParam#isPinFree()}, set with
+   * the {@code com.luciad.imageio.webp.pinFree} system property.
+   */
+  static final boolean PIN_FREE = Boolean.getBoolean( "com.luciad.imageio.webp.pinFree" );
+
+  /**
+   * The number of values per frame returned by {@link #demux(ByteBuffer, int[])}: the x and y
+   * offset, width, height, alpha, blend and dispose flags, and the offset and length of the frame
+   * bitstream in the buffer.
+   */
+  static final int FRAME_INFO_SIZE = 9;
+
+  // The pixel layouts of createPicture.
+  static final int PICTURE_RGBA = 0;
+  static final int PICTURE_RGB = 1;
+  static final int PICTURE_INT_ARGB = 2;
+  static final int PICTURE_INT_RGB = 3;
+  static final int PICTURE_4BYTE_ABGR = 4;
+  static final int PICTURE_3BYTE_BGR = 5;
+  static final int PICTURE_RGBX = 6;
+
   private static boolean NATIVE_LIBRARY_LOADED = false;
 
+  /**
+   * Receives the progress of an encode, on the thread that called the encoder.
+   */
+  interface ProgressListener {
+    /**
+     * @param aPercent how much of the image has been encoded, between 0 and 100.
+     * @return {@code false} to abort the encode, which then fails with an {@link IOException}.
+     */
+    boolean update( int aPercent );
+
+    /**
+     * @return whether the encode has been aborted. Unlike {@link #update(int)}, this may be called
+     * from any thread, so that the encoders that run for it elsewhere stop as well.
+     */
+    boolean isAborted();
+  }
+
   static synchronized void loadNativeLibrary() {
     if ( !NATIVE_LIBRARY_LOADED ) {
+      WebPNativeLibrary.load();
       NATIVE_LIBRARY_LOADED = true;
-      System.loadLibrary( "webp-imageio" );
+      WebPCodecStats.register();
     }
   }
 
+  static synchronized boolean isNativeLibraryLoaded() {
+    return NATIVE_LIBRARY_LOADED;
+  }
+
   static {
     loadNativeLibrary();
   }
@@ -61,37 +117,419 @@ final class WebP {
       throw new IllegalArgumentException( "Offset/length exceeds array size" );
     }
 
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
     int[] out = new int[4];
-    int[] pixels = decode( aReadParam.fPointer, aData, aOffset, aLength, out, ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ) );
-    VP8StatusCode status = VP8StatusCode.getStatusCode( out[0] );
-    switch ( status ) {
+    int[] pixels;
+    if ( aReadParam.isPinFree() ) {
+      long decoder = decodeIncrementally( aReadParam, aData, aOffset, aLength, false );
+      try {
+        pixels = getIncrementalPixels( decoder, out );
+      } finally {
+        deleteIncrementalDecoder( decoder );
+      }
+    }
+    else {
+      pixels = decode( aReadParam.getOptions(), aData, aOffset, aLength, out, ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ) );
+    }
+    checkStatus( VP8StatusCode.getStatusCode( out[0] ) );
+    long decodeTime = System.nanoTime() - start;
+    BufferedImage image = createImage( pixels, out[1], out[2], out[3] != 0 );
+    decoded( event, aReadParam, start, decodeTime, aLength, out[1], out[2], out[3] != 0 );
+    return image;
+  }
+
+  public static BufferedImage decode( WebPReadParam aReadParam, ImageInputStream aInput ) throws IOException {
+    if ( aReadParam == null ) {
+      throw new NullPointerException( "Decoder options may not be null" );
+    }
+
+    if ( aInput == null ) {
+      throw new NullPointerException( "Input stream may not be null" );
+    }
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
+    long decoder = createIncrementalDecoder( aReadParam.getOptions(), ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ), false );
+    if ( decoder == 0 ) {
+      throw new OutOfMemoryError();
+    }
+
+    try {
+      long length = appendIncrementalData( decoder, aInput );
+
+      int[] out = new int[4];
+      int[] pixels = getIncrementalPixels( decoder, out );
+      checkStatus( VP8StatusCode.getStatusCode( out[0] ) );
+      long decodeTime = System.nanoTime() - start;
+      BufferedImage image = createImage( pixels, out[1], out[2], out[3] != 0 );
+      decoded( event, aReadParam, start, decodeTime, length, out[1], out[2], out[3] != 0 );
+      return image;
+    } finally {
+      deleteIncrementalDecoder( decoder );
+    }
+  }
+
+  /**
+   * Decodes into the pixels of {@code aDestination}, starting at its top left corner. The
+   * destination must be compatible according to {@link #canDecodeInto(BufferedImage)} and large
+   * enough to hold the decoded image.
+   */
+  public static void decode( WebPReadParam aReadParam, byte[] aData, int aOffset, int aLength, BufferedImage aDestination ) throws IOException {
+    if ( aReadParam == null ) {
+      throw new NullPointerException( "Decoder options may not be null" );
+    }
+
+    if ( aData == null ) {
+      throw new NullPointerException( "Input data may not be null" );
+    }
+
+    if ( aOffset + aLength > aData.length ) {
+      throw new IllegalArgumentException( "Offset/length exceeds array size" );
+    }
+
+    if ( !canDecodeInto( aDestination ) ) {
+      throw new IllegalArgumentException( "Unsupported destination image: " + aDestination );
+    }
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
+    WritableRaster raster = aDestination.getRaster();
+    if ( aReadParam.isPinFree() ) {
+      long decoder = decodeIncrementally( aReadParam, aData, aOffset, aLength, aDestination.isAlphaPremultiplied() );
+      try {
+        int[] size = new int[ 2 ];
+        checkStatus( VP8StatusCode.getStatusCode( getIncrementalSize( decoder, size ) ) );
+        if ( size[ 0 ] > raster.getWidth() || size[ 1 ] > raster.getHeight() ) {
+          checkStatus( VP8StatusCode.VP8_STATUS_INVALID_PARAM );
+        }
+        int status = copyIncrementalPixels( decoder, getPixels( raster ), getPixelOffset( raster ), getScanlineStride( raster ),
+                                            0, 0, size[ 0 ], size[ 1 ] );
+        checkStatus( VP8StatusCode.getStatusCode( status ) );
+        decoded( event, aReadParam, start, System.nanoTime() - start, aLength, size[ 0 ], size[ 1 ], aDestination.getColorModel().hasAlpha() );
+      } finally {
+        deleteIncrementalDecoder( decoder );
+      }
+      return;
+    }
+
+    int[] size = new int[ 2 ];
+    int status = decodeInto( aReadParam.getOptions(), aData, aOffset, aLength,
+                             getPixels( raster ), getPixelOffset( raster ), getScanlineStride( raster ),
+                             raster.getWidth(), raster.getHeight(),
+                             ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ), aDestination.isAlphaPremultiplied(), size );
+    checkStatus( VP8StatusCode.getStatusCode( status ) );
+    decoded( event, aReadParam, start, System.nanoTime() - start, aLength, size[ 0 ], size[ 1 ], aDestination.getColorModel().hasAlpha() );
+  }
+
+  /**
+   * Decodes into the pixels of {@code aDestination} while the data is being read. The region of
+   * the decoded image starting at ({@code aSourceX}, {@code aSourceY}) is copied into
+   * {@code aDestinationRegion}. The destination must be compatible according to
+   * {@link #canDecodeInto(BufferedImage)}.
+   */
+  public static void decode( WebPReadParam aReadParam, ImageInputStream aInput, int aSourceX, int aSourceY,
+                             BufferedImage aDestination, Rectangle aDestinationRegion ) throws IOException {
+    if ( aReadParam == null ) {
+      throw new NullPointerException( "Decoder options may not be null" );
+    }
+
+    if ( aInput == null ) {
+      throw new NullPointerException( "Input stream may not be null" );
+    }
+
+    checkDestination( aDestination, aDestinationRegion );
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
+    long decoder = createIncrementalDecoder( aReadParam.getOptions(), ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ), aDestination.isAlphaPremultiplied() );
+    if ( decoder == 0 ) {
+      throw new OutOfMemoryError();
+    }
+
+    try {
+      long length = appendIncrementalData( decoder, aInput );
+
+      WritableRaster raster = aDestination.getRaster();
+      int scanlineStride = getScanlineStride( raster );
+      int pixelOffset = getPixelOffset( raster ) + aDestinationRegion.y * scanlineStride + aDestinationRegion.x;
+      int status = copyIncrementalPixels( decoder, getPixels( raster ), pixelOffset, scanlineStride,
+                                          aSourceX, aSourceY, aDestinationRegion.width, aDestinationRegion.height );
+      checkStatus( VP8StatusCode.getStatusCode( status ) );
+      decoded( event, aReadParam, start, System.nanoTime() - start, length, aDestinationRegion.width, aDestinationRegion.height,
+               aDestination.getColorModel().hasAlpha() );
+    } finally {
+      deleteIncrementalDecoder( decoder );
+    }
+  }
+
+  /**
+   * Decodes the remaining bytes of a direct buffer, such as a mapped file, into the pixels of
+   * {@code aDestination}. The data is passed to the decoder by address, without copying it onto
+   * the heap. The region of the decoded image starting at ({@code aSourceX}, {@code aSourceY}) is
+   * copied into {@code aDestinationRegion}. The destination must be compatible according to
+   * {@link #canDecodeInto(BufferedImage)}.
+   */
+  public static void decode( WebPReadParam aReadParam, ByteBuffer aData, int aSourceX, int aSourceY,
+                             BufferedImage aDestination, Rectangle aDestinationRegion ) throws IOException {
+    if ( aReadParam == null ) {
+      throw new NullPointerException( "Decoder options may not be null" );
+    }
+
+    if ( aData == null ) {
+      throw new NullPointerException( "Input data may not be null" );
+    }
+
+    if ( !aData.isDirect() ) {
+      throw new IllegalArgumentException( "Input buffer must be direct" );
+    }
+
+    checkDestination( aDestination, aDestinationRegion );
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
+    WritableRaster raster = aDestination.getRaster();
+    int scanlineStride = getScanlineStride( raster );
+    int pixelOffset = getPixelOffset( raster ) + aDestinationRegion.y * scanlineStride + aDestinationRegion.x;
+    int status = decodeBuffer( aReadParam.getOptions(), aData, aData.position(), aData.remaining(),
+                               getPixels( raster ), pixelOffset, scanlineStride,
+                               aSourceX, aSourceY, aDestinationRegion.width, aDestinationRegion.height,
+                               ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ), aDestination.isAlphaPremultiplied(),
+                               aReadParam.isPinFree() );
+    checkStatus( VP8StatusCode.getStatusCode( status ) );
+    decoded( event, aReadParam, start, System.nanoTime() - start, aData.remaining(), aDestinationRegion.width, aDestinationRegion.height,
+             aDestination.getColorModel().hasAlpha() );
+  }
+
+  /**
+   * Decodes the remaining bytes of a direct buffer into non-premultiplied RGBA bytes in another
+   * direct buffer, such as off-heap memory, starting at its position. Neither buffer is copied onto
+   * the heap or pinned.
+   *
+   * @param aStride the number of bytes between the starts of two rows in the pixel buffer.
+   * @return the size of the decoded image.
+   */
+  public static Dimension decode( WebPReadParam aReadParam, ByteBuffer aData, ByteBuffer aPixels, int aStride ) throws IOException {
+    if ( aReadParam == null ) {
+      throw new NullPointerException( "Decoder options may not be null" );
+    }
+
+    if ( aData == null || aPixels == null ) {
+      throw new NullPointerException( "Input data and pixels may not be null" );
+    }
+
+    if ( !aData.isDirect() || !aPixels.isDirect() ) {
+      throw new IllegalArgumentException( "Input and pixel buffers must be direct" );
+    }
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginDecode();
+    int[] size = new int[ 2 ];
+    int status = decodeToBuffer( aReadParam.getOptions(), aData, aData.position(), aData.remaining(),
+                                 aPixels, aPixels.position(), aStride, size );
+    checkStatus( VP8StatusCode.getStatusCode( status ) );
+    decoded( event, aReadParam, start, System.nanoTime() - start, aData.remaining(), size[ 0 ], size[ 1 ], true );
+    return new Dimension( size[ 0 ], size[ 1 ] );
+  }
+
+  /**
+   * Counts a successful decode in the {@link WebPCodecStats}, and records the event, if one was
+   * begun.
+   *
+   * @param aDecodeTime the time it took to decode the pixels, before they were converted to an image.
+   * @param aAlpha      whether the decoded pixels have an alpha channel.
+   */
+  private static void decoded( Object aEvent, WebPReadParam aReadParam, long aStart, long aDecodeTime, long aBytesIn,
+                               int aWidth, int aHeight, boolean aAlpha ) {
+    WebPCodecStats.decoded( aStart, aBytesIn, ( long ) aWidth * aHeight );
+    if ( aEvent != null ) {
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_WIDTH, aWidth );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_HEIGHT, aHeight );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_BYTES_IN, aBytesIn );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_BYTES_OUT, 4L * aWidth * aHeight );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_ALPHA, aAlpha );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_CROPPING, aReadParam.isUseCropping() );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_SCALING, aReadParam.isUseScaling() );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.DECODE_NATIVE_TIME, aDecodeTime );
+      WebPFlightRecorder.commit( aEvent );
+    }
+  }
+
+  private static void checkDestination( BufferedImage aDestination, Rectangle aDestinationRegion ) {
+    if ( !canDecodeInto( aDestination ) ) {
+      throw new IllegalArgumentException( "Unsupported destination image: " + aDestination );
+    }
+
+    WritableRaster raster = aDestination.getRaster();
+    if ( !new Rectangle( raster.getWidth(), raster.getHeight() ).contains( aDestinationRegion ) ) {
+      throw new IllegalArgumentException( "Destination region exceeds the destination image: " + aDestinationRegion );
+    }
+  }
+
+  /**
+   * Returns whether images can be decoded directly into the pixels of the given image. This is the
+   * case for sRGB images with int packed (A)RGB pixels, such as {@code TYPE_INT_ARGB},
+   * {@code TYPE_INT_ARGB_PRE} and {@code TYPE_INT_RGB}.
+   */
+  static boolean canDecodeInto( BufferedImage aImage ) {
+    if ( aImage == null ) {
+      return false;
+    }
+
+    ColorModel colorModel = aImage.getColorModel();
+    if ( !( colorModel instanceof DirectColorModel ) || !colorModel.getColorSpace().isCS_sRGB() ) {
+      return false;
+    }
+
+    DirectColorModel directColorModel = ( DirectColorModel ) colorModel;
+    if ( directColorModel.getRedMask() != 0x00ff0000 ||
+         directColorModel.getGreenMask() != 0x0000ff00 ||
+         directColorModel.getBlueMask() != 0x000000ff ||
+         ( directColorModel.getAlphaMask() != 0 && directColorModel.getAlphaMask() != 0xff000000 ) ) {
+      return false;
+    }
+
+    WritableRaster raster = aImage.getRaster();
+    return raster.getSampleModel() instanceof SinglePixelPackedSampleModel &&
+           raster.getDataBuffer() instanceof DataBufferInt &&
+           raster.getDataBuffer().getNumBanks() == 1;
+  }
+
+  private static int[] getPixels( WritableRaster aRaster ) {
+    return ( ( DataBufferInt ) aRaster.getDataBuffer() ).getData();
+  }
+
+  private static int getPixelOffset( WritableRaster aRaster ) {
+    SinglePixelPackedSampleModel sampleModel = ( SinglePixelPackedSampleModel ) aRaster.getSampleModel();
+    return aRaster.getDataBuffer().getOffset() +
+           sampleModel.getOffset( aRaster.getMinX() - aRaster.getSampleModelTranslateX(),
+                                  aRaster.getMinY() - aRaster.getSampleModelTranslateY() );
+  }
+
+  private static int getScanlineStride( WritableRaster aRaster ) {
+    return ( ( SinglePixelPackedSampleModel ) aRaster.getSampleModel() ).getScanlineStride();
+  }
+
+  /**
+   * Feeds the stream to the decoder chunk by chunk as it arrives instead of buffering the whole
+   * file first.
+   *
+   * @return the number of bytes that were read from the stream.
+   */
+  private static long appendIncrementalData( long aDecoder, ImageInputStream aInput ) throws IOException {
+    byte[] buffer = new byte[ INCREMENTAL_CHUNK_SIZE ];
+    VP8StatusCode status = VP8StatusCode.VP8_STATUS_SUSPENDED;
+    long length = 0;
+    int bytesRead;
+    while ( status == VP8StatusCode.VP8_STATUS_SUSPENDED && ( bytesRead = aInput.read( buffer ) ) != -1 ) {
+      length += bytesRead;
+      status = VP8StatusCode.getStatusCode( appendIncrementalData( aDecoder, buffer, 0, bytesRead ) );
+    }
+    if ( status == VP8StatusCode.VP8_STATUS_SUSPENDED ) {
+      status = VP8StatusCode.VP8_STATUS_NOT_ENOUGH_DATA;
+    }
+    checkStatus( status );
+    return length;
+  }
+
+  /**
+   * Decodes the data with an incremental decoder, which decodes into a native buffer. The data is
+   * passed in chunks, so the array is never pinned. The decoder must be deleted with
+   * {@link #deleteIncrementalDecoder(long)}.
+   */
+  private static long decodeIncrementally( WebPReadParam aReadParam, byte[] aData, int aOffset, int aLength,
+                                           boolean aPremultiplied ) throws IOException {
+    long decoder = createIncrementalDecoder( aReadParam.getOptions(), ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN ), aPremultiplied );
+    if ( decoder == 0 ) {
+      throw new OutOfMemoryError();
+    }
+
+    try {
+      VP8StatusCode status = VP8StatusCode.VP8_STATUS_SUSPENDED;
+      for ( int offset = 0; status == VP8StatusCode.VP8_STATUS_SUSPENDED && offset < aLength; offset += INCREMENTAL_CHUNK_SIZE ) {
+        int length = Math.min( INCREMENTAL_CHUNK_SIZE, aLength - offset );
+        status = VP8StatusCode.getStatusCode( appendIncrementalData( decoder, aData, aOffset + offset, length ) );
+      }
+      if ( status == VP8StatusCode.VP8_STATUS_SUSPENDED ) {
+        status = VP8StatusCode.VP8_STATUS_NOT_ENOUGH_DATA;
+      }
+      checkStatus( status );
+    } catch ( IOException e ) {
+      deleteIncrementalDecoder( decoder );
+      throw e;
+    } catch ( RuntimeException e ) {
+      deleteIncrementalDecoder( decoder );
+      throw e;
+    }
+    return decoder;
+  }
+
+  private static void checkStatus( VP8StatusCode aStatus ) throws IOException {
+    switch ( aStatus ) {
       case VP8_STATUS_OK:
         break;
       case VP8_STATUS_OUT_OF_MEMORY:
         throw new OutOfMemoryError();
       default:
-        throw new IOException( "Decode returned code " + status );
+        throw new IOException( "Decode returned code " + aStatus );
     }
+  }
 
-    int width = out[1];
-    int height = out[2];
-    boolean alpha = out[3] != 0;
+  static BufferedImage createImage( int aWidth, int aHeight, boolean aAlpha ) {
+    return createImage( new int[ aWidth * aHeight ], aWidth, aHeight, aAlpha );
+  }
 
+  static BufferedImage createImage( int[] aPixels, int aWidth, int aHeight, boolean aAlpha ) {
     ColorModel colorModel;
-    if ( alpha ) {
+    if ( aAlpha ) {
       colorModel = new DirectColorModel( 32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000 );
     } else {
       colorModel = new DirectColorModel( 24, 0x00ff0000, 0x0000ff00, 0x000000ff, 0x00000000 );
     }
 
-    SampleModel sampleModel = colorModel.createCompatibleSampleModel( width, height );
-    DataBufferInt db = new DataBufferInt( pixels, width * height );
+    SampleModel sampleModel = colorModel.createCompatibleSampleModel( aWidth, aHeight );
+    DataBufferInt db = new DataBufferInt( aPixels, aWidth * aHeight );
     WritableRaster raster = WritableRaster.createWritableRaster( sampleModel, db, null );
 
     return new BufferedImage( colorModel, raster, false, new Hashtable<Object, Object>() );
   }
 
-  private static native int[] decode( long aDecoderOptionsPointer, byte[] aData, int aOffset, int aLength, int[] aFlags, boolean aBigEndian );
+  private static native int[] decode( int[] aOptions, byte[] aData, int aOffset, int aLength, int[] aFlags, boolean aBigEndian );
+
+  /**
+   * @param aSize receives the width and height of the decoded image.
+   */
+  private static native int decodeInto( int[] aOptions, byte[] aData, int aOffset, int aLength,
+                                        int[] aPixels, int aPixelOffset, int aScanlineStride, int aMaxWidth, int aMaxHeight,
+                                        boolean aBigEndian, boolean aPremultiplied, int[] aSize );
+
+  /**
+   * @param aPixelOffset the offset of the first pixel from the start of the pixel buffer, in bytes.
+   * @param aSize        receives the width and height of the decoded image.
+   */
+  private static native int decodeToBuffer( int[] aOptions, ByteBuffer aData, int aOffset, int aLength,
+                                            ByteBuffer aPixels, int aPixelOffset, int aStride, int[] aSize );
+
+  private static native int decodeBuffer( int[] aOptions, ByteBuffer aData, int aOffset, int aLength,
+                                          int[] aPixels, int aPixelOffset, int aScanlineStride,
+                                          int aSourceX, int aSourceY, int aWidth, int aHeight,
+                                          boolean aBigEndian, boolean aPremultiplied, boolean aPinFree );
+
+  private static native long createIncrementalDecoder( int[] aOptions, boolean aBigEndian, boolean aPremultiplied );
+
+  private static native int appendIncrementalData( long aDecoder, byte[] aData, int aOffset, int aLength );
+
+  private static native int[] getIncrementalPixels( long aDecoder, int[] aFlags );
+
+  /**
+   * Stores the width and height of the decoded image.
+   */
+  private static native int getIncrementalSize( long aDecoder, int[] aSize );
+
+  private static native int copyIncrementalPixels( long aDecoder, int[] aPixels, int aPixelOffset, int aScanlineStride,
+                                                   int aSourceX, int aSourceY, int aWidth, int aHeight );
+
+  private static native void deleteIncrementalDecoder( long aDecoder );
 
   public static int[] getInfo( byte[] aData, int aOffset, int aLength ) throws IOException {
     int[] out = new int[2];
@@ -105,236 +543,792 @@ final class WebP {
 
   private static native int getInfo( byte[] aData, int aOffset, int aLength, int[] aOut );
 
+  /**
+   * Parses the bitstream features from the start of a WebP file. Only the header is inspected,
+   * nothing is decoded.
+   *
+   * @return the features, or {@code null} if the data does not contain the complete header.
+   */
+  static WebPFeatures getFeatures( byte[] aData, int aOffset, int aLength ) throws IOException {
+    if ( aData == null ) {
+      throw new NullPointerException( "Input data may not be null" );
+    }
+
+    if ( aOffset < 0 || aLength < 0 || aOffset + aLength > aData.length ) {
+      throw new IllegalArgumentException( "Offset/length exceeds array size" );
+    }
+
+    int[] out = new int[5];
+    VP8StatusCode status = VP8StatusCode.getStatusCode( getFeatures( aData, aOffset, aLength, out ) );
+    if ( status == VP8StatusCode.VP8_STATUS_NOT_ENOUGH_DATA ) {
+      return null;
+    }
+    if ( status != VP8StatusCode.VP8_STATUS_OK ) {
+      throw new IOException( "Invalid WebP data: " + status );
+    }
+
+    return new WebPFeatures( out[0], out[1], out[2] != 0, out[3] != 0, WebPFeatures.Format.getFormat( out[4] ) );
+  }
+
+  private static native int getFeatures( byte[] aData, int aOffset, int aLength, int[] aOut );
+
+  /**
+   * Parses the frames of the animation in the remaining bytes of a direct buffer. The data must be
+   * complete and is not copied.
+   *
+   * @param aCanvas receives the width and height of the canvas.
+   * @return {@link #FRAME_INFO_SIZE} values for each frame.
+   */
+  static int[] demux( ByteBuffer aData, int[] aCanvas ) throws IOException {
+    if ( aData == null ) {
+      throw new NullPointerException( "Input data may not be null" );
+    }
+
+    if ( !aData.isDirect() ) {
+      throw new IllegalArgumentException( "Input buffer must be direct" );
+    }
+
+    int[] frames = demux( aData, aData.position(), aData.remaining(), aCanvas );
+    if ( frames == null ) {
+      throw new IOException( "Invalid WebP animation" );
+    }
+    return frames;
+  }
+
+  private static native int[] demux( ByteBuffer aData, int aOffset, int aLength, int[] aCanvas );
+
   public static byte[] encode( WebPWriteParam aWriteParam, RenderedImage aImage ) throws IOException {
+    return encodeImage( aWriteParam, aImage, null, null );
+  }
+
+  /**
+   * Encodes RGBA or RGB bytes from a direct buffer, such as off-heap memory, starting at its
+   * position. The pixels are read by address, so they are neither copied onto the heap nor pinned.
+   * The source region and subsampling of the write param are ignored. The Auto compression type and
+   * trial encoding need an image, and are not supported.
+   *
+   * @param aStride the number of bytes between the starts of two rows.
+   * @param aAlpha  whether the pixels have four bytes, RGBA, or three, RGB.
+   */
+  public static byte[] encode( WebPWriteParam aWriteParam, ByteBuffer aPixels, int aWidth, int aHeight, int aStride,
+                               boolean aAlpha ) throws IOException {
     if ( aWriteParam == null ) {
       throw new NullPointerException( "Encoder options may not be null" );
     }
 
-    if ( aImage == null ) {
-      throw new NullPointerException( "Image may not be null" );
+    if ( aPixels == null ) {
+      throw new NullPointerException( "Pixels may not be null" );
     }
 
-    boolean encodeAlpha = hasTranslucency( aImage );
-    if ( encodeAlpha ) {
-      byte[] rgbaData = getRGBA( aImage );
-      return encodeRGBA( aWriteParam.getPointer(), rgbaData, aImage.getWidth(), aImage.getHeight(), aImage.getWidth() * 4 );
+    if ( !aPixels.isDirect() ) {
+      throw new IllegalArgumentException( "Pixel buffer must be direct" );
     }
-    else {
-      byte[] rgbData = getRGB( aImage );
-      return encodeRGB( aWriteParam.getPointer(), rgbData, aImage.getWidth(), aImage.getHeight(), aImage.getWidth() * 3 );
+
+    if ( aWriteParam.isAutoCompression() || aWriteParam.isTrialEncoding() ) {
+      throw new IllegalArgumentException( "Auto compression and trial encoding require an image" );
     }
+
+    int bands = aAlpha ? 4 : 3;
+    if ( aWidth <= 0 || aHeight <= 0 || aStride < aWidth * bands ||
+         ( long ) aStride * ( aHeight - 1 ) + aWidth * bands > aPixels.remaining() ) {
+      throw new IllegalArgumentException( "Pixel buffer does not hold " + aWidth + "x" + aHeight + " pixels" );
+    }
+
+    long start = System.nanoTime();
+    Object event = WebPFlightRecorder.beginEncode();
+    WebPEncodeResult.Listener listener = aWriteParam.getEncodeResultListener();
+    float[] psnr = null;
+    long[] stats = null;
+    if ( listener != null ) {
+      psnr = new float[ 5 ];
+      stats = new long[ WebPEncodeResult.STATS_SIZE ];
+    }
+    int[] config = aWriteParam.getConfig();
+    byte[] data = encodeBuffer( config, aPixels, aAlpha ? PICTURE_RGBA : PICTURE_RGB, aPixels.position(),
+                                aWidth, aHeight, aStride, aWidth, aHeight, null, null, psnr, stats );
+    if ( data == null ) {
+      throw new IOException( "Encoding failed" );
+    }
+    encoded( event, start, aWidth, aHeight, aWidth, aHeight, data.length, aAlpha, WebPWriteParam.isLossless( config ), "buffer", 0,
+             System.nanoTime() - start );
+    if ( listener != null ) {
+      listener.imageEncoded( new WebPEncodeResult( psnr, stats, 0, 0 ) );
+    }
+    return data;
   }
 
-  private static native byte[] encodeRGBA( long aConfig, byte[] aRgbaData, int aWidth, int aHeight, int aStride );
+  /**
+   * Encodes the image straight to the given stream. The encoder hands its output to the stream in
+   * chunks as it produces it, so the encoded file is never held in memory as a whole. The stream is
+   * not closed.
+   */
+  public static void encode( WebPWriteParam aWriteParam, RenderedImage aImage, OutputStream aOutput ) throws IOException {
+    encode( aWriteParam, aImage, aOutput, null );
+  }
 
-  private static native byte[] encodeRGB( long aConfig, byte[] aRgbaData, int aWidth, int aHeight, int aStride );
+  /**
+   * @param aProgress the listener that is told how far the encode has progressed, and that can
+   *                  abort it, or {@code null}.
+   */
+  static void encode( WebPWriteParam aWriteParam, RenderedImage aImage, OutputStream aOutput, ProgressListener aProgress ) throws IOException {
+    if ( aOutput == null ) {
+      throw new NullPointerException( "Output may not be null" );
+    }
 
-  private static boolean hasTranslucency( RenderedImage aRi ) {
-    return aRi.getColorModel().hasAlpha();
+    encodeImage( aWriteParam, aImage, aOutput, aProgress );
   }
 
-  private static int getShift( int aMask ) {
-    int shift = 0;
-    while ( ( ( aMask >> shift ) & 0x1 ) == 0 ) {
-      shift++;
+  /**
+   * Encodes a frame of an animation as a whole, ignoring the source region and subsampling of the
+   * write param.
+   */
+  static byte[] encodeFrame( WebPWriteParam aWriteParam, RenderedImage aImage ) throws IOException {
+    Rectangle bounds = new Rectangle( aImage.getMinX(), aImage.getMinY(), aImage.getWidth(), aImage.getHeight() );
+    return encodeRegion( aWriteParam, aImage, bounds, bounds.width, bounds.height, null, null );
+  }
+
+  /**
+   * @return the encoded file, or {@code null} if it was written to the given stream.
+   */
+  private static byte[] encodeImage( WebPWriteParam aWriteParam, RenderedImage aImage, OutputStream aOutput,
+                                     ProgressListener aProgress ) throws IOException {
+    if ( aWriteParam == null ) {
+      throw new NullPointerException( "Encoder options may not be null" );
     }
-    return shift;
+
+    if ( aImage == null ) {
+      throw new NullPointerException( "Image may not be null" );
+    }
+
+    Rectangle region = getSourceRegion( aWriteParam, aImage );
+    return encodeRegion( aWriteParam, aImage, region, getScaledWidth( aWriteParam, region ), getScaledHeight( aWriteParam, region ), aOutput, aProgress );
   }
 
-  private static byte[] getRGB( RenderedImage aRi ) throws IOException {
-    int width = aRi.getWidth();
-    int height = aRi.getHeight();
+  /**
+   * Encodes a region of the image, rescaled to the given size.
+   *
+   * @return the encoded file, or {@code null} if it was written to the given stream.
+   */
+  private static byte[] encodeRegion( WebPWriteParam aWriteParam, RenderedImage aImage, Rectangle aRegion,
+                                      int aScaledWidth, int aScaledHeight, OutputStream aOutput,
+                                      ProgressListener aProgress ) throws IOException {
+    long encodeStart = System.nanoTime();
+    Object event = WebPFlightRecorder.beginEncode();
+    if ( aWriteParam.isTrialEncoding() ) {
+      int[] config = getConfig( aWriteParam, aImage, aRegion, 0 );
+      boolean lossless = WebPWriteParam.isLossless( config );
+      byte[] data = WebPTrialEncoder.encode( aWriteParam, config, aImage, aRegion, aScaledWidth, aScaledHeight, aProgress );
+      if ( data != null ) {
+        boolean alpha = hasTranslucency( aImage );
+        encoded( event, encodeStart, aRegion.width, aRegion.height, aScaledWidth, aScaledHeight, data.length, alpha, lossless,
+                 event != null ? getExtraction( aImage, aRegion, alpha ? 4 : 3 ) : null, 0, System.nanoTime() - encodeStart );
+      }
+      if ( aOutput == null ) {
+        return data;
+      }
+      aOutput.write( data );
+      return null;
+    }
+
+    CountingOutputStream output = aOutput != null ? new CountingOutputStream( aOutput ) : null;
 
-    ColorModel colorModel = aRi.getColorModel();
-    if ( colorModel instanceof ComponentColorModel ) {
-      ComponentSampleModel sampleModel = ( ComponentSampleModel ) aRi.getSampleModel();
+    WebPEncodeResult.Listener listener = aWriteParam.getEncodeResultListener();
+    float[] psnr = null;
+    long[] stats = null;
+    if ( listener != null ) {
+      psnr = new float[ 5 ];
+      stats = new long[ WebPEncodeResult.STATS_SIZE ];
+    }
 
-      // If the output image's width or height is larger than the sample model,
-      // create a new compatible sample model.
-      if (width > sampleModel.getWidth() || height > sampleModel.getHeight()) {
-         sampleModel = (ComponentSampleModel) sampleModel.createCompatibleSampleModel(width, height);
+    byte[] data;
+    long extractTime = 0;
+    long nativeStart;
+    boolean alpha;
+    boolean lossless;
+    String extraction;
+    if ( aImage instanceof BufferedImage && canEncodeRaster( ( BufferedImage ) aImage ) ) {
+      extraction = "raster";
+      alpha = aImage.getColorModel().hasAlpha();
+      int[] config = getConfig( aWriteParam, aImage, aRegion, 0 );
+      lossless = WebPWriteParam.isLossless( config );
+      nativeStart = System.nanoTime();
+      data = encodeRaster( config, ( BufferedImage ) aImage, aRegion, aScaledWidth, aScaledHeight, aWriteParam.isPinFree(),
+                           output, aProgress, psnr, stats );
+    }
+    else {
+      int width = aRegion.width;
+      int height = aRegion.height;
+      long start = System.nanoTime();
+      int bands = hasTranslucency( aImage ) ? 4 : 3;
+      extraction = event != null ? getExtraction( aImage, aRegion, bands ) : null;
+      byte[] pixels = extract( aImage, aRegion, bands );
+      // The colours of an index colour model with a small palette do not need to be counted.
+      boolean palette = hasPalette( aImage );
+      int content = WebPContentAnalyzer.scan( pixels, bands, aWriteParam.isAutoCompression() && !palette );
+      if ( palette ) {
+        content |= WebPContentAnalyzer.PALETTE;
       }
+      extractTime = System.nanoTime() - start;
+      alpha = bands == 4 && ( content & WebPContentAnalyzer.OPAQUE ) == 0;
 
-      int type = sampleModel.getTransferType();
-      if ( type == DataBuffer.TYPE_BYTE ) {
-        return extractComponentRGBByte( width, height, sampleModel, ( ( DataBufferByte ) aRi.getData().getDataBuffer() ) );
+      int[] config = getConfig( aWriteParam, aImage, aRegion, content );
+      lossless = WebPWriteParam.isLossless( config );
+      nativeStart = System.nanoTime();
+      if ( bands == 3 ) {
+        data = encodeRGB( config, pixels, width, height, width * 3, aScaledWidth, aScaledHeight, aWriteParam.isPinFree(), output, aProgress, psnr, stats );
       }
-      else if ( type == DataBuffer.TYPE_INT ) {
-        return extractComponentRGBInt( width, height, sampleModel, ( ( DataBufferInt ) aRi.getData().getDataBuffer() ) );
+      else if ( ( content & WebPContentAnalyzer.OPAQUE ) != 0 ) {
+        data = encodeRGBX( config, pixels, width, height, width * 4, aScaledWidth, aScaledHeight, aWriteParam.isPinFree(), output, aProgress, psnr, stats );
       }
       else {
-        throw new IOException( "Incompatible image: " + aRi );
+        data = encodeRGBA( config, pixels, width, height, width * 4, aScaledWidth, aScaledHeight, aWriteParam.isPinFree(), output, aProgress, psnr, stats );
       }
     }
-    else if ( colorModel instanceof DirectColorModel ) {
-      SinglePixelPackedSampleModel sampleModel = ( SinglePixelPackedSampleModel ) aRi.getSampleModel();
-      int type = sampleModel.getTransferType();
-      if ( type == DataBuffer.TYPE_INT ) {
-        return extractDirectRGBInt( width, height, ( DirectColorModel ) colorModel, sampleModel, ( ( DataBufferInt ) aRi.getData().getDataBuffer() ) );
-      }
-      else {
-        throw new IOException( "Incompatible image: " + aRi );
+
+    // Without an output stream, a failed encode returns null.
+    if ( data != null || output != null ) {
+      encoded( event, encodeStart, aRegion.width, aRegion.height, aScaledWidth, aScaledHeight, output != null ? output.fCount : data.length,
+               alpha, lossless, extraction, extractTime, System.nanoTime() - nativeStart );
+      if ( listener != null ) {
+        listener.imageEncoded( new WebPEncodeResult( psnr, stats, extractTime, 0 ) );
       }
     }
+    return data;
+  }
 
-    return extractGenericRGB( aRi, width, height, colorModel );
+  /**
+   * Counts a successful encode in the {@link WebPCodecStats}, and records the event, if one was
+   * begun.
+   *
+   * @param aWidth      the width of the encoded region of the source image.
+   * @param aHeight     the height of the encoded region of the source image.
+   * @param aExtraction how the pixels were passed to the encoder: "raster" when they were read from
+   *                    the raster of the image, "buffer" for a direct buffer, or the variant of
+   *                    {@link #extract(RenderedImage, Rectangle, int)} that converted them.
+   * @param aNativeTime the time that was spent in the native encoder.
+   */
+  private static void encoded( Object aEvent, long aStart, int aWidth, int aHeight, int aScaledWidth, int aScaledHeight,
+                               long aBytesOut, boolean aAlpha, boolean aLossless, String aExtraction, long aExtractTime,
+                               long aNativeTime ) {
+    WebPCodecStats.encoded( aStart, ( long ) aWidth * aHeight, aBytesOut );
+    if ( aEvent != null ) {
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_WIDTH, aWidth );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_HEIGHT, aHeight );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_SCALED_WIDTH, aScaledWidth );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_SCALED_HEIGHT, aScaledHeight );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_BYTES_IN, 4L * aWidth * aHeight );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_BYTES_OUT, aBytesOut );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_ALPHA, aAlpha );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_LOSSLESS, aLossless );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_EXTRACTION, aExtraction );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_EXTRACT_TIME, aExtractTime );
+      WebPFlightRecorder.set( aEvent, WebPFlightRecorder.ENCODE_NATIVE_TIME, aNativeTime );
+      WebPFlightRecorder.commit( aEvent );
+    }
   }
 
-  private static byte[] extractGenericRGB( RenderedImage aRi, int aWidth, int aHeight, ColorModel aColorModel ) {
-    Object dataElements = null;
-    byte[] rgbData = new byte[ aWidth * aHeight * 3 ];
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      for ( int x = 0; x < aWidth; x++, b += 3 ) {
-        dataElements = aRi.getData().getDataElements( x, y, dataElements );
-        rgbData[ b ] = ( byte ) aColorModel.getRed( dataElements );
-        rgbData[ b + 1 ] = ( byte ) aColorModel.getGreen( dataElements );
-        rgbData[ b + 2 ] = ( byte ) aColorModel.getBlue( dataElements );
-      }
+  /**
+   * Counts the bytes that the encoder writes to a stream. The encoder only calls
+   * {@link #write(byte[], int, int)}.
+   */
+  private static final class CountingOutputStream extends FilterOutputStream {
+    long fCount;
+
+    CountingOutputStream( OutputStream aOutput ) {
+      super( aOutput );
+    }
+
+    @Override
+    public void write( byte[] aData, int aOffset, int aLength ) throws IOException {
+      out.write( aData, aOffset, aLength );
+      fCount += aLength;
     }
-    return rgbData;
   }
 
-  private static byte[] extractDirectRGBInt( int aWidth, int aHeight, DirectColorModel aColorModel, SinglePixelPackedSampleModel aSampleModel, DataBufferInt aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 3 ];
+  /**
+   * Returns the packed configuration to encode the region with. This is an adapted copy of the
+   * configuration of the write param for the Auto compression type or when the pixels only need a
+   * binary alpha channel.
+   *
+   * @param aContent the result of {@link WebPContentAnalyzer#scan(byte[], int, boolean)} for the
+   *                 pixels, or 0 if they were not scanned.
+   */
+  private static int[] getConfig( WebPWriteParam aWriteParam, RenderedImage aImage, Rectangle aRegion, int aContent ) {
+    int[] config = aWriteParam.getConfig();
+    if ( aWriteParam.isAutoCompression() ) {
+      int choice = ( aContent & WebPContentAnalyzer.PALETTE ) != 0 ? WebPContentAnalyzer.LOSSLESS
+                                                                  : WebPContentAnalyzer.analyze( aImage, aRegion );
+      config = WebPWriteParam.createAutoConfig( config, choice == WebPContentAnalyzer.LOSSLESS, choice );
+    }
+    if ( ( aContent & WebPContentAnalyzer.BINARY_ALPHA ) != 0 ) {
+      // A mask of fully transparent and fully opaque pixels compresses just as well unfiltered, and
+      // skipping the filter estimation saves time.
+      config = WebPWriteParam.disableAlphaFiltering( config );
+    }
+    return config;
+  }
 
-    int rMask = aColorModel.getRedMask();
-    int gMask = aColorModel.getGreenMask();
-    int bMask = aColorModel.getBlueMask();
-    int rShift = getShift( rMask );
-    int gShift = getShift( gMask );
-    int bShift = getShift( bMask );
-    int[] bank = aDataBuffer.getBankData()[ 0 ];
-    int scanlineStride = aSampleModel.getScanlineStride();
-    int scanIx = 0;
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      int pixIx = scanIx;
-      for ( int x = 0; x < aWidth; x++, b += 3 ) {
-        int pixel = bank[ pixIx++ ];
-        out[ b ] = ( byte ) ( ( pixel & rMask ) >>> rShift );
-        out[ b + 1 ] = ( byte ) ( ( pixel & gMask ) >>> gShift );
-        out[ b + 2 ] = ( byte ) ( ( pixel & bMask ) >>> bShift );
-      }
-      scanIx += scanlineStride;
+  /**
+   * Returns the pixels of the image that are selected by the source region of the write param, in
+   * image coordinates, starting at the subsampling grid offsets.
+   */
+  private static Rectangle getSourceRegion( ImageWriteParam aWriteParam, RenderedImage aImage ) {
+    Rectangle region = new Rectangle( aImage.getMinX(), aImage.getMinY(), aImage.getWidth(), aImage.getHeight() );
+    Rectangle sourceRegion = aWriteParam.getSourceRegion();
+    if ( sourceRegion != null ) {
+      region = region.intersection( sourceRegion );
     }
-    return out;
+    int gridX = aWriteParam.getSubsamplingXOffset();
+    int gridY = aWriteParam.getSubsamplingYOffset();
+    region = new Rectangle( region.x + gridX, region.y + gridY, region.width - gridX, region.height - gridY );
+    if ( region.isEmpty() ) {
+      throw new IllegalArgumentException( "Source region does not contain any pixels of the image" );
+    }
+    return region;
   }
 
-  private static byte[] extractComponentRGBInt( int aWidth, int aHeight, ComponentSampleModel aSampleModel, DataBufferInt aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 3 ];
-
-    int[] bankIndices = aSampleModel.getBankIndices();
-    int[] bankOffsets = aSampleModel.getBandOffsets();
-    int rScanIx = bankOffsets[ 0 ];
-    int gScanIx = bankOffsets[ 1 ];
-    int bScanIx = bankOffsets[ 2 ];
-
-    int pixelStride = aSampleModel.getPixelStride();
-    int scanlineStride = aSampleModel.getScanlineStride();
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      int rPixIx = rScanIx;
-      int gPixIx = gScanIx;
-      int bPixIx = bScanIx;
-      for ( int x = 0; x < aWidth; x++, b += 3 ) {
-        out[b] = (byte) aDataBuffer.getElem(bankIndices[0], rPixIx);
-        rPixIx += pixelStride;
-        out[b + 1] = (byte) aDataBuffer.getElem(bankIndices[1], gPixIx);
-        gPixIx += pixelStride;
-        out[b + 2] = (byte) aDataBuffer.getElem(bankIndices[2], bPixIx);
-        bPixIx += pixelStride;
-      }
-      rScanIx += scanlineStride;
-      gScanIx += scanlineStride;
-      bScanIx += scanlineStride;
+  /**
+   * Returns the width of the encoded image, which has one pixel for every sampled column.
+   */
+  private static int getScaledWidth( ImageWriteParam aWriteParam, Rectangle aRegion ) {
+    int subsampling = aWriteParam.getSourceXSubsampling();
+    return ( aRegion.width + subsampling - 1 ) / subsampling;
+  }
+
+  private static int getScaledHeight( ImageWriteParam aWriteParam, Rectangle aRegion ) {
+    int subsampling = aWriteParam.getSourceYSubsampling();
+    return ( aRegion.height + subsampling - 1 ) / subsampling;
+  }
+
+  /**
+   * @param aScaledWidth  the width of the encoded image. The pixels are rescaled if it differs from
+   *                      the width of the data.
+   * @param aScaledHeight the height of the encoded image.
+   * @param aPinFree      whether to copy the pixels out of the array in chunks, instead of pinning
+   *                      the array while they are imported.
+   * @param aPSNR         receives the PSNR values of the result, see {@link WebPEncodeResult}.
+   * @param aStats        receives the other statistics of the result, or {@code null} to not
+   *                      collect them.
+   */
+  private static native byte[] encodeRGBA( int[] aConfig, byte[] aRgbaData, int aWidth, int aHeight, int aStride,
+                                           int aScaledWidth, int aScaledHeight, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                           float[] aPSNR, long[] aStats );
+
+  private static native byte[] encodeRGB( int[] aConfig, byte[] aRgbaData, int aWidth, int aHeight, int aStride,
+                                          int aScaledWidth, int aScaledHeight, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                          float[] aPSNR, long[] aStats );
+
+  /**
+   * Encodes RGBA pixels without their alpha, for pixels that are known to be opaque.
+   */
+  private static native byte[] encodeRGBX( int[] aConfig, byte[] aRgbaData, int aWidth, int aHeight, int aStride,
+                                           int aScaledWidth, int aScaledHeight, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                           float[] aPSNR, long[] aStats );
+
+  /**
+   * @param aFormat one of the byte layouts {@link #PICTURE_RGBA}, {@link #PICTURE_RGBX} and
+   *                {@link #PICTURE_RGB}.
+   * @param aOffset the offset of the first pixel from the start of the buffer, in bytes.
+   */
+  private static native byte[] encodeBuffer( int[] aConfig, ByteBuffer aPixels, int aFormat, int aOffset, int aWidth, int aHeight, int aStride,
+                                             int aScaledWidth, int aScaledHeight, OutputStream aOutput, ProgressListener aProgress,
+                                             float[] aPSNR, long[] aStats );
+
+  /**
+   * Returns whether the pixels of the image can be passed to the encoder straight from the backing
+   * array of its raster, without converting them into an intermediate array first.
+   */
+  private static boolean canEncodeRaster( BufferedImage aImage ) {
+    switch ( aImage.getType() ) {
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+      case BufferedImage.TYPE_3BYTE_BGR:
+        return aImage.getRaster().getDataBuffer().getNumBanks() == 1;
+      default:
+        return false;
     }
-    return out;
   }
 
-  private static byte[] extractComponentRGBByte( int aWidth, int aHeight, ComponentSampleModel aSampleModel, DataBufferByte aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 3 ];
-
-    int[] bankIndices = aSampleModel.getBankIndices();
-    int[] bankOffsets = aSampleModel.getBandOffsets();
-    int rScanIx = bankOffsets[ 0 ];
-    int gScanIx = bankOffsets[ 1 ];
-    int bScanIx = bankOffsets[ 2 ];
-
-    int pixelStride = aSampleModel.getPixelStride();
-    int scanlineStride = aSampleModel.getScanlineStride();
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      int rPixIx = rScanIx;
-      int gPixIx = gScanIx;
-      int bPixIx = bScanIx;
-      for ( int x = 0; x < aWidth; x++, b += 3 ) {
-        out[b] = (byte) aDataBuffer.getElem(bankIndices[0], rPixIx);
-        rPixIx += pixelStride;
-        out[b + 1] = (byte) aDataBuffer.getElem(bankIndices[1], gPixIx);
-        gPixIx += pixelStride;
-        out[b + 2] = (byte) aDataBuffer.getElem(bankIndices[2], bPixIx);
-        bPixIx += pixelStride;
+  private static byte[] encodeRaster( int[] aConfig, BufferedImage aImage, Rectangle aRegion, int aScaledWidth, int aScaledHeight,
+                                      boolean aPinFree, OutputStream aOutput, ProgressListener aProgress, float[] aPSNR, long[] aStats ) {
+    WritableRaster raster = getRaster( aImage, aRegion );
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    boolean bigEndian = ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN );
+    switch ( aImage.getType() ) {
+      case BufferedImage.TYPE_INT_ARGB:
+        return encodeIntARGB( aConfig, getPixels( raster ), getPixelOffset( raster ), width, height, getScanlineStride( raster ),
+                              aScaledWidth, aScaledHeight, bigEndian, aPinFree, aOutput, aProgress, aPSNR, aStats );
+      case BufferedImage.TYPE_INT_RGB:
+        return encodeIntRGB( aConfig, getPixels( raster ), getPixelOffset( raster ), width, height, getScanlineStride( raster ),
+                             aScaledWidth, aScaledHeight, bigEndian, aPinFree, aOutput, aProgress, aPSNR, aStats );
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        return encode4ByteABGR( aConfig, getBytes( raster ), getByteOffset( raster ), width, height, getByteScanlineStride( raster ),
+                                aScaledWidth, aScaledHeight, aPinFree, aOutput, aProgress, aPSNR, aStats );
+      case BufferedImage.TYPE_3BYTE_BGR:
+        return encode3ByteBGR( aConfig, getBytes( raster ), getByteOffset( raster ), width, height, getByteScanlineStride( raster ),
+                               aScaledWidth, aScaledHeight, aPinFree, aOutput, aProgress, aPSNR, aStats );
+      default:
+        throw new IllegalArgumentException( "Unsupported image type: " + aImage.getType() );
+    }
+  }
+
+  /**
+   * Returns a child of the raster of the image that only covers the region, so that only the
+   * pixels of the region are imported by the encoder.
+   */
+  private static WritableRaster getRaster( BufferedImage aImage, Rectangle aRegion ) {
+    WritableRaster raster = aImage.getRaster();
+    if ( aRegion.equals( raster.getBounds() ) ) {
+      return raster;
+    }
+    return raster.createWritableChild( aRegion.x, aRegion.y, aRegion.width, aRegion.height, aRegion.x, aRegion.y, null );
+  }
+
+  private static byte[] getBytes( WritableRaster aRaster ) {
+    return ( ( DataBufferByte ) aRaster.getDataBuffer() ).getData();
+  }
+
+  /**
+   * Returns the index of the first byte of the top left pixel of a pixel interleaved raster,
+   * taking child raster offsets into account.
+   */
+  private static int getByteOffset( WritableRaster aRaster ) {
+    ComponentSampleModel sampleModel = ( ComponentSampleModel ) aRaster.getSampleModel();
+    return aRaster.getDataBuffer().getOffset() +
+           ( aRaster.getMinY() - aRaster.getSampleModelTranslateY() ) * sampleModel.getScanlineStride() +
+           ( aRaster.getMinX() - aRaster.getSampleModelTranslateX() ) * sampleModel.getPixelStride();
+  }
+
+  private static int getByteScanlineStride( WritableRaster aRaster ) {
+    return ( ( ComponentSampleModel ) aRaster.getSampleModel() ).getScanlineStride();
+  }
+
+  private static native byte[] encodeIntARGB( int[] aConfig, int[] aPixels, int aOffset, int aWidth, int aHeight, int aStride,
+                                              int aScaledWidth, int aScaledHeight, boolean aBigEndian, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                              float[] aPSNR, long[] aStats );
+
+  private static native byte[] encodeIntRGB( int[] aConfig, int[] aPixels, int aOffset, int aWidth, int aHeight, int aStride,
+                                             int aScaledWidth, int aScaledHeight, boolean aBigEndian, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                             float[] aPSNR, long[] aStats );
+
+  private static native byte[] encode4ByteABGR( int[] aConfig, byte[] aData, int aOffset, int aWidth, int aHeight, int aStride,
+                                                int aScaledWidth, int aScaledHeight, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                                float[] aPSNR, long[] aStats );
+
+  private static native byte[] encode3ByteBGR( int[] aConfig, byte[] aData, int aOffset, int aWidth, int aHeight, int aStride,
+                                               int aScaledWidth, int aScaledHeight, boolean aPinFree, OutputStream aOutput, ProgressListener aProgress,
+                                               float[] aPSNR, long[] aStats );
+
+  /**
+   * Imports the pixels of the image into a native picture that can be encoded several times, and
+   * from several threads at once, with {@link #encodePicture(int[], long, float, int, float[], long[], ProgressListener)}.
+   * The picture must be released with {@link #deletePicture(long)}.
+   */
+  static long createPicture( int[] aConfig, RenderedImage aImage, Rectangle aRegion, int aScaledWidth, int aScaledHeight, boolean aPinFree ) {
+    int width = aRegion.width;
+    int height = aRegion.height;
+    boolean bigEndian = ByteOrder.nativeOrder().equals( ByteOrder.BIG_ENDIAN );
+    long picture;
+    if ( aImage instanceof BufferedImage && canEncodeRaster( ( BufferedImage ) aImage ) ) {
+      WritableRaster raster = getRaster( ( BufferedImage ) aImage, aRegion );
+      switch ( ( ( BufferedImage ) aImage ).getType() ) {
+        case BufferedImage.TYPE_INT_ARGB:
+          picture = createPicture( aConfig, getPixels( raster ), PICTURE_INT_ARGB, getPixelOffset( raster ), width, height, getScanlineStride( raster ),
+                                   aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+          break;
+        case BufferedImage.TYPE_INT_RGB:
+          picture = createPicture( aConfig, getPixels( raster ), PICTURE_INT_RGB, getPixelOffset( raster ), width, height, getScanlineStride( raster ),
+                                   aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+          break;
+        case BufferedImage.TYPE_4BYTE_ABGR:
+          picture = createPicture( aConfig, getBytes( raster ), PICTURE_4BYTE_ABGR, getByteOffset( raster ), width, height, getByteScanlineStride( raster ),
+                                   aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+          break;
+        default:
+          picture = createPicture( aConfig, getBytes( raster ), PICTURE_3BYTE_BGR, getByteOffset( raster ), width, height, getByteScanlineStride( raster ),
+                                   aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+          break;
       }
-      rScanIx += scanlineStride;
-      gScanIx += scanlineStride;
-      bScanIx += scanlineStride;
     }
-    return out;
+    else if ( hasTranslucency( aImage ) ) {
+      byte[] rgba = getRGBA( aImage, aRegion );
+      int format = ( WebPContentAnalyzer.scan( rgba, 4, false ) & WebPContentAnalyzer.OPAQUE ) != 0 ? PICTURE_RGBX : PICTURE_RGBA;
+      picture = createPicture( aConfig, rgba, format, 0, width, height, width * 4, aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+    }
+    else {
+      picture = createPicture( aConfig, getRGB( aImage, aRegion ), PICTURE_RGB, 0, width, height, width * 3, aScaledWidth, aScaledHeight, bigEndian, aPinFree );
+    }
+
+    if ( picture == 0 ) {
+      throw new OutOfMemoryError();
+    }
+    return picture;
   }
 
-  private static byte[] getRGBA( RenderedImage aRi ) throws IOException {
-    int width = aRi.getWidth();
-    int height = aRi.getHeight();
+  /**
+   * @param aOffset the offset of the first pixel, in array elements.
+   * @param aStride the scanline stride, in array elements.
+   */
+  private static native long createPicture( int[] aConfig, Object aData, int aFormat, int aOffset, int aWidth, int aHeight, int aStride,
+                                            int aScaledWidth, int aScaledHeight, boolean aBigEndian, boolean aPinFree );
+
+  /**
+   * @param aPSNR  receives the PSNR values of the result, see {@link WebPEncodeResult}.
+   * @param aStats receives the other statistics of the result, or {@code null} to not collect them.
+   */
+  static native byte[] encodePicture( int[] aConfig, long aPicture, float aQuality, int aMethod, float[] aPSNR, long[] aStats,
+                                      ProgressListener aProgress ) throws IOException;
+
+  static native void deletePicture( long aPicture );
+
+  static native long createMux();
 
+  /**
+   * Adds a frame, encoded as a still WebP file, to the mux.
+   *
+   * @return the WebPMuxError code, which is 1 on success.
+   */
+  static native int addMuxFrame( long aMux, byte[] aData, int aX, int aY, int aDuration, boolean aBlend, boolean aDisposeBackground );
+
+  /**
+   * Writes the animation with the frames that were added to the mux to the given stream.
+   */
+  static native void assembleMux( long aMux, int aLoopCount, int aBackgroundColor, OutputStream aOutput );
+
+  static native void deleteMux( long aMux );
+
+  /**
+   * Returns whether the colour model allows translucent pixels. An index colour model with only
+   * opaque colours in its palette does not, even though it has alpha.
+   */
+  private static boolean hasTranslucency( RenderedImage aRi ) {
+    return aRi.getColorModel().getTransparency() != Transparency.OPAQUE;
+  }
+
+  /**
+   * Returns whether the image has an index colour model with at most 256 colours, which lossless
+   * compression can store as a palette.
+   */
+  private static boolean hasPalette( RenderedImage aRi ) {
     ColorModel colorModel = aRi.getColorModel();
-    if ( colorModel instanceof ComponentColorModel ) {
-      ComponentSampleModel sampleModel = ( ComponentSampleModel ) aRi.getSampleModel();
+    return colorModel instanceof IndexColorModel && ( ( IndexColorModel ) colorModel ).getMapSize() <= 256;
+  }
 
-      // If the output image's width or height is larger than the sample model,
-      // create a new compatible sample model.
-      if (width > sampleModel.getWidth() || height > sampleModel.getHeight()) {
-         sampleModel = (ComponentSampleModel) sampleModel.createCompatibleSampleModel(width, height);
-      }
+  private static int getShift( int aMask ) {
+    int shift = 0;
+    while ( ( ( aMask >> shift ) & 0x1 ) == 0 ) {
+      shift++;
+    }
+    return shift;
+  }
 
-      int type = sampleModel.getTransferType();
-      if ( type == DataBuffer.TYPE_BYTE ) {
-        return extractComponentRGBAByte( width, height, sampleModel, ( ( DataBufferByte ) aRi.getData().getDataBuffer() ) );
-      }
-      else if ( type == DataBuffer.TYPE_INT ) {
-        return extractComponentRGBAInt( width, height, sampleModel, ( ( DataBufferInt ) aRi.getData().getDataBuffer() ) );
-      }
-      else {
-        throw new IOException( "Incompatible image: " + aRi );
-      }
+  private static byte[] getRGB( RenderedImage aRi, Rectangle aRegion ) {
+    return extract( aRi, aRegion, 3 );
+  }
+
+  static byte[] getRGBA( RenderedImage aRi, Rectangle aRegion ) {
+    return extract( aRi, aRegion, 4 );
+  }
+
+  /**
+   * Returns how the pixels of the region are passed to the encoder: "raster" when the encoder reads
+   * the raster of the image, or else the variant of {@link #extract(RenderedImage, Rectangle, int)}
+   * that converts them, judged by the sample model of the image.
+   */
+  private static String getExtraction( RenderedImage aRi, Rectangle aBounds, int aBands ) {
+    if ( aRi instanceof BufferedImage && canEncodeRaster( ( BufferedImage ) aRi ) ) {
+      return "raster";
+    }
+    ColorModel colorModel = aRi.getColorModel();
+    SampleModel sampleModel = aRi.getSampleModel();
+    if ( isComponentRGB( colorModel, sampleModel, aBands ) ) {
+      return "component";
+    }
+    if ( isDirectRGB( colorModel, sampleModel ) ) {
+      return "direct";
+    }
+    if ( isLookupRGB( colorModel, sampleModel, aBounds.width * aBounds.height ) ) {
+      return "lookup";
     }
-    else if ( colorModel instanceof DirectColorModel ) {
-      SinglePixelPackedSampleModel sampleModel = ( SinglePixelPackedSampleModel ) aRi.getSampleModel();
-      int type = sampleModel.getTransferType();
-      if ( type == DataBuffer.TYPE_INT ) {
-        return extractDirectRGBAInt( width, height, ( DirectColorModel ) colorModel, sampleModel, ( ( DataBufferInt ) aRi.getData().getDataBuffer() ) );
+    return "generic";
+  }
+
+  /**
+   * Converts the pixels of a region of the image into packed RGB or RGBA bytes. The image is
+   * processed tile by tile, reading straight from the rasters of the tiles that overlap the region,
+   * so the image is never copied as a whole.
+   *
+   * @param aBounds the region to convert, in image coordinates.
+   * @param aBands  3 for RGB, 4 for RGBA.
+   */
+  private static byte[] extract( RenderedImage aRi, Rectangle aBounds, int aBands ) {
+    int width = aBounds.width;
+    int height = aBounds.height;
+    byte[] out = new byte[ width * height * aBands ];
+    ColorModel colorModel = aRi.getColorModel();
+    byte[] colours = null;
+
+    int minTileX = getTileIndex( aBounds.x, aRi.getTileGridXOffset(), aRi.getTileWidth() );
+    int minTileY = getTileIndex( aBounds.y, aRi.getTileGridYOffset(), aRi.getTileHeight() );
+    int maxTileX = getTileIndex( aBounds.x + width - 1, aRi.getTileGridXOffset(), aRi.getTileWidth() );
+    int maxTileY = getTileIndex( aBounds.y + height - 1, aRi.getTileGridYOffset(), aRi.getTileHeight() );
+    for ( int tileY = minTileY; tileY <= maxTileY; tileY++ ) {
+      for ( int tileX = minTileX; tileX <= maxTileX; tileX++ ) {
+        Raster tile = aRi.getTile( tileX, tileY );
+        Rectangle region = aBounds.intersection( tile.getBounds() );
+        if ( region.isEmpty() ) {
+          continue;
+        }
+
+        int offset = ( ( region.y - aBounds.y ) * width + region.x - aBounds.x ) * aBands;
+        if ( isComponentRGB( colorModel, tile.getSampleModel(), aBands ) ) {
+          extractComponent( tile, region, out, offset, width * aBands, aBands );
+        }
+        else if ( isDirectRGB( colorModel, tile.getSampleModel() ) ) {
+          extractDirect( tile, region, ( DirectColorModel ) colorModel, out, offset, width * aBands, aBands );
+        }
+        else if ( isLookupRGB( colorModel, tile.getSampleModel(), width * height ) ) {
+          if ( colours == null ) {
+            colours = createColourTable( colorModel, tile.getSampleModel(), aBands );
+          }
+          extractLookup( tile, region, colours, out, offset, width * aBands, aBands );
+        }
+        else {
+          extractGeneric( tile, region, colorModel, out, offset, width * aBands, aBands );
+        }
       }
-      else {
-        throw new IOException( "Incompatible image: " + aRi );
+    }
+    return out;
+  }
+
+  /**
+   * Returns the index of the tile that contains the given pixel coordinate.
+   */
+  private static int getTileIndex( int aCoordinate, int aGridOffset, int aTileSize ) {
+    int offset = aCoordinate - aGridOffset;
+    return offset >= 0 ? offset / aTileSize : ( offset + 1 ) / aTileSize - 1;
+  }
+
+  /**
+   * Returns whether the samples of the bands can be copied as they are: 8 bit, non-premultiplied
+   * sRGB components, with at least as many bands as needed.
+   */
+  private static boolean isComponentRGB( ColorModel aColorModel, SampleModel aSampleModel, int aBands ) {
+    if ( !( aColorModel instanceof ComponentColorModel ) || !( aSampleModel instanceof ComponentSampleModel ) ) {
+      return false;
+    }
+    int type = aSampleModel.getTransferType();
+    return ( type == DataBuffer.TYPE_BYTE || type == DataBuffer.TYPE_INT ) &&
+           aColorModel.getColorSpace().isCS_sRGB() &&
+           !aColorModel.isAlphaPremultiplied() &&
+           aColorModel.getNumComponents() >= aBands &&
+           hasComponentSize( aColorModel, 8 );
+  }
+
+  private static boolean isDirectRGB( ColorModel aColorModel, SampleModel aSampleModel ) {
+    return aColorModel instanceof DirectColorModel &&
+           aSampleModel instanceof SinglePixelPackedSampleModel &&
+           aSampleModel.getTransferType() == DataBuffer.TYPE_INT &&
+           aColorModel.getColorSpace().isCS_sRGB() &&
+           !aColorModel.isAlphaPremultiplied() &&
+           hasComponentSize( aColorModel, 8 );
+  }
+
+  /**
+   * Returns whether the colour of a pixel only depends on a single sample, as for index colour
+   * models and gray images, so that it can be looked up in a table of all colours. Tables for
+   * samples of more than 8 bits are only worth filling for images with more pixels than entries.
+   */
+  private static boolean isLookupRGB( ColorModel aColorModel, SampleModel aSampleModel, int aPixels ) {
+    if ( !( aColorModel instanceof IndexColorModel ) &&
+         !( aColorModel instanceof ComponentColorModel && aColorModel.getNumComponents() == 1 ) ) {
+      return false;
+    }
+    int type = aSampleModel.getTransferType();
+    int size = aSampleModel.getSampleSize( 0 );
+    return aSampleModel.getNumBands() == 1 &&
+           ( type == DataBuffer.TYPE_BYTE || type == DataBuffer.TYPE_USHORT ) &&
+           ( size <= 8 || ( size <= 16 && aPixels >= 1 << size ) );
+  }
+
+  /**
+   * Returns the colours of all sample values, as converted by the colour model, packed with the
+   * given number of bands per colour.
+   */
+  private static byte[] createColourTable( ColorModel aColorModel, SampleModel aSampleModel, int aBands ) {
+    int entries = 1 << aSampleModel.getSampleSize( 0 );
+    byte[] table = new byte[ entries * aBands ];
+    byte[] byteElements = new byte[ 1 ];
+    short[] shortElements = new short[ 1 ];
+    Object elements = aSampleModel.getTransferType() == DataBuffer.TYPE_BYTE ? byteElements : shortElements;
+    for ( int i = 0, b = 0; i < entries; i++, b += aBands ) {
+      byteElements[ 0 ] = ( byte ) i;
+      shortElements[ 0 ] = ( short ) i;
+      int argb = aColorModel.getRGB( elements );
+      table[ b ] = ( byte ) ( argb >> 16 );
+      table[ b + 1 ] = ( byte ) ( argb >> 8 );
+      table[ b + 2 ] = ( byte ) argb;
+      if ( aBands == 4 ) {
+        table[ b + 3 ] = ( byte ) ( argb >>> 24 );
       }
     }
+    return table;
+  }
 
-    return extractGenericRGBA( aRi, width, height, colorModel );
+  private static boolean hasComponentSize( ColorModel aColorModel, int aSize ) {
+    for ( int size : aColorModel.getComponentSize() ) {
+      if ( size != aSize ) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  private static byte[] extractGenericRGBA( RenderedImage aRi, int aWidth, int aHeight, ColorModel aColorModel ) {
+  private static void extractGeneric( Raster aTile, Rectangle aRegion, ColorModel aColorModel, byte[] aOut, int aOffset, int aStride, int aBands ) {
     Object dataElements = null;
-    byte[] rgbData = new byte[ aWidth * aHeight * 4 ];
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      for ( int x = 0; x < aWidth; x++, b += 4 ) {
-        dataElements = aRi.getData().getDataElements( x, y, dataElements );
-        rgbData[ b ] = ( byte ) aColorModel.getRed( dataElements );
-        rgbData[ b + 1 ] = ( byte ) aColorModel.getGreen( dataElements );
-        rgbData[ b + 2 ] = ( byte ) aColorModel.getBlue( dataElements );
-        rgbData[ b + 3 ] = ( byte ) aColorModel.getAlpha( dataElements );
+    for ( int y = 0; y < aRegion.height; y++ ) {
+      for ( int x = 0, b = aOffset + y * aStride; x < aRegion.width; x++, b += aBands ) {
+        dataElements = aTile.getDataElements( aRegion.x + x, aRegion.y + y, dataElements );
+        aOut[ b ] = ( byte ) aColorModel.getRed( dataElements );
+        aOut[ b + 1 ] = ( byte ) aColorModel.getGreen( dataElements );
+        aOut[ b + 2 ] = ( byte ) aColorModel.getBlue( dataElements );
+        if ( aBands == 4 ) {
+          aOut[ b + 3 ] = ( byte ) aColorModel.getAlpha( dataElements );
+        }
       }
     }
-    return rgbData;
   }
 
-  private static byte[] extractDirectRGBAInt( int aWidth, int aHeight, DirectColorModel aColorModel, SinglePixelPackedSampleModel aSampleModel, DataBufferInt aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 4 ];
+  private static void extractLookup( Raster aTile, Rectangle aRegion, byte[] aColours, byte[] aOut, int aOffset, int aStride, int aBands ) {
+    int[] samples = new int[ aRegion.width ];
+    for ( int y = 0; y < aRegion.height; y++ ) {
+      aTile.getSamples( aRegion.x, aRegion.y + y, aRegion.width, 1, 0, samples );
+      int b = aOffset + y * aStride;
+      if ( aBands == 4 ) {
+        for ( int x = 0; x < aRegion.width; x++, b += 4 ) {
+          int c = samples[ x ] * 4;
+          aOut[ b ] = aColours[ c ];
+          aOut[ b + 1 ] = aColours[ c + 1 ];
+          aOut[ b + 2 ] = aColours[ c + 2 ];
+          aOut[ b + 3 ] = aColours[ c + 3 ];
+        }
+      }
+      else {
+        for ( int x = 0; x < aRegion.width; x++, b += 3 ) {
+          int c = samples[ x ] * 3;
+          aOut[ b ] = aColours[ c ];
+          aOut[ b + 1 ] = aColours[ c + 1 ];
+          aOut[ b + 2 ] = aColours[ c + 2 ];
+        }
+      }
+    }
+  }
+
+  private static void extractDirect( Raster aTile, Rectangle aRegion, DirectColorModel aColorModel, byte[] aOut, int aOffset, int aStride, int aBands ) {
+    SinglePixelPackedSampleModel sampleModel = ( SinglePixelPackedSampleModel ) aTile.getSampleModel();
+    DataBufferInt dataBuffer = ( DataBufferInt ) aTile.getDataBuffer();
 
     int rMask = aColorModel.getRedMask();
     int gMask = aColorModel.getGreenMask();
@@ -343,91 +1337,47 @@ final class WebP {
     int rShift = getShift( rMask );
     int gShift = getShift( gMask );
     int bShift = getShift( bMask );
-    int aShift = getShift( aMask );
-    int[] bank = aDataBuffer.getBankData()[ 0 ];
-    int scanlineStride = aSampleModel.getScanlineStride();
-    int scanIx = 0;
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
+    int aShift = aMask != 0 ? getShift( aMask ) : 0;
+    int[] bank = dataBuffer.getData();
+    int scanlineStride = sampleModel.getScanlineStride();
+    int scanIx = dataBuffer.getOffset() +
+                 sampleModel.getOffset( aRegion.x - aTile.getSampleModelTranslateX(),
+                                        aRegion.y - aTile.getSampleModelTranslateY() );
+    for ( int y = 0; y < aRegion.height; y++ ) {
       int pixIx = scanIx;
-      for ( int x = 0; x < aWidth; x++, b += 4 ) {
+      for ( int x = 0, b = aOffset + y * aStride; x < aRegion.width; x++, b += aBands ) {
         int pixel = bank[ pixIx++ ];
-        out[ b ] = ( byte ) ( ( pixel & rMask ) >>> rShift );
-        out[ b + 1 ] = ( byte ) ( ( pixel & gMask ) >>> gShift );
-        out[ b + 2 ] = ( byte ) ( ( pixel & bMask ) >>> bShift );
-        out[ b + 3 ] = ( byte ) ( ( pixel & aMask ) >>> aShift );
+        aOut[ b ] = ( byte ) ( ( pixel & rMask ) >>> rShift );
+        aOut[ b + 1 ] = ( byte ) ( ( pixel & gMask ) >>> gShift );
+        aOut[ b + 2 ] = ( byte ) ( ( pixel & bMask ) >>> bShift );
+        if ( aBands == 4 ) {
+          aOut[ b + 3 ] = aMask != 0 ? ( byte ) ( ( pixel & aMask ) >>> aShift ) : ( byte ) 0xff;
+        }
       }
       scanIx += scanlineStride;
     }
-    return out;
   }
 
-  private static byte[] extractComponentRGBAInt( int aWidth, int aHeight, ComponentSampleModel aSampleModel, DataBufferInt aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 4 ];
-
-    int[] bankIndices = aSampleModel.getBankIndices();
-    int[] bankOffsets = aSampleModel.getBandOffsets();
-    int rScanIx = bankOffsets[ 0 ];
-    int gScanIx = bankOffsets[ 1 ];
-    int bScanIx = bankOffsets[ 2 ];
-    int aScanIx = bankOffsets[ 3 ];
-
-    int pixelStride = aSampleModel.getPixelStride();
-    int scanlineStride = aSampleModel.getScanlineStride();
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      int rPixIx = rScanIx;
-      int gPixIx = gScanIx;
-      int bPixIx = bScanIx;
-      int aPixIx = aScanIx;
-      for ( int x = 0; x < aWidth; x++, b += 4 ) {
-        out[b] = (byte) aDataBuffer.getElem(bankIndices[0], rPixIx);
-        rPixIx += pixelStride;
-        out[b + 1] = (byte) aDataBuffer.getElem(bankIndices[1], gPixIx);
-        gPixIx += pixelStride;
-        out[b + 2] = (byte) aDataBuffer.getElem(bankIndices[2], bPixIx);
-        bPixIx += pixelStride;
-        out[b + 3] = (byte) aDataBuffer.getElem(bankIndices[3], aPixIx);
-        aPixIx += pixelStride;
-      }
-      rScanIx += scanlineStride;
-      gScanIx += scanlineStride;
-      bScanIx += scanlineStride;
-      aScanIx += scanlineStride;
-    }
-    return out;
-  }
+  private static void extractComponent( Raster aTile, Rectangle aRegion, byte[] aOut, int aOffset, int aStride, int aBands ) {
+    ComponentSampleModel sampleModel = ( ComponentSampleModel ) aTile.getSampleModel();
+    DataBuffer dataBuffer = aTile.getDataBuffer();
 
-  private static byte[] extractComponentRGBAByte( int aWidth, int aHeight, ComponentSampleModel aSampleModel, DataBufferByte aDataBuffer ) {
-    byte[] out = new byte[ aWidth * aHeight * 4 ];
-
-    int[] bankIndices = aSampleModel.getBankIndices();
-    int[] bankOffsets = aSampleModel.getBandOffsets();
-    int rScanIx = bankOffsets[ 0 ];
-    int gScanIx = bankOffsets[ 1 ];
-    int bScanIx = bankOffsets[ 2 ];
-    int aScanIx = bankOffsets[ 3 ];
-
-    int pixelStride = aSampleModel.getPixelStride();
-    int scanlineStride = aSampleModel.getScanlineStride();
-    for ( int b = 0, y = 0; y < aHeight; y++ ) {
-      int rPixIx = rScanIx;
-      int gPixIx = gScanIx;
-      int bPixIx = bScanIx;
-      int aPixIx = aScanIx;
-      for ( int x = 0; x < aWidth; x++, b += 4 ) {
-        out[b] = (byte) aDataBuffer.getElem(bankIndices[0], rPixIx);
-        rPixIx += pixelStride;
-        out[b + 1] = (byte) aDataBuffer.getElem(bankIndices[1], gPixIx);
-        gPixIx += pixelStride;
-        out[b + 2] = (byte) aDataBuffer.getElem(bankIndices[2], bPixIx);
-        bPixIx += pixelStride;
-        out[b + 3] = (byte) aDataBuffer.getElem(bankIndices[3], aPixIx);
-        aPixIx += pixelStride;
+    int[] bankIndices = sampleModel.getBankIndices();
+    int[] bandOffsets = sampleModel.getBandOffsets();
+    int pixelStride = sampleModel.getPixelStride();
+    int scanlineStride = sampleModel.getScanlineStride();
+    int scanIx = ( aRegion.y - aTile.getSampleModelTranslateY() ) * scanlineStride +
+                 ( aRegion.x - aTile.getSampleModelTranslateX() ) * pixelStride;
+    for ( int y = 0; y < aRegion.height; y++ ) {
+      for ( int band = 0; band < aBands; band++ ) {
+        int bankIndex = bankIndices[ band ];
+        int pixIx = scanIx + bandOffsets[ band ];
+        for ( int x = 0, b = aOffset + y * aStride + band; x < aRegion.width; x++, b += aBands ) {
+          aOut[ b ] = ( byte ) dataBuffer.getElem( bankIndex, pixIx );
+          pixIx += pixelStride;
+        }
       }
-      rScanIx += scanlineStride;
-      gScanIx += scanlineStride;
-      bScanIx += scanlineStride;
-      aScanIx += scanlineStride;
+      scanIx += scanlineStride;
     }
-    return out;
   }
 }
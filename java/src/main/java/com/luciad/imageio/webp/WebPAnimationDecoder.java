@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Composites the frames of an animated WebP file onto its canvas. Frames are only decoded when
+ * they are needed. The canvas of the last requested frame is kept, so reading the frames in order
+ * decodes each frame once, and reading an earlier frame restarts from the closest key frame
+ * instead of from the first frame.
+ */
+final class WebPAnimationDecoder {
+  private static final class Frame {
+    final int fX;
+    final int fY;
+    final int fWidth;
+    final int fHeight;
+    final boolean fAlpha;
+    final boolean fBlend;
+    final boolean fDisposeBackground;
+    final int fDataOffset;
+    final int fDataLength;
+    boolean fKeyFrame;
+
+    Frame( int[] aFrames, int aIndex ) {
+      int offset = aIndex * WebP.FRAME_INFO_SIZE;
+      fX = aFrames[ offset ];
+      fY = aFrames[ offset + 1 ];
+      fWidth = aFrames[ offset + 2 ];
+      fHeight = aFrames[ offset + 3 ];
+      fAlpha = aFrames[ offset + 4 ] != 0;
+      fBlend = aFrames[ offset + 5 ] != 0;
+      fDisposeBackground = aFrames[ offset + 6 ] != 0;
+      fDataOffset = aFrames[ offset + 7 ];
+      fDataLength = aFrames[ offset + 8 ];
+    }
+  }
+
+  private final ByteBuffer fData;
+  private final int fCanvasWidth;
+  private final int fCanvasHeight;
+  private final Frame[] fFrames;
+  private final int[] fCanvas;
+  private int fCanvasFrame = -1;
+
+  /**
+   * @param aData a direct buffer with the complete file. It must not be modified while this
+   *              decoder is in use.
+   */
+  WebPAnimationDecoder( ByteBuffer aData ) throws IOException {
+    int[] canvas = new int[ 2 ];
+    int[] frames = WebP.demux( aData, canvas );
+    fData = aData;
+    fCanvasWidth = canvas[ 0 ];
+    fCanvasHeight = canvas[ 1 ];
+    fFrames = new Frame[ frames.length / WebP.FRAME_INFO_SIZE ];
+    for ( int i = 0; i < fFrames.length; i++ ) {
+      fFrames[ i ] = new Frame( frames, i );
+      fFrames[ i ].fKeyFrame = isKeyFrame( i );
+    }
+    fCanvas = new int[ fCanvasWidth * fCanvasHeight ];
+  }
+
+  int getFrameCount() {
+    return fFrames.length;
+  }
+
+  int getCanvasWidth() {
+    return fCanvasWidth;
+  }
+
+  int getCanvasHeight() {
+    return fCanvasHeight;
+  }
+
+  /**
+   * Returns the non-premultiplied ARGB pixels of the canvas once the given frame is drawn. The
+   * array is owned by this decoder and is overwritten by the next call.
+   *
+   * @param aOptions the decoder options for the frames. Cropping and scaling must not be used.
+   */
+  int[] getCanvas( int aFrameIndex, WebPReadParam aOptions ) throws IOException {
+    int start;
+    if ( fCanvasFrame != -1 && fCanvasFrame <= aFrameIndex ) {
+      start = fCanvasFrame + 1;
+    }
+    else {
+      start = aFrameIndex;
+      while ( !fFrames[ start ].fKeyFrame ) {
+        start--;
+      }
+    }
+
+    for ( int i = start; i <= aFrameIndex; i++ ) {
+      // Invalidate the canvas first in case decoding the frame fails half way.
+      fCanvasFrame = -1;
+
+      Frame frame = fFrames[ i ];
+      if ( frame.fKeyFrame ) {
+        Arrays.fill( fCanvas, 0 );
+      }
+      else if ( fFrames[ i - 1 ].fDisposeBackground ) {
+        clear( fFrames[ i - 1 ] );
+      }
+      draw( frame, aOptions );
+      fCanvasFrame = i;
+    }
+    return fCanvas;
+  }
+
+  /**
+   * A frame is a key frame if the canvas before it does not depend on the previous frames: either
+   * it replaces the whole canvas, or the canvas is cleared before it is drawn.
+   */
+  private boolean isKeyFrame( int aFrameIndex ) {
+    if ( aFrameIndex == 0 ) {
+      return true;
+    }
+
+    Frame frame = fFrames[ aFrameIndex ];
+    if ( ( !frame.fAlpha || !frame.fBlend ) && isFullFrame( frame ) ) {
+      return true;
+    }
+
+    Frame previous = fFrames[ aFrameIndex - 1 ];
+    return previous.fDisposeBackground && ( isFullFrame( previous ) || previous.fKeyFrame );
+  }
+
+  private boolean isFullFrame( Frame aFrame ) {
+    return aFrame.fWidth == fCanvasWidth && aFrame.fHeight == fCanvasHeight;
+  }
+
+  /**
+   * Disposes a frame to the background. Like libwebp, this uses transparent pixels rather than the
+   * background color of the file.
+   */
+  private void clear( Frame aFrame ) {
+    for ( int y = 0; y < aFrame.fHeight; y++ ) {
+      int offset = ( aFrame.fY + y ) * fCanvasWidth + aFrame.fX;
+      Arrays.fill( fCanvas, offset, offset + aFrame.fWidth, 0 );
+    }
+  }
+
+  private void draw( Frame aFrame, WebPReadParam aOptions ) throws IOException {
+    ByteBuffer data = fData.duplicate();
+    data.clear();
+    data.position( aFrame.fDataOffset );
+    data.limit( aFrame.fDataOffset + aFrame.fDataLength );
+
+    BufferedImage image = WebP.createImage( aFrame.fWidth, aFrame.fHeight, true );
+    WebP.decode( aOptions, data, 0, 0, image, new Rectangle( aFrame.fWidth, aFrame.fHeight ) );
+    int[] pixels = ( ( DataBufferInt ) image.getRaster().getDataBuffer() ).getData();
+
+    boolean blend = aFrame.fAlpha && aFrame.fBlend;
+    for ( int y = 0; y < aFrame.fHeight; y++ ) {
+      int source = y * aFrame.fWidth;
+      int destination = ( aFrame.fY + y ) * fCanvasWidth + aFrame.fX;
+      if ( blend ) {
+        for ( int x = 0; x < aFrame.fWidth; x++ ) {
+          fCanvas[ destination + x ] = blend( pixels[ source + x ], fCanvas[ destination + x ] );
+        }
+      }
+      else {
+        System.arraycopy( pixels, source, fCanvas, destination, aFrame.fWidth );
+      }
+    }
+  }
+
+  /**
+   * Composites a non-premultiplied ARGB pixel over another one.
+   */
+  static int blend( int aSource, int aDestination ) {
+    int sourceAlpha = aSource >>> 24;
+    if ( sourceAlpha == 255 ) {
+      return aSource;
+    }
+    if ( sourceAlpha == 0 ) {
+      return aDestination;
+    }
+
+    int destinationAlpha = ( aDestination >>> 24 ) * ( 255 - sourceAlpha ) / 255;
+    int alpha = sourceAlpha + destinationAlpha;
+    int red = blend( aSource >> 16, sourceAlpha, aDestination >> 16, destinationAlpha, alpha );
+    int green = blend( aSource >> 8, sourceAlpha, aDestination >> 8, destinationAlpha, alpha );
+    int blue = blend( aSource, sourceAlpha, aDestination, destinationAlpha, alpha );
+    return ( alpha << 24 ) | ( red << 16 ) | ( green << 8 ) | blue;
+  }
+
+  private static int blend( int aSource, int aSourceAlpha, int aDestination, int aDestinationAlpha, int aAlpha ) {
+    return ( ( aSource & 0xff ) * aSourceAlpha + ( aDestination & 0xff ) * aDestinationAlpha ) / aAlpha;
+  }
+}
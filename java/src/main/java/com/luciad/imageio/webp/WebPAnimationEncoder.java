@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encodes a sequence of images as the frames of an animated WebP file. Each frame is encoded as
+ * soon as it is added and handed to the native mux, so only the encoded frames are kept in memory.
+ * <p/>
+ * When frames are minimized, the encoder keeps track of the canvas as a decoder will show it, and
+ * only encodes the even aligned rectangle that differs from the previous frame. Such frames replace
+ * the pixels of the canvas and are never disposed, so a frame that changes nothing only extends the
+ * duration of the previous one. The blending and disposal of the original frames are applied to
+ * the canvas while encoding instead.
+ */
+final class WebPAnimationEncoder {
+  private final boolean fMinimizeFrames;
+  private final int fLoopCount;
+  private long fMux;
+  private int fCanvasWidth;
+  private int fCanvasHeight;
+  // The canvas as the next frame should be drawn on, and the canvas as a decoder shows it.
+  private int[] fCanvas;
+  private int[] fDisplayed;
+  private Frame fPendingFrame;
+  private int fFrameCount;
+
+  private static final class Frame {
+    final byte[] fData;
+    final int fX;
+    final int fY;
+    int fDuration;
+    final boolean fBlend;
+    final boolean fDisposeBackground;
+
+    Frame( byte[] aData, int aX, int aY, int aDuration, boolean aBlend, boolean aDisposeBackground ) {
+      fData = aData;
+      fX = aX;
+      fY = aY;
+      fDuration = aDuration;
+      fBlend = aBlend;
+      fDisposeBackground = aDisposeBackground;
+    }
+  }
+
+  /**
+   * @param aWriteParam the options of the animation, see {@link WebPWriteParam#getLoopCount()} and
+   *                    {@link WebPWriteParam#isMinimizeFrames()}.
+   */
+  WebPAnimationEncoder( WebPWriteParam aWriteParam ) {
+    fMinimizeFrames = aWriteParam.isMinimizeFrames();
+    fLoopCount = aWriteParam.getLoopCount();
+    fMux = WebP.createMux();
+    if ( fMux == 0 ) {
+      throw new OutOfMemoryError();
+    }
+  }
+
+  void addFrame( RenderedImage aImage, WebPWriteParam aWriteParam ) throws IOException {
+    if ( fMux == 0 ) {
+      throw new IllegalStateException( "Encoder has been disposed" );
+    }
+
+    int x = aWriteParam.getFrameXOffset();
+    int y = aWriteParam.getFrameYOffset();
+    int width = aImage.getWidth();
+    int height = aImage.getHeight();
+    if ( fFrameCount == 0 ) {
+      fCanvasWidth = x + width;
+      fCanvasHeight = y + height;
+    }
+    else if ( x + width > fCanvasWidth || y + height > fCanvasHeight ) {
+      throw new IllegalArgumentException( "Frame does not fit on the " + fCanvasWidth + "x" + fCanvasHeight + " canvas" );
+    }
+
+    if ( !fMinimizeFrames ) {
+      addFrame( new Frame( WebP.encodeFrame( aWriteParam, aImage ), x, y, aWriteParam.getFrameDuration(),
+                           aWriteParam.isFrameBlending(), aWriteParam.isDisposeFrameToBackground() ) );
+      return;
+    }
+
+    if ( fCanvas == null ) {
+      fCanvas = new int[ fCanvasWidth * fCanvasHeight ];
+      fDisplayed = new int[ fCanvasWidth * fCanvasHeight ];
+    }
+
+    int[] target = fCanvas.clone();
+    draw( target, getPixels( aImage ), x, y, width, height, aWriteParam.isFrameBlending() );
+
+    Rectangle changed = fFrameCount == 0 ? new Rectangle( fCanvasWidth, fCanvasHeight ) : getChangedBounds( target );
+    if ( changed.isEmpty() ) {
+      fPendingFrame.fDuration = Math.min( fPendingFrame.fDuration + aWriteParam.getFrameDuration(), WebPWriteParam.MAX_FRAME_DURATION );
+    }
+    else {
+      BufferedImage image = WebP.createImage( target, fCanvasWidth, fCanvasHeight, true )
+                                .getSubimage( changed.x, changed.y, changed.width, changed.height );
+      addFrame( new Frame( WebP.encodeFrame( aWriteParam, image ), changed.x, changed.y, aWriteParam.getFrameDuration(), false, false ) );
+    }
+
+    fDisplayed = target;
+    System.arraycopy( target, 0, fCanvas, 0, target.length );
+    if ( aWriteParam.isDisposeFrameToBackground() ) {
+      for ( int row = y; row < y + height; row++ ) {
+        int offset = row * fCanvasWidth + x;
+        Arrays.fill( fCanvas, offset, offset + width, 0 );
+      }
+    }
+  }
+
+  /**
+   * Writes the animation to the stream. The encoder can not be used afterwards.
+   */
+  void finish( OutputStream aOutput ) throws IOException {
+    if ( fMux == 0 ) {
+      throw new IllegalStateException( "Encoder has been disposed" );
+    }
+    if ( fFrameCount == 0 ) {
+      throw new IllegalStateException( "No frames have been written" );
+    }
+
+    try {
+      pushPendingFrame();
+      WebP.assembleMux( fMux, fLoopCount, 0, aOutput );
+    } finally {
+      dispose();
+    }
+  }
+
+  void dispose() {
+    if ( fMux != 0 ) {
+      WebP.deleteMux( fMux );
+      fMux = 0;
+    }
+    fPendingFrame = null;
+    fCanvas = null;
+    fDisplayed = null;
+  }
+
+  /**
+   * Frames are held back by one, so that the duration of a frame that changes nothing can be added
+   * to the previous frame.
+   */
+  private void addFrame( Frame aFrame ) throws IOException {
+    pushPendingFrame();
+    fPendingFrame = aFrame;
+    fFrameCount++;
+  }
+
+  private void pushPendingFrame() throws IOException {
+    if ( fPendingFrame != null ) {
+      Frame frame = fPendingFrame;
+      fPendingFrame = null;
+      int result = WebP.addMuxFrame( fMux, frame.fData, frame.fX, frame.fY, frame.fDuration, frame.fBlend, frame.fDisposeBackground );
+      if ( result != 1 ) {
+        throw new IOException( "Mux returned code " + result );
+      }
+    }
+  }
+
+  /**
+   * Returns the bounds of the pixels that differ between the target and the displayed canvas,
+   * grown to even offsets.
+   */
+  private Rectangle getChangedBounds( int[] aTarget ) {
+    int minX = fCanvasWidth;
+    int minY = fCanvasHeight;
+    int maxX = -1;
+    int maxY = -1;
+    for ( int y = 0; y < fCanvasHeight; y++ ) {
+      int offset = y * fCanvasWidth;
+      for ( int x = 0; x < fCanvasWidth; x++ ) {
+        if ( aTarget[ offset + x ] != fDisplayed[ offset + x ] ) {
+          minX = Math.min( minX, x );
+          maxX = Math.max( maxX, x );
+          minY = Math.min( minY, y );
+          maxY = y;
+        }
+      }
+    }
+    if ( maxX < 0 ) {
+      return new Rectangle();
+    }
+    minX &= ~1;
+    minY &= ~1;
+    return new Rectangle( minX, minY, maxX - minX + 1, maxY - minY + 1 );
+  }
+
+  private void draw( int[] aCanvas, int[] aPixels, int aX, int aY, int aWidth, int aHeight, boolean aBlend ) {
+    for ( int y = 0; y < aHeight; y++ ) {
+      int source = y * aWidth;
+      int destination = ( aY + y ) * fCanvasWidth + aX;
+      if ( aBlend ) {
+        for ( int x = 0; x < aWidth; x++ ) {
+          aCanvas[ destination + x ] = WebPAnimationDecoder.blend( aPixels[ source + x ], aCanvas[ destination + x ] );
+        }
+      }
+      else {
+        System.arraycopy( aPixels, source, aCanvas, destination, aWidth );
+      }
+    }
+  }
+
+  /**
+   * Returns the non-premultiplied ARGB pixels of the image.
+   */
+  private static int[] getPixels( RenderedImage aImage ) {
+    BufferedImage image;
+    if ( aImage instanceof BufferedImage ) {
+      image = ( BufferedImage ) aImage;
+    }
+    else {
+      ColorModel colorModel = aImage.getColorModel();
+      WritableRaster raster = colorModel.createCompatibleWritableRaster( aImage.getWidth(), aImage.getHeight() );
+      aImage.copyData( raster.createWritableTranslatedChild( aImage.getMinX(), aImage.getMinY() ) );
+      image = new BufferedImage( colorModel, raster, colorModel.isAlphaPremultiplied(), null );
+    }
+    int width = image.getWidth();
+    return image.getRGB( 0, 0, width, image.getHeight(), null, 0, width );
+  }
+}
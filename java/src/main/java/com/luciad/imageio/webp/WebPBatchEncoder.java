@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes many images with the same options on a pool of threads. Unlike writing each image with
+ * a new {@link WebPWriter}, all images share a single native encoder configuration, which libwebp
+ * only reads while encoding.
+ * <p/>
+ * The write param must not be modified while the batch encoder is in use.
+ */
+public final class WebPBatchEncoder {
+  /**
+   * Receives the encoded images, in the order of the input, on the thread that called
+   * {@link WebPBatchEncoder#encode(Iterator, Listener)}.
+   */
+  public interface Listener {
+    void imageEncoded( int aIndex, byte[] aData ) throws IOException;
+  }
+
+  private final WebPWriteParam fWriteParam;
+  private final ExecutorService fExecutor;
+  private final boolean fOwnsExecutor;
+  private final int fMaxPending;
+
+  /**
+   * Creates a batch encoder with its own pool of a thread per processor. The pool is shut down by
+   * {@link #close()}.
+   */
+  public WebPBatchEncoder( WebPWriteParam aWriteParam ) {
+    this( aWriteParam, Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() ), true,
+          2 * Runtime.getRuntime().availableProcessors() );
+  }
+
+  /**
+   * @param aExecutor   the executor that encodes the images. It is not shut down by {@link #close()}.
+   * @param aMaxPending the maximum number of images that are queued or being encoded at once, which
+   *                    bounds the memory used for the images and their encoded data.
+   */
+  public WebPBatchEncoder( WebPWriteParam aWriteParam, ExecutorService aExecutor, int aMaxPending ) {
+    this( aWriteParam, aExecutor, false, aMaxPending );
+  }
+
+  private WebPBatchEncoder( WebPWriteParam aWriteParam, ExecutorService aExecutor, boolean aOwnsExecutor, int aMaxPending ) {
+    if ( aWriteParam == null ) {
+      throw new NullPointerException( "Encoder options may not be null" );
+    }
+    if ( aExecutor == null ) {
+      throw new NullPointerException( "Executor may not be null" );
+    }
+    if ( aMaxPending < 1 ) {
+      throw new IllegalArgumentException( "At least one image must be pending: " + aMaxPending );
+    }
+    fWriteParam = aWriteParam;
+    fExecutor = aExecutor;
+    fOwnsExecutor = aOwnsExecutor;
+    fMaxPending = aMaxPending;
+  }
+
+  /**
+   * Encodes all images, and returns the encoded data in the order of the images.
+   */
+  public List<byte[]> encode( Collection<? extends RenderedImage> aImages ) throws IOException {
+    final List<byte[]> result = new ArrayList<byte[]>( aImages.size() );
+    encode( aImages.iterator(), new Listener() {
+      @Override
+      public void imageEncoded( int aIndex, byte[] aData ) {
+        result.add( aData );
+      }
+    } );
+    return result;
+  }
+
+  /**
+   * Encodes the images as they are returned by the iterator. Images are only taken from the
+   * iterator while fewer than the maximum number of images are pending, so the iterator can produce
+   * them lazily. If encoding an image or the listener fails, the pending images are cancelled.
+   */
+  public void encode( Iterator<? extends RenderedImage> aImages, Listener aListener ) throws IOException {
+    LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    int index = 0;
+    try {
+      while ( aImages.hasNext() || !pending.isEmpty() ) {
+        while ( pending.size() < fMaxPending && aImages.hasNext() ) {
+          pending.add( fExecutor.submit( new EncodeTask( fWriteParam, aImages.next() ) ) );
+        }
+        aListener.imageEncoded( index++, getResult( pending.removeFirst() ) );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while encoding" );
+    } finally {
+      for ( Future<byte[]> future : pending ) {
+        future.cancel( false );
+      }
+    }
+  }
+
+  /**
+   * Shuts down the pool of threads if it was created by this batch encoder.
+   */
+  public void close() {
+    if ( fOwnsExecutor ) {
+      fExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Waits for an encoding task and returns its result, rethrowing the exception it failed with.
+   */
+  static <T> T getResult( Future<T> aFuture ) throws IOException, InterruptedException {
+    try {
+      return aFuture.get();
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof IOException ) {
+        throw ( IOException ) cause;
+      }
+      if ( cause instanceof RuntimeException ) {
+        throw ( RuntimeException ) cause;
+      }
+      if ( cause instanceof Error ) {
+        throw ( Error ) cause;
+      }
+      throw new IOException( cause );
+    }
+  }
+
+  private static final class EncodeTask implements Callable<byte[]> {
+    private final WebPWriteParam fWriteParam;
+    private final RenderedImage fImage;
+
+    EncodeTask( WebPWriteParam aWriteParam, RenderedImage aImage ) {
+      fWriteParam = aWriteParam;
+      fImage = aImage;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      return WebP.encode( fWriteParam, fImage );
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The native memory use and the activity of the codec in this process. The statistics are
+ * registered with the platform MBean server as {@link #OBJECT_NAME} when the native library is
+ * loaded, which happens when the codec is first used.
+ * <p/>
+ * The native memory is counted by the native library, and the decodes and encodes by the static
+ * methods of {@link WebP}, through which all image readers and writers go.
+ */
+public final class WebPCodecStats implements WebPCodecStatsMBean {
+  public static final String OBJECT_NAME = "com.luciad.imageio.webp:type=WebPCodecStats";
+
+  // The positions of the statistics that are counted by the native library.
+  private static final int LIVE_DECODERS = 0;
+  private static final int LIVE_PICTURES = 1;
+  private static final int NATIVE_BYTES = 2;
+  private static final int PEAK_NATIVE_BYTES = 3;
+  private static final int NATIVE_STATS_SIZE = 4;
+
+  private static final int LATENCY_BUCKETS = 32;
+
+  private static final WebPCodecStats INSTANCE = new WebPCodecStats();
+
+  private final Operations fDecodes = new Operations();
+  private final Operations fEncodes = new Operations();
+
+  private WebPCodecStats() {
+  }
+
+  public static WebPCodecStats getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers the statistics with the platform MBean server. Failures are ignored, as the
+   * statistics remain available through {@link #getInstance()}. When the codec is loaded by
+   * several class loaders, only the first one is registered.
+   */
+  static void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean( INSTANCE, new ObjectName( OBJECT_NAME ) );
+    } catch ( JMException ignored ) {
+    } catch ( SecurityException ignored ) {
+    }
+  }
+
+  static void decoded( long aStartTime, long aBytesIn, long aPixels ) {
+    INSTANCE.fDecodes.add( System.nanoTime() - aStartTime, aBytesIn, aPixels * 4 );
+  }
+
+  static void encoded( long aStartTime, long aPixels, long aBytesOut ) {
+    INSTANCE.fEncodes.add( System.nanoTime() - aStartTime, aPixels * 4, aBytesOut );
+  }
+
+  @Override
+  public int getLiveDecoders() {
+    return ( int ) getNativeStats()[ LIVE_DECODERS ];
+  }
+
+  @Override
+  public int getLivePictures() {
+    return ( int ) getNativeStats()[ LIVE_PICTURES ];
+  }
+
+  @Override
+  public long getNativeBytes() {
+    return getNativeStats()[ NATIVE_BYTES ];
+  }
+
+  @Override
+  public long getPeakNativeBytes() {
+    return getNativeStats()[ PEAK_NATIVE_BYTES ];
+  }
+
+  @Override
+  public void resetPeakNativeBytes() {
+    if ( WebP.isNativeLibraryLoaded() ) {
+      resetNativePeak();
+    }
+  }
+
+  @Override
+  public long getDecodeCount() {
+    return fDecodes.fCount.get();
+  }
+
+  @Override
+  public long getDecodeBytesIn() {
+    return fDecodes.fBytesIn.get();
+  }
+
+  @Override
+  public long getDecodeBytesOut() {
+    return fDecodes.fBytesOut.get();
+  }
+
+  @Override
+  public long getDecodeTime() {
+    return fDecodes.fTime.get();
+  }
+
+  @Override
+  public long[] getDecodeLatencies() {
+    return fDecodes.getLatencies();
+  }
+
+  @Override
+  public long getEncodeCount() {
+    return fEncodes.fCount.get();
+  }
+
+  @Override
+  public long getEncodeBytesIn() {
+    return fEncodes.fBytesIn.get();
+  }
+
+  @Override
+  public long getEncodeBytesOut() {
+    return fEncodes.fBytesOut.get();
+  }
+
+  @Override
+  public long getEncodeTime() {
+    return fEncodes.fTime.get();
+  }
+
+  @Override
+  public long[] getEncodeLatencies() {
+    return fEncodes.getLatencies();
+  }
+
+  @Override
+  public void resetCounters() {
+    fDecodes.reset();
+    fEncodes.reset();
+  }
+
+  /**
+   * Nothing has been allocated before the native library is loaded, and the statistics should not
+   * load it.
+   */
+  private static long[] getNativeStats() {
+    long[] stats = new long[ NATIVE_STATS_SIZE ];
+    if ( WebP.isNativeLibraryLoaded() ) {
+      getNativeStats( stats );
+    }
+    return stats;
+  }
+
+  private static native void getNativeStats( long[] aStats );
+
+  private static native void resetNativePeak();
+
+  /**
+   * The counters of decodes or encodes, which are updated concurrently by all threads.
+   */
+  private static final class Operations {
+    final AtomicLong fCount = new AtomicLong();
+    final AtomicLong fBytesIn = new AtomicLong();
+    final AtomicLong fBytesOut = new AtomicLong();
+    final AtomicLong fTime = new AtomicLong();
+    final AtomicLongArray fLatencies = new AtomicLongArray( LATENCY_BUCKETS );
+
+    void add( long aTime, long aBytesIn, long aBytesOut ) {
+      fCount.incrementAndGet();
+      fBytesIn.addAndGet( aBytesIn );
+      fBytesOut.addAndGet( aBytesOut );
+      fTime.addAndGet( aTime );
+      int bucket = 64 - Long.numberOfLeadingZeros( Math.max( 0, aTime / 1000 ) );
+      fLatencies.incrementAndGet( Math.min( bucket, LATENCY_BUCKETS - 1 ) );
+    }
+
+    long[] getLatencies() {
+      long[] latencies = new long[ LATENCY_BUCKETS ];
+      for ( int i = 0; i < latencies.length; i++ ) {
+        latencies[ i ] = fLatencies.get( i );
+      }
+      return latencies;
+    }
+
+    void reset() {
+      fCount.set( 0 );
+      fBytesIn.set( 0 );
+      fBytesOut.set( 0 );
+      fTime.set( 0 );
+      for ( int i = 0; i < LATENCY_BUCKETS; i++ ) {
+        fLatencies.set( i, 0 );
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+/**
+ * The management interface of {@link WebPCodecStats}.
+ * <p/>
+ * Native memory is the memory that the codec allocates outside the Java heap, which does not show
+ * up in a heap dump: incremental decoders, imported pictures, and the buffers that hold decoded
+ * pixels or encoded data while a codec works on them. Memory that libwebp only uses inside a
+ * single call is not included.
+ * <p/>
+ * Decode bytes in are the bytes of WebP data, and decode bytes out four bytes per decoded pixel.
+ * Encode bytes in are four bytes per pixel of the encoded region, and encode bytes out the bytes
+ * of WebP data. Only successful operations are counted. Times are in nanoseconds.
+ */
+public interface WebPCodecStatsMBean {
+  int getLiveDecoders();
+
+  int getLivePictures();
+
+  /**
+   * @return the number of bytes of native memory that are currently allocated.
+   */
+  long getNativeBytes();
+
+  /**
+   * @return the largest number of bytes of native memory that were allocated at once, since the
+   * native library was loaded or since {@link #resetPeakNativeBytes()}.
+   */
+  long getPeakNativeBytes();
+
+  void resetPeakNativeBytes();
+
+  long getDecodeCount();
+
+  long getDecodeBytesIn();
+
+  long getDecodeBytesOut();
+
+  long getDecodeTime();
+
+  /**
+   * @return the number of decodes that took less than 1 microsecond at index 0, and that took at
+   * least 2^(i-1) and less than 2^i microseconds at index i. The last index also counts all slower
+   * decodes.
+   */
+  long[] getDecodeLatencies();
+
+  long getEncodeCount();
+
+  long getEncodeBytesIn();
+
+  long getEncodeBytesOut();
+
+  long getEncodeTime();
+
+  /**
+   * @return the encode latencies, in the same buckets as {@link #getDecodeLatencies()}.
+   */
+  long[] getEncodeLatencies();
+
+  /**
+   * Resets the decode and encode counters, times and latencies.
+   */
+  void resetCounters();
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Chooses between lossless and lossy compression, and the preset for lossy compression, for the
+ * Auto compression type of {@link WebPWriteParam}.
+ * <p/>
+ * Only a sample of evenly spaced rows is looked at. It counts the colours, with fully transparent
+ * pixels counted as a single colour, and compares horizontally neighbouring pixels. Images with
+ * few colours, or mostly flat areas such as screenshots, are encoded lossless. Other images are
+ * encoded lossy, with a preset that depends on their size and on how smooth they are.
+ * <p/>
+ * Pixels that are extracted in Java anyway are also scanned completely, to find out whether their
+ * alpha can be left out or compressed more cheaply, and whether they fit in a palette.
+ */
+final class WebPContentAnalyzer {
+  // The choice for lossless compression, and the WebPPreset values for lossy compression.
+  static final int LOSSLESS = -1;
+  static final int PRESET_PICTURE = 1;
+  static final int PRESET_PHOTO = 2;
+  static final int PRESET_DRAWING = 3;
+  static final int PRESET_ICON = 4;
+  static final int PRESET_TEXT = 5;
+
+  // The flags returned by scan.
+  static final int OPAQUE = 1;
+  static final int BINARY_ALPHA = 2;
+  static final int PALETTE = 4;
+
+  private static final int SAMPLE_ROWS = 64;
+  private static final int PALETTE_SIZE = 256;
+  private static final int ICON_AREA = 128 * 128;
+  // The largest difference of a channel between neighbouring pixels on a smooth gradient, and the
+  // smallest one across an edge.
+  private static final int SMOOTH_DIFFERENCE = 16;
+  private static final int EDGE_DIFFERENCE = 64;
+
+  private WebPContentAnalyzer() {
+  }
+
+  /**
+   * @param aRegion the region of the image that is encoded, in image coordinates.
+   * @return {@link #LOSSLESS}, or the preset to encode the region lossy with.
+   */
+  static int analyze( RenderedImage aImage, Rectangle aRegion ) {
+    Set<Integer> colours = new HashSet<Integer>();
+    int pairs = 0;
+    int flat = 0;
+    int smooth = 0;
+    int edges = 0;
+
+    int rows = Math.min( aRegion.height, SAMPLE_ROWS );
+    for ( int row = 0; row < rows; row++ ) {
+      int y = aRegion.y + ( int ) ( ( long ) row * aRegion.height / rows );
+      byte[] rgba = WebP.getRGBA( aImage, new Rectangle( aRegion.x, y, aRegion.width, 1 ) );
+      int previous = 0;
+      for ( int x = 0; x < aRegion.width; x++ ) {
+        int pixel = getPixel( rgba, x * 4 );
+        if ( colours.size() <= PALETTE_SIZE ) {
+          colours.add( pixel );
+        }
+        if ( x > 0 ) {
+          int difference = getDifference( pixel, previous );
+          pairs++;
+          if ( difference == 0 ) {
+            flat++;
+          }
+          else if ( difference <= SMOOTH_DIFFERENCE ) {
+            smooth++;
+          }
+          else if ( difference >= EDGE_DIFFERENCE ) {
+            edges++;
+          }
+        }
+        previous = pixel;
+      }
+    }
+
+    if ( colours.size() <= PALETTE_SIZE || flat >= pairs * 0.6 ) {
+      return LOSSLESS;
+    }
+    if ( ( long ) aRegion.width * aRegion.height <= ICON_AREA ) {
+      return PRESET_ICON;
+    }
+    if ( flat >= pairs * 0.3 ) {
+      return edges > smooth ? PRESET_TEXT : PRESET_DRAWING;
+    }
+    return smooth >= pairs * 0.5 ? PRESET_PICTURE : PRESET_PHOTO;
+  }
+
+  /**
+   * Scans all extracted pixels in a single pass.
+   *
+   * @param aData          packed RGB or RGBA pixels.
+   * @param aBands         3 for RGB, 4 for RGBA.
+   * @param aCountColours  whether to count the colours, which takes more time than checking the
+   *                       alpha.
+   * @return {@link #OPAQUE} if no pixel is translucent, or else {@link #BINARY_ALPHA} if all pixels
+   * are either fully transparent or fully opaque, combined with {@link #PALETTE} if the colours were
+   * counted and fit in a palette.
+   */
+  static int scan( byte[] aData, int aBands, boolean aCountColours ) {
+    boolean opaque = true;
+    boolean binary = true;
+    ColourTable colours = aCountColours ? new ColourTable() : null;
+    int previous = 0;
+    for ( int i = 0; i < aData.length; i += aBands ) {
+      int pixel;
+      if ( aBands == 4 ) {
+        int alpha = aData[ i + 3 ] & 0xff;
+        if ( alpha != 0xff ) {
+          opaque = false;
+          binary &= alpha == 0;
+        }
+        pixel = getPixel( aData, i );
+      }
+      else {
+        pixel = ( aData[ i ] & 0xff ) << 16 | ( aData[ i + 1 ] & 0xff ) << 8 | aData[ i + 2 ] & 0xff;
+      }
+      // Runs of the same colour are common, and only need to be counted once.
+      if ( colours != null && ( i == 0 || pixel != previous ) && !colours.add( pixel ) ) {
+        colours = null;
+        aCountColours = false;
+      }
+      previous = pixel;
+      if ( ( !binary || aBands == 3 ) && colours == null ) {
+        break;
+      }
+    }
+    return ( opaque ? OPAQUE : binary ? BINARY_ALPHA : 0 ) | ( aCountColours ? PALETTE : 0 );
+  }
+
+  /**
+   * A set of at most PALETTE_SIZE colours, with open addressing.
+   */
+  private static final class ColourTable {
+    private final int[] fColours = new int[ 2 * PALETTE_SIZE ];
+    private final boolean[] fUsed = new boolean[ 2 * PALETTE_SIZE ];
+    private int fSize;
+
+    /**
+     * @return {@code false} if the colour does not fit in the table.
+     */
+    boolean add( int aColour ) {
+      int index = ( aColour * 0x9e3779b1 >>> 23 ) & ( fColours.length - 1 );
+      while ( fUsed[ index ] ) {
+        if ( fColours[ index ] == aColour ) {
+          return true;
+        }
+        index = ( index + 1 ) & ( fColours.length - 1 );
+      }
+      if ( fSize == PALETTE_SIZE ) {
+        return false;
+      }
+      fUsed[ index ] = true;
+      fColours[ index ] = aColour;
+      fSize++;
+      return true;
+    }
+  }
+
+  /**
+   * Returns the RGBA pixel at the given offset, or 0 if it is fully transparent.
+   */
+  private static int getPixel( byte[] aRgba, int aOffset ) {
+    if ( aRgba[ aOffset + 3 ] == 0 ) {
+      return 0;
+    }
+    return ( aRgba[ aOffset ] & 0xff ) << 24 | ( aRgba[ aOffset + 1 ] & 0xff ) << 16 |
+           ( aRgba[ aOffset + 2 ] & 0xff ) << 8 | aRgba[ aOffset + 3 ] & 0xff;
+  }
+
+  /**
+   * Returns the largest difference between a channel of the two pixels.
+   */
+  private static int getDifference( int aPixel1, int aPixel2 ) {
+    int difference = 0;
+    for ( int shift = 0; shift < 32; shift += 8 ) {
+      difference = Math.max( difference, Math.abs( ( aPixel1 >>> shift & 0xff ) - ( aPixel2 >>> shift & 0xff ) ) );
+    }
+    return difference;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.util.Arrays;
+
+/**
+ * The statistics that libwebp collected while encoding an image, together with the time spent in
+ * each stage of the encode. See {@link WebPWriteParam#setEncodeResultListener(Listener)}.
+ * <p/>
+ * Times are in nanoseconds. The extract time is spent in Java, converting and scanning the pixels
+ * of images that can not be passed to the encoder as they are. The import time is spent importing the pixels into
+ * a native picture, or copying that picture for a trial encode. The output time is spent copying
+ * the encoded data into a Java array; when the data is written to a stream while encoding, that
+ * time is part of the encode time.
+ * <p/>
+ * For a trial encode, the statistics are those of the trial that was kept, and the import time
+ * includes the extraction of the pixels.
+ */
+public final class WebPEncodeResult {
+  /**
+   * Receives the result of every image that is encoded with a write param, on the thread that
+   * encoded it.
+   */
+  public interface Listener {
+    void imageEncoded( WebPEncodeResult aResult );
+  }
+
+  /**
+   * The lossless features that were used, see {@link #getLosslessFeatures()}.
+   */
+  public static final int LOSSLESS_PREDICTION = 1;
+  public static final int LOSSLESS_CROSS_COLOR = 2;
+  public static final int LOSSLESS_SUBTRACT_GREEN = 4;
+  public static final int LOSSLESS_PALETTE = 8;
+
+  // The number of statistics filled in by the native encoder, and their positions.
+  static final int STATS_SIZE = 41;
+  private static final int CODED_SIZE = 0;
+  private static final int BLOCK_COUNT = 1;
+  private static final int HEADER_BYTES = 4;
+  private static final int RESIDUAL_BYTES = 6;
+  private static final int SEGMENT_SIZE = 18;
+  private static final int SEGMENT_QUANT = 22;
+  private static final int SEGMENT_LEVEL = 26;
+  private static final int ALPHA_DATA_SIZE = 30;
+  private static final int LAYER_DATA_SIZE = 31;
+  private static final int LOSSLESS_FEATURES = 32;
+  private static final int HISTOGRAM_BITS = 33;
+  private static final int TRANSFORM_BITS = 34;
+  private static final int CACHE_BITS = 35;
+  private static final int PALETTE_SIZE = 36;
+  private static final int LOSSLESS_SIZE = 37;
+  private static final int IMPORT_TIME = 38;
+  private static final int ENCODE_TIME = 39;
+  private static final int OUTPUT_TIME = 40;
+
+  private final float[] fPSNR;
+  private final long[] fStats;
+  private final long fExtractTime;
+
+  /**
+   * @param aPSNR        the PSNR values, as filled in by the native encoder.
+   * @param aStats       the other statistics, as filled in by the native encoder.
+   * @param aExtractTime the time spent converting the pixels in Java.
+   * @param aImportTime  the time spent importing the pixels, for an encode that did not import them
+   *                     itself.
+   */
+  WebPEncodeResult( float[] aPSNR, long[] aStats, long aExtractTime, long aImportTime ) {
+    fPSNR = aPSNR;
+    fStats = aStats;
+    fExtractTime = aExtractTime;
+    fStats[ IMPORT_TIME ] += aImportTime;
+  }
+
+  /**
+   * @return the size of the encoded image, in bytes.
+   */
+  public int getCodedSize() {
+    return ( int ) fStats[ CODED_SIZE ];
+  }
+
+  /**
+   * @return the peak signal to noise ratios of the Y, U and V channels, of all channels together,
+   * and of the alpha channel, in dB.
+   */
+  public float[] getPSNR() {
+    return fPSNR.clone();
+  }
+
+  /**
+   * @return the number of intra 4x4, intra 16x16 and skipped macroblocks of a lossy encode.
+   */
+  public int[] getBlockCounts() {
+    return getInts( BLOCK_COUNT, 3 );
+  }
+
+  /**
+   * @return the size of the frame header and of the first partition, in bytes.
+   */
+  public int[] getHeaderBytes() {
+    return getInts( HEADER_BYTES, 2 );
+  }
+
+  /**
+   * @param aType 0 for DC, 1 for AC and 2 for UV coefficients.
+   * @return the size of the coefficients of the given type in each of the four segments, in bytes.
+   */
+  public int[] getResidualBytes( int aType ) {
+    if ( aType < 0 || aType > 2 ) {
+      throw new IllegalArgumentException( "Type must be between 0 and 2: " + aType );
+    }
+    return getInts( RESIDUAL_BYTES + 4 * aType, 4 );
+  }
+
+  /**
+   * @return the number of macroblocks in each segment.
+   */
+  public int[] getSegmentSizes() {
+    return getInts( SEGMENT_SIZE, 4 );
+  }
+
+  /**
+   * @return the quantizer of each segment.
+   */
+  public int[] getSegmentQuantizers() {
+    return getInts( SEGMENT_QUANT, 4 );
+  }
+
+  /**
+   * @return the filtering strength of each segment, between 0 and 63.
+   */
+  public int[] getSegmentFilterLevels() {
+    return getInts( SEGMENT_LEVEL, 4 );
+  }
+
+  public int getAlphaDataSize() {
+    return ( int ) fStats[ ALPHA_DATA_SIZE ];
+  }
+
+  public int getLayerDataSize() {
+    return ( int ) fStats[ LAYER_DATA_SIZE ];
+  }
+
+  /**
+   * @return the lossless features that were used, as a combination of the LOSSLESS_ constants.
+   */
+  public int getLosslessFeatures() {
+    return ( int ) fStats[ LOSSLESS_FEATURES ];
+  }
+
+  public int getHistogramBits() {
+    return ( int ) fStats[ HISTOGRAM_BITS ];
+  }
+
+  public int getTransformBits() {
+    return ( int ) fStats[ TRANSFORM_BITS ];
+  }
+
+  public int getCacheBits() {
+    return ( int ) fStats[ CACHE_BITS ];
+  }
+
+  /**
+   * @return the number of colours in the palette of a lossless encode, or 0 if it has no palette.
+   */
+  public int getPaletteSize() {
+    return ( int ) fStats[ PALETTE_SIZE ];
+  }
+
+  /**
+   * @return the size of the compressed data of a lossless encode, in bytes.
+   */
+  public int getLosslessSize() {
+    return ( int ) fStats[ LOSSLESS_SIZE ];
+  }
+
+  public long getExtractTime() {
+    return fExtractTime;
+  }
+
+  public long getImportTime() {
+    return fStats[ IMPORT_TIME ];
+  }
+
+  public long getEncodeTime() {
+    return fStats[ ENCODE_TIME ];
+  }
+
+  public long getOutputTime() {
+    return fStats[ OUTPUT_TIME ];
+  }
+
+  /**
+   * @return the time spent in all stages of the encode.
+   */
+  public long getTotalTime() {
+    return fExtractTime + getImportTime() + getEncodeTime() + getOutputTime();
+  }
+
+  private int[] getInts( int aOffset, int aLength ) {
+    int[] result = new int[ aLength ];
+    for ( int i = 0; i < aLength; i++ ) {
+      result[ i ] = ( int ) fStats[ aOffset + i ];
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "WebPEncodeResult{codedSize=" + getCodedSize() + ", PSNR=" + Arrays.toString( fPSNR ) +
+           ", extractTime=" + fExtractTime + ", importTime=" + getImportTime() +
+           ", encodeTime=" + getEncodeTime() + ", outputTime=" + getOutputTime() + "}";
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The bitstream features of a WebP file, as read from its RIFF/VP8/VP8L/VP8X header. Probing
+ * only reads the header of the file and does not decode any pixels.
+ */
+public final class WebPFeatures {
+  /**
+   * The number of bytes that is read initially when probing a stream. This covers the header of
+   * all simple files; files with large metadata chunks in front of the image data are read further
+   * as needed.
+   */
+  private static final int PROBE_SIZE = 64;
+
+  public enum Format {
+    /**
+     * The format is undefined, or differs between the frames of an animation.
+     */
+    MIXED,
+    LOSSY,
+    LOSSLESS;
+
+    private static final Format[] VALUES = values();
+
+    static Format getFormat( int aValue ) {
+      if ( aValue >= 0 && aValue < VALUES.length ) {
+        return VALUES[ aValue ];
+      }
+      else {
+        return MIXED;
+      }
+    }
+  }
+
+  private final int fWidth;
+  private final int fHeight;
+  private final boolean fAlpha;
+  private final boolean fAnimation;
+  private final Format fFormat;
+
+  WebPFeatures( int aWidth, int aHeight, boolean aAlpha, boolean aAnimation, Format aFormat ) {
+    fWidth = aWidth;
+    fHeight = aHeight;
+    fAlpha = aAlpha;
+    fAnimation = aAnimation;
+    fFormat = aFormat;
+  }
+
+  public static WebPFeatures probe( byte[] aData ) throws IOException {
+    return probe( aData, 0, aData.length );
+  }
+
+  public static WebPFeatures probe( byte[] aData, int aOffset, int aLength ) throws IOException {
+    WebPFeatures features = WebP.getFeatures( aData, aOffset, aLength );
+    if ( features == null ) {
+      throw new IOException( "Incomplete WebP header" );
+    }
+    return features;
+  }
+
+  /**
+   * Probes the remaining bytes of the buffer. The position of the buffer is not changed.
+   */
+  public static WebPFeatures probe( ByteBuffer aBuffer ) throws IOException {
+    if ( aBuffer.hasArray() ) {
+      return probe( aBuffer.array(), aBuffer.arrayOffset() + aBuffer.position(), aBuffer.remaining() );
+    }
+
+    int remaining = aBuffer.remaining();
+    int length = Math.min( PROBE_SIZE, remaining );
+    while ( true ) {
+      byte[] header = new byte[ length ];
+      ByteBuffer duplicate = aBuffer.duplicate();
+      duplicate.get( header );
+      WebPFeatures features = WebP.getFeatures( header, 0, length );
+      if ( features != null ) {
+        return features;
+      }
+      if ( length == remaining ) {
+        throw new IOException( "Incomplete WebP header" );
+      }
+      length = ( int ) Math.min( length * 2L, remaining );
+    }
+  }
+
+  /**
+   * Probes the stream starting from its current position. The position of the stream is restored
+   * afterwards.
+   */
+  public static WebPFeatures probe( ImageInputStream aStream ) throws IOException {
+    aStream.mark();
+    try {
+      byte[] header = new byte[ PROBE_SIZE ];
+      int length = 0;
+      while ( true ) {
+        int bytesRead = aStream.read( header, length, header.length - length );
+        if ( bytesRead == -1 ) {
+          throw new IOException( "Incomplete WebP header" );
+        }
+        length += bytesRead;
+
+        WebPFeatures features = WebP.getFeatures( header, 0, length );
+        if ( features != null ) {
+          return features;
+        }
+        if ( length == header.length ) {
+          header = Arrays.copyOf( header, header.length * 2 );
+        }
+      }
+    } finally {
+      aStream.reset();
+    }
+  }
+
+  /**
+   * @return the width of the image, or of the canvas for animations.
+   */
+  public int getWidth() {
+    return fWidth;
+  }
+
+  /**
+   * @return the height of the image, or of the canvas for animations.
+   */
+  public int getHeight() {
+    return fHeight;
+  }
+
+  public boolean hasAlpha() {
+    return fAlpha;
+  }
+
+  public boolean hasAnimation() {
+    return fAnimation;
+  }
+
+  public Format getFormat() {
+    return fFormat;
+  }
+
+  public boolean isLossless() {
+    return fFormat == Format.LOSSLESS;
+  }
+
+  @Override
+  public String toString() {
+    return "WebPFeatures[" + fWidth + "x" + fHeight +
+           ", alpha=" + fAlpha +
+           ", animation=" + fAnimation +
+           ", format=" + fFormat + "]";
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits a Java Flight Recorder event for every decode and encode, named
+ * {@code com.luciad.imageio.webp.Decode} and {@code com.luciad.imageio.webp.Encode}.
+ * <p/>
+ * The codec runs on Java versions without Flight Recorder, so the event types are defined at run
+ * time through {@code jdk.jfr.EventFactory}, which is looked up by reflection. Without Flight
+ * Recorder, or while no recording has the events enabled, beginning an event returns {@code null}
+ * after a single check, and nothing is recorded.
+ */
+final class WebPFlightRecorder {
+  // The positions of the fields of the decode event.
+  static final int DECODE_WIDTH = 0;
+  static final int DECODE_HEIGHT = 1;
+  static final int DECODE_BYTES_IN = 2;
+  static final int DECODE_BYTES_OUT = 3;
+  static final int DECODE_ALPHA = 4;
+  static final int DECODE_CROPPING = 5;
+  static final int DECODE_SCALING = 6;
+  static final int DECODE_NATIVE_TIME = 7;
+
+  // The positions of the fields of the encode event.
+  static final int ENCODE_WIDTH = 0;
+  static final int ENCODE_HEIGHT = 1;
+  static final int ENCODE_SCALED_WIDTH = 2;
+  static final int ENCODE_SCALED_HEIGHT = 3;
+  static final int ENCODE_BYTES_IN = 4;
+  static final int ENCODE_BYTES_OUT = 5;
+  static final int ENCODE_ALPHA = 6;
+  static final int ENCODE_LOSSLESS = 7;
+  static final int ENCODE_EXTRACTION = 8;
+  static final int ENCODE_EXTRACT_TIME = 9;
+  static final int ENCODE_NATIVE_TIME = 10;
+
+  private static final EventType DECODE = EventType.create(
+      "com.luciad.imageio.webp.Decode", "WebP Decode",
+      new Object[]{
+          int.class, "width", "Width", null,
+          int.class, "height", "Height", null,
+          long.class, "bytesIn", "Bytes In", "BYTES",
+          long.class, "bytesOut", "Bytes Out", "BYTES",
+          boolean.class, "alpha", "Alpha", null,
+          boolean.class, "cropping", "Cropping", null,
+          boolean.class, "scaling", "Scaling", null,
+          long.class, "nativeTime", "Native Time", "NANOSECONDS"
+      } );
+
+  private static final EventType ENCODE = EventType.create(
+      "com.luciad.imageio.webp.Encode", "WebP Encode",
+      new Object[]{
+          int.class, "width", "Width", null,
+          int.class, "height", "Height", null,
+          int.class, "scaledWidth", "Scaled Width", null,
+          int.class, "scaledHeight", "Scaled Height", null,
+          long.class, "bytesIn", "Bytes In", "BYTES",
+          long.class, "bytesOut", "Bytes Out", "BYTES",
+          boolean.class, "alpha", "Alpha", null,
+          boolean.class, "lossless", "Lossless", null,
+          String.class, "extraction", "Pixel Extraction", null,
+          long.class, "extractTime", "Extract Time", "NANOSECONDS",
+          long.class, "nativeTime", "Native Time", "NANOSECONDS"
+      } );
+
+  private WebPFlightRecorder() {
+  }
+
+  /**
+   * @return a decode event that has begun, or {@code null} if it would not be recorded.
+   */
+  static Object beginDecode() {
+    return DECODE != null ? DECODE.begin() : null;
+  }
+
+  /**
+   * @return an encode event that has begun, or {@code null} if it would not be recorded.
+   */
+  static Object beginEncode() {
+    return ENCODE != null ? ENCODE.begin() : null;
+  }
+
+  /**
+   * Sets a field of an event that was returned by {@link #beginDecode()} or
+   * {@link #beginEncode()}. The value must have the type of the field.
+   */
+  static void set( Object aEvent, int aField, Object aValue ) {
+    EventType.invoke( EventType.sSet, aEvent, aField, aValue );
+  }
+
+  /**
+   * Ends the event and records it.
+   */
+  static void commit( Object aEvent ) {
+    EventType.invoke( EventType.sEnd, aEvent );
+    EventType.invoke( EventType.sCommit, aEvent );
+  }
+
+  /**
+   * An event type created by {@code jdk.jfr.EventFactory}.
+   */
+  private static final class EventType {
+    static Method sNewEvent;
+    static Method sIsEnabled;
+    static Method sBegin;
+    static Method sEnd;
+    static Method sCommit;
+    static Method sSet;
+
+    private final Object fFactory;
+    // An event that is never committed, to check whether the type is enabled without creating one.
+    private final Object fProbe;
+
+    private EventType( Object aFactory ) throws Exception {
+      fFactory = aFactory;
+      fProbe = sNewEvent.invoke( aFactory );
+    }
+
+    /**
+     * @param aFields the type, name, label and unit, or {@code null}, of each field.
+     * @return the event type, or {@code null} if Flight Recorder is not available.
+     */
+    static EventType create( String aName, String aLabel, Object[] aFields ) {
+      try {
+        Class<?> annotationElement = Class.forName( "jdk.jfr.AnnotationElement" );
+        Class<?> eventFactory = Class.forName( "jdk.jfr.EventFactory" );
+        Class<?> event = Class.forName( "jdk.jfr.Event" );
+        Constructor<?> newAnnotation = annotationElement.getConstructor( Class.class, Object.class );
+        Constructor<?> newField = Class.forName( "jdk.jfr.ValueDescriptor" ).getConstructor( Class.class, String.class, List.class );
+        Class<?> label = Class.forName( "jdk.jfr.Label" );
+        Class<?> timespan = Class.forName( "jdk.jfr.Timespan" );
+        Class<?> dataAmount = Class.forName( "jdk.jfr.DataAmount" );
+
+        List<Object> fields = new ArrayList<Object>();
+        for ( int i = 0; i < aFields.length; i += 4 ) {
+          List<Object> annotations = new ArrayList<Object>();
+          annotations.add( newAnnotation.newInstance( label, aFields[ i + 2 ] ) );
+          String unit = ( String ) aFields[ i + 3 ];
+          if ( unit != null ) {
+            annotations.add( newAnnotation.newInstance( "BYTES".equals( unit ) ? dataAmount : timespan, unit ) );
+          }
+          fields.add( newField.newInstance( aFields[ i ], aFields[ i + 1 ], annotations ) );
+        }
+        List<Object> annotations = Arrays.asList(
+            newAnnotation.newInstance( Class.forName( "jdk.jfr.Name" ), aName ),
+            newAnnotation.newInstance( label, aLabel ),
+            newAnnotation.newInstance( Class.forName( "jdk.jfr.Category" ), new String[]{ "WebP" } ) );
+
+        // Both types are created while this class is initialized, so the methods are shared safely.
+        sIsEnabled = event.getMethod( "isEnabled" );
+        sBegin = event.getMethod( "begin" );
+        sEnd = event.getMethod( "end" );
+        sCommit = event.getMethod( "commit" );
+        sSet = event.getMethod( "set", int.class, Object.class );
+        sNewEvent = eventFactory.getMethod( "newEvent" );
+        Method create = eventFactory.getMethod( "create", List.class, List.class );
+        return new EventType( create.invoke( null, annotations, fields ) );
+      } catch ( Exception e ) {
+        return null;
+      } catch ( LinkageError e ) {
+        return null;
+      }
+    }
+
+    Object begin() {
+      if ( !Boolean.TRUE.equals( invoke( sIsEnabled, fProbe ) ) ) {
+        return null;
+      }
+      Object event = invoke( sNewEvent, fFactory );
+      if ( event != null ) {
+        invoke( sBegin, event );
+      }
+      return event;
+    }
+
+    /**
+     * Failures are ignored, as recording an event should never make a decode or encode fail.
+     */
+    static Object invoke( Method aMethod, Object aTarget, Object... aArguments ) {
+      try {
+        return aMethod.invoke( aTarget, aArguments );
+      } catch ( Exception e ) {
+        return null;
+      }
+    }
+  }
+}
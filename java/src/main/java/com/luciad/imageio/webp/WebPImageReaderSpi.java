@@ -18,8 +18,12 @@ package com.luciad.imageio.webp;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -31,6 +35,7 @@ public class WebPImageReaderSpi extends ImageReaderSpi {
   private static final byte[] WEBP = new byte[]{ 'W', 'E', 'B', 'P' };
   private static final byte[] VP8_ = new byte[]{ 'V', 'P', '8', ' ' };
   private static final byte[] VP8X = new byte[]{ 'V', 'P', '8', 'X' };
+  private static final int HEADER_SIZE = 16;
 
   public WebPImageReaderSpi() {
     super(
@@ -40,7 +45,7 @@ public class WebPImageReaderSpi extends ImageReaderSpi {
         new String[]{ "webp" },
         new String[]{ "image/webp" },
         WebPReader.class.getName(),
-        new Class[] { ImageInputStream.class },
+        new Class[] { ImageInputStream.class, File.class, FileChannel.class },
         new String[]{ WebPImageWriterSpi.class.getName() },
         false,
         null,
@@ -62,41 +67,77 @@ public class WebPImageReaderSpi extends ImageReaderSpi {
 
   @Override
   public boolean canDecodeInput( Object source ) throws IOException {
-    if ( !( source instanceof ImageInputStream ) ) {
-      return false;
+    if ( source instanceof ImageInputStream ) {
+      return canDecodeInput( ( ImageInputStream ) source );
     }
-
-    ImageInputStream stream = ( ImageInputStream ) source;
-    byte[] b = new byte[ 4 ];
-    ByteOrder oldByteOrder = stream.getByteOrder();
-    stream.mark();
-    stream.setByteOrder( ByteOrder.LITTLE_ENDIAN );
-
-    try {
-      stream.readFully( b );
-      if ( !Arrays.equals( b, RIFF ) ) {
+    else if ( source instanceof File ) {
+      File file = ( File ) source;
+      if ( !file.isFile() ) {
         return false;
       }
-      long chunkLength = stream.readUnsignedInt();
-      long streamLength = stream.length();
-      if ( streamLength != -1 && streamLength != chunkLength + 8 ) {
-        return false;
-      }
-      stream.readFully( b );
-      if ( !Arrays.equals( b, WEBP ) ) {
-        return false;
+      RandomAccessFile randomAccessFile = new RandomAccessFile( file, "r" );
+      try {
+        return canDecodeInput( randomAccessFile.getChannel() );
+      } finally {
+        randomAccessFile.close();
       }
+    }
+    else if ( source instanceof FileChannel ) {
+      return canDecodeInput( ( FileChannel ) source );
+    }
+    return false;
+  }
 
-      stream.readFully( b );
-      if ( !Arrays.equals( b, VP8_ ) && !Arrays.equals( b, VP8X ) ) {
-        return false;
+  private static boolean canDecodeInput( ImageInputStream stream ) throws IOException {
+    byte[] header = new byte[ HEADER_SIZE ];
+    stream.mark();
+    try {
+      int length = 0;
+      int bytesRead;
+      while ( length < HEADER_SIZE && ( bytesRead = stream.read( header, length, HEADER_SIZE - length ) ) != -1 ) {
+        length += bytesRead;
       }
+      return length == HEADER_SIZE && isWebPHeader( header, stream.length() );
     } finally {
-      stream.setByteOrder( oldByteOrder );
       stream.reset();
     }
+  }
+
+  /**
+   * Checks the header at the current position of the channel, without changing that position.
+   */
+  private static boolean canDecodeInput( FileChannel channel ) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+    long position = channel.position();
+    while ( header.hasRemaining() ) {
+      if ( channel.read( header, position + header.position() ) == -1 ) {
+        return false;
+      }
+    }
+    return isWebPHeader( header.array(), channel.size() - position );
+  }
+
+  /**
+   * @param length the length of the input, or -1 if unknown.
+   */
+  private static boolean isWebPHeader( byte[] header, long length ) {
+    ByteBuffer buffer = ByteBuffer.wrap( header ).order( ByteOrder.LITTLE_ENDIAN );
+    byte[] b = new byte[ 4 ];
+    buffer.get( b );
+    if ( !Arrays.equals( b, RIFF ) ) {
+      return false;
+    }
+    long chunkLength = buffer.getInt() & 0xffffffffL;
+    if ( length != -1 && length != chunkLength + 8 ) {
+      return false;
+    }
+    buffer.get( b );
+    if ( !Arrays.equals( b, WEBP ) ) {
+      return false;
+    }
 
-    return true;
+    buffer.get( b );
+    return Arrays.equals( b, VP8_ ) || Arrays.equals( b, VP8X );
   }
 
   @Override
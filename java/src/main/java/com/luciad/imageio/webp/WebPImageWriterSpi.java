@@ -28,6 +28,8 @@ import java.awt.image.DirectColorModel;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 
 /**
@@ -42,7 +44,7 @@ public class WebPImageWriterSpi extends ImageWriterSpi {
         new String[]{ "webp" },
         new String[]{ "image/webp" },
         WebPReader.class.getName(),
-        new Class[]{ ImageOutputStream.class },
+        new Class[]{ ImageOutputStream.class, OutputStream.class, WritableByteChannel.class },
         new String[]{ WebPImageReaderSpi.class.getName() },
         false,
         null,
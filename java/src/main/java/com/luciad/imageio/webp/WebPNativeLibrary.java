@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+
+/**
+ * Loads the native library, from the jar if it contains one for the current platform, and
+ * otherwise from {@code java.library.path}.
+ * <p/>
+ * A bundled library is extracted to a directory named after the SHA-256 hash of its contents, in
+ * the directory given by the {@code com.luciad.imageio.webp.cacheDir} system property, or else
+ * in the temporary directory. Later processes find it there and load it without writing it again,
+ * after checking that its contents are unchanged, and different versions of the library never
+ * overwrite each other. The cache directory must belong to the current user. The library is only
+ * loaded when a codec is first used, not when the image reader and writer are registered.
+ */
+final class WebPNativeLibrary {
+  private static final String NAME = "webp-imageio";
+  private static final String CACHE_DIR_PROPERTY = "com.luciad.imageio.webp.cacheDir";
+
+  private WebPNativeLibrary() {
+  }
+
+  static void load() {
+    String resource = getResource();
+    IOException extractFailure = null;
+    if ( resource != null ) {
+      try {
+        File library = extract( resource );
+        if ( library != null ) {
+          System.load( library.getAbsolutePath() );
+          return;
+        }
+      } catch ( IOException e ) {
+        extractFailure = e;
+      }
+    }
+    try {
+      System.loadLibrary( NAME );
+    } catch ( UnsatisfiedLinkError e ) {
+      if ( extractFailure == null ) {
+        throw e;
+      }
+      UnsatisfiedLinkError error = new UnsatisfiedLinkError( e.getMessage() + ", and the bundled library could not be extracted: " + extractFailure.getMessage() );
+      error.initCause( extractFailure );
+      throw error;
+    }
+  }
+
+  /**
+   * @return the path of the bundled library for the current platform, or {@code null} if libraries
+   * are only bundled for other platforms.
+   */
+  private static String getResource() {
+    String os = System.getProperty( "os.name" );
+    if ( os == null || !os.startsWith( "Linux" ) ) {
+      return null;
+    }
+    return "native/linux-" + System.getProperty( "os.arch" ) + "/" + System.mapLibraryName( NAME );
+  }
+
+  /**
+   * @return the extracted library, or {@code null} if the jar does not contain it.
+   */
+  private static File extract( String aResource ) throws IOException {
+    byte[] contents = read( aResource );
+    if ( contents == null ) {
+      return null;
+    }
+    return extract( contents );
+  }
+
+  /**
+   * Writes {@code aContents} to the cache directory, unless an identical library is already there.
+   * An existing file with different contents is replaced, so a damaged or tampered library is never
+   * loaded.
+   *
+   * @return the extracted library.
+   */
+  static File extract( byte[] aContents ) throws IOException {
+    File directory = new File( getCacheDirectory(), NAME + "-" + hash( aContents ) );
+    File library = new File( directory, System.mapLibraryName( NAME ) );
+    if ( contains( library, aContents ) ) {
+      return library;
+    }
+    if ( !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+      throw new IOException( "Could not create " + directory );
+    }
+
+    // Write to a temporary file first, so that a concurrent process never loads a partial library.
+    File temporary = File.createTempFile( NAME, ".tmp", directory );
+    try {
+      OutputStream out = new FileOutputStream( temporary );
+      try {
+        out.write( aContents );
+      } finally {
+        out.close();
+      }
+      if ( !temporary.renameTo( library ) ) {
+        // Another process may have written the library in the meantime, or the existing file can
+        // not be replaced in place.
+        if ( !contains( library, aContents ) && !( library.delete() && temporary.renameTo( library ) ) ) {
+          throw new IOException( "Could not create " + library );
+        }
+      }
+    } finally {
+      temporary.delete();
+    }
+    if ( !contains( library, aContents ) ) {
+      throw new IOException( library + " was modified while it was being extracted" );
+    }
+    return library;
+  }
+
+  /**
+   * @return the cache directory, created so that only the current user can access it.
+   * @throws IOException if the directory can not be created, or belongs to another user.
+   */
+  private static File getCacheDirectory() throws IOException {
+    String cacheDir = System.getProperty( CACHE_DIR_PROPERTY );
+    File directory = cacheDir != null ? new File( cacheDir ) : new File( System.getProperty( "java.io.tmpdir" ), NAME + "-" + System.getProperty( "user.name" ) );
+    if ( !directory.isDirectory() ) {
+      if ( !directory.mkdirs() && !directory.isDirectory() ) {
+        throw new IOException( "Could not create " + directory );
+      }
+      directory.setReadable( false, false );
+      directory.setWritable( false, false );
+      directory.setExecutable( false, false );
+      directory.setReadable( true, true );
+      directory.setWritable( true, true );
+      directory.setExecutable( true, true );
+    }
+    String owner = getOwner( directory );
+    if ( owner != null && !owner.equals( System.getProperty( "user.name" ) ) ) {
+      throw new IOException( directory + " belongs to " + owner + " instead of the current user" );
+    }
+    return directory;
+  }
+
+  /**
+   * Looks up the owner of a file reflectively, since {@code java.nio.file} is not available on all
+   * supported Java versions.
+   *
+   * @return the name of the owner, or {@code null} if it can not be determined.
+   */
+  private static String getOwner( File aFile ) {
+    try {
+      Class<?> pathClass = Class.forName( "java.nio.file.Path" );
+      Class<?> linkOptionClass = Class.forName( "java.nio.file.LinkOption" );
+      Object noLinkOptions = Array.newInstance( linkOptionClass, 0 );
+      Object path = File.class.getMethod( "toPath" ).invoke( aFile );
+      Object owner = Class.forName( "java.nio.file.Files" ).getMethod( "getOwner", pathClass, noLinkOptions.getClass() ).invoke( null, path, noLinkOptions );
+      return ( ( Principal ) owner ).getName();
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+
+  /**
+   * @return {@code true} if {@code aFile} exists and holds exactly {@code aContents}.
+   */
+  private static boolean contains( File aFile, byte[] aContents ) throws IOException {
+    if ( !aFile.isFile() || aFile.length() != aContents.length ) {
+      return false;
+    }
+    InputStream in = new FileInputStream( aFile );
+    try {
+      byte[] buffer = new byte[ 64 * 1024 ];
+      int offset = 0;
+      int read;
+      while ( ( read = in.read( buffer ) ) != -1 ) {
+        if ( offset + read > aContents.length ) {
+          return false;
+        }
+        for ( int i = 0; i < read; i++ ) {
+          if ( buffer[ i ] != aContents[ offset + i ] ) {
+            return false;
+          }
+        }
+        offset += read;
+      }
+      return offset == aContents.length;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] read( String aResource ) throws IOException {
+    InputStream in = WebPNativeLibrary.class.getResourceAsStream( aResource );
+    if ( in == null ) {
+      return null;
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[ 64 * 1024 ];
+      int read;
+      while ( ( read = in.read( buffer ) ) != -1 ) {
+        out.write( buffer, 0, read );
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String hash( byte[] aContents ) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IOException( "SHA-256 is not available", e );
+    }
+    StringBuilder hash = new StringBuilder();
+    for ( byte b : digest.digest( aContents ) ) {
+      hash.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+    }
+    return hash.toString();
+  }
+}
@@ -16,185 +16,193 @@
 package com.luciad.imageio.webp;
 
 import javax.imageio.ImageReadParam;
+import java.io.Closeable;
 
-public final class WebPReadParam extends ImageReadParam {
+/**
+ * The decoder options of a read. A read param can be reused for any number of reads, one at a
+ * time. The options are kept in Java, so reading and setting them does not call into native code,
+ * and every decode fills its own native options from them.
+ */
+public final class WebPReadParam extends ImageReadParam implements Closeable {
   static {
     WebP.loadNativeLibrary();
   }
 
-  long fPointer;
+  // The positions of the WebPDecoderOptions fields in the packed options.
+  private static final int BYPASS_FILTERING = 0;
+  private static final int NO_FANCY_UPSAMPLING = 1;
+  private static final int USE_CROPPING = 2;
+  private static final int CROP_LEFT = 3;
+  private static final int CROP_TOP = 4;
+  private static final int CROP_WIDTH = 5;
+  private static final int CROP_HEIGHT = 6;
+  private static final int USE_SCALING = 7;
+  private static final int SCALED_WIDTH = 8;
+  private static final int SCALED_HEIGHT = 9;
+  private static final int USE_THREADS = 10;
+  private static final int FORCE_ROTATION = 11;
+  private static final int NO_ENHANCEMENT = 12;
+  private static final int OPTIONS_SIZE = 13;
+
+  // The options are never modified in place, so they can be read without locking. Every setter
+  // replaces them, and every decode copies the ones it read into native options of its own in a
+  // single call.
+  private volatile int[] fOptions;
+  private volatile boolean fClosed;
+  private boolean fPinFree = WebP.PIN_FREE;
 
   public WebPReadParam() {
-    fPointer = createDecoderOptions();
-    if ( fPointer == 0 ) {
-      throw new OutOfMemoryError();
-    }
+    int[] options = new int[ OPTIONS_SIZE ];
+    getDefaultOptions( options );
+    fOptions = options;
   }
 
+  /**
+   * The read param can no longer be used afterwards. It holds no native memory, so decodes that
+   * are still running are not affected.
+   */
   @Override
-  protected void finalize() throws Throwable {
-    super.finalize();
-    deleteDecoderOptions( fPointer );
-    fPointer = 0L;
+  public void close() {
+    fClosed = true;
+  }
+
+  /**
+   * @return the packed decoder options to decode with, which are never modified.
+   */
+  int[] getOptions() {
+    if ( fClosed ) {
+      throw new IllegalStateException( "Read param has been closed" );
+    }
+    return fOptions;
+  }
+
+  public boolean isPinFree() {
+    return fPinFree;
+  }
+
+  /**
+   * Sets whether Java arrays are never pinned while the native code works on them. By default, the
+   * decoder pins the data and pixel arrays for the whole decode, so garbage collectors that can
+   * not pin a region have to wait for it. When set, the image is decoded into a native buffer from
+   * data that is passed in chunks, and copied into the pixel array row by row. The default is
+   * taken from the {@code com.luciad.imageio.webp.pinFree} system property.
+   */
+  public void setPinFree( boolean aPinFree ) {
+    fPinFree = aPinFree;
   }
 
   public int getCropHeight() {
-    return getCropHeight( fPointer );
+    return fOptions[ CROP_HEIGHT ];
   }
 
   public void setCropHeight( int aCropHeight ) {
-    setCropHeight( fPointer, aCropHeight );
+    set( CROP_HEIGHT, aCropHeight );
   }
 
   public int getCropLeft() {
-    return getCropLeft( fPointer );
+    return fOptions[ CROP_LEFT ];
   }
 
   public void setCropLeft( int aCropLeft ) {
-    setCropLeft( fPointer, aCropLeft );
+    set( CROP_LEFT, aCropLeft );
   }
 
   public int getCropTop() {
-    return getCropTop( fPointer );
+    return fOptions[ CROP_TOP ];
   }
 
   public void setCropTop( int aCropTop ) {
-    setCropTop( fPointer, aCropTop );
+    set( CROP_TOP, aCropTop );
   }
 
   public int getCropWidth() {
-    return getCropWidth( fPointer );
+    return fOptions[ CROP_WIDTH ];
   }
 
   public void setCropWidth( int aCropWidth ) {
-    setCropWidth( fPointer, aCropWidth );
+    set( CROP_WIDTH, aCropWidth );
   }
 
   public boolean isForceRotation() {
-    return isForceRotation( fPointer );
+    return fOptions[ FORCE_ROTATION ] != 0;
   }
 
   public void setForceRotation( boolean aForceRotation ) {
-    setForceRotation( fPointer, aForceRotation );
+    set( FORCE_ROTATION, aForceRotation ? 1 : 0 );
   }
 
   public boolean isEnhancement() {
-    return !isNoEnhancement( fPointer );
+    return fOptions[ NO_ENHANCEMENT ] == 0;
   }
 
   public void setEnhancement( boolean aEnhancement ) {
-    setNoEnhancement( fPointer, !aEnhancement );
+    set( NO_ENHANCEMENT, aEnhancement ? 0 : 1 );
   }
 
   public boolean isFancyUpsampling() {
-    return !isNoFancyUpsampling( fPointer );
+    return fOptions[ NO_FANCY_UPSAMPLING ] == 0;
   }
 
   public void setFancyUpsampling( boolean aFancyUpsampling ) {
-    setNoFancyUpsampling( fPointer, !aFancyUpsampling );
+    set( NO_FANCY_UPSAMPLING, aFancyUpsampling ? 0 : 1 );
   }
 
   public int getScaledHeight() {
-    return getScaledHeight( fPointer );
+    return fOptions[ SCALED_HEIGHT ];
   }
 
   public void setScaledHeight( int aScaledHeight ) {
-    setScaledHeight( fPointer, aScaledHeight );
+    set( SCALED_HEIGHT, aScaledHeight );
   }
 
   public int getScaledWidth() {
-    return getScaledWidth( fPointer );
+    return fOptions[ SCALED_WIDTH ];
   }
 
   public void setScaledWidth( int aScaledWidth ) {
-    setScaledWidth( fPointer, aScaledWidth );
+    set( SCALED_WIDTH, aScaledWidth );
   }
 
   public boolean isUseCropping() {
-    return isUseCropping( fPointer );
+    return fOptions[ USE_CROPPING ] != 0;
   }
 
   public void setUseCropping( boolean aUseCropping ) {
-    setUseCropping( fPointer, aUseCropping );
+    set( USE_CROPPING, aUseCropping ? 1 : 0 );
   }
 
   public boolean isUseScaling() {
-    return isUseScaling( fPointer );
+    return fOptions[ USE_SCALING ] != 0;
   }
 
   public void setUseScaling( boolean aUseScaling ) {
-    setUseScaling( fPointer, aUseScaling );
+    set( USE_SCALING, aUseScaling ? 1 : 0 );
   }
 
   public boolean isUseThreads() {
-    return isUseThreads( fPointer );
+    return fOptions[ USE_THREADS ] != 0;
   }
 
   public void setUseThreads( boolean aUseThreads ) {
-    setUseThreads( fPointer, aUseThreads );
+    set( USE_THREADS, aUseThreads ? 1 : 0 );
   }
 
   public boolean isBypassFiltering() {
-    return isBypassFiltering( fPointer );
+    return fOptions[ BYPASS_FILTERING ] != 0;
   }
 
   public void setBypassFiltering( boolean aBypassFiltering ) {
-    setBypassFiltering( fPointer, aBypassFiltering );
+    set( BYPASS_FILTERING, aBypassFiltering ? 1 : 0 );
   }
 
-  private static native long createDecoderOptions();
-
-  private static native void deleteDecoderOptions( long aPointer );
-
-  private static native int getCropHeight( long aPointer );
-
-  private static native void setCropHeight( long aPointer, int aCropHeight );
-
-  private static native int getCropLeft( long aPointer );
-
-  private static native void setCropLeft( long aPointer, int aCropLeft );
-
-  private static native int getCropTop( long aPointer );
-
-  private static native void setCropTop( long aPointer, int aCropTop );
-
-  private static native int getCropWidth( long aPointer );
-
-  private static native void setCropWidth( long aPointer, int aCropWidth );
-
-  private static native boolean isForceRotation( long aPointer );
-
-  private static native void setForceRotation( long aPointer, boolean aForceRotation );
-
-  private static native boolean isNoEnhancement( long aPointer );
-
-  private static native void setNoEnhancement( long aPointer, boolean aNoEnhancement );
-
-  private static native boolean isNoFancyUpsampling( long aPointer );
-
-  private static native void setNoFancyUpsampling( long aPointer, boolean aFancyUpsampling );
-
-  private static native int getScaledHeight( long aPointer );
-
-  private static native void setScaledHeight( long aPointer, int aScaledHeight );
-
-  private static native int getScaledWidth( long aPointer );
-
-  private static native void setScaledWidth( long aPointer, int aScaledWidth );
-
-  private static native boolean isUseCropping( long aPointer );
-
-  private static native void setUseCropping( long aPointer, boolean aUseCropping );
-
-  private static native boolean isUseScaling( long aPointer );
-
-  private static native void setUseScaling( long aPointer, boolean aUseScaling );
-
-  private static native boolean isUseThreads( long aPointer );
-
-  private static native void setUseThreads( long aPointer, boolean aUseThreads );
-
-  private static native boolean isBypassFiltering( long aPointer );
+  private synchronized void set( int aPosition, int aValue ) {
+    int[] options = fOptions.clone();
+    options[ aPosition ] = aValue;
+    fOptions = options;
+  }
 
-  private static native void setBypassFiltering( long aPointer, boolean aBypassFiltering );
+  /**
+   * Fills packed decoder options with the libwebp defaults.
+   */
+  private static native void getDefaultOptions( int[] aOptions );
 }
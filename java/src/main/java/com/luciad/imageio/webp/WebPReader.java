@@ -15,22 +15,40 @@
  */
 package com.luciad.imageio.webp;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Iterator;
 
 class WebPReader extends ImageReader {
-  private byte[] fData;
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+  // Smaller files are read instead of memory mapped, since a mapping is only released when it is
+  // garbage collected.
+  private static final int MAP_THRESHOLD = 64 * 1024;
+
+  private ByteBuffer fBuffer;
+  // The direct buffer that small files are read into, reused for every input of this reader.
+  private ByteBuffer fFileBuffer;
   private int fWidth;
   private int fHeight;
+  private boolean fAlpha;
+  private boolean fAnimation;
+  private WebPAnimationDecoder fAnimationDecoder;
+  // The decoder options for reads without a WebP read param, reused until the reader is disposed.
+  private WebPReadParam fDefaultOptions;
 
   WebPReader( ImageReaderSpi originatingProvider ) {
     super( originatingProvider );
@@ -39,14 +57,44 @@ class WebPReader extends ImageReader {
   @Override
   public void setInput( Object input, boolean seekForwardOnly, boolean ignoreMetadata ) {
     super.setInput( input, seekForwardOnly, ignoreMetadata );
-    fData = null;
+    fBuffer = null;
+    fAnimationDecoder = null;
     fWidth = -1;
     fHeight = -1;
   }
 
+  @Override
+  public void dispose() {
+    if ( fDefaultOptions != null ) {
+      fDefaultOptions.close();
+      fDefaultOptions = null;
+    }
+    fBuffer = null;
+    fFileBuffer = null;
+    super.dispose();
+  }
+
+  private WebPReadParam getDefaultOptions() {
+    if ( fDefaultOptions == null ) {
+      fDefaultOptions = new WebPReadParam();
+    }
+    return fDefaultOptions;
+  }
+
+  /**
+   * Counting the frames of an animation indexes the complete file, so without {@code allowSearch}
+   * this returns -1 for an animation that has not been indexed yet.
+   */
   @Override
   public int getNumImages( boolean allowSearch ) throws IOException {
-    return 1;
+    readHeader();
+    if ( !fAnimation ) {
+      return 1;
+    }
+    if ( fAnimationDecoder == null && !allowSearch ) {
+      return -1;
+    }
+    return getAnimationDecoder().getFrameCount();
   }
 
   private void readHeader() throws IOException {
@@ -54,23 +102,119 @@ class WebPReader extends ImageReader {
       return;
     }
 
-    readData();
-    int[] info = WebP.getInfo( fData, 0, fData.length );
-    fWidth = info[ 0 ];
-    fHeight = info[ 1 ];
+    // Only the header is needed for the dimensions; avoid reading the whole file.
+    WebPFeatures features;
+    if ( isFileInput() ) {
+      features = WebPFeatures.probe( getBuffer() );
+    }
+    else {
+      features = WebPFeatures.probe( getInputStream() );
+    }
+    fWidth = features.getWidth();
+    fHeight = features.getHeight();
+    fAlpha = features.hasAlpha();
+    fAnimation = features.hasAnimation();
   }
 
-  private void readData() throws IOException {
-    if ( fData != null ) {
-      return;
+  /**
+   * The frames of an animation are indexed up front, which needs the complete file.
+   */
+  private WebPAnimationDecoder getAnimationDecoder() throws IOException {
+    if ( fAnimationDecoder == null ) {
+      fAnimationDecoder = new WebPAnimationDecoder( getBuffer() );
     }
+    return fAnimationDecoder;
+  }
 
-    ImageInputStream input = ( ImageInputStream ) getInput();
+  private boolean isFileInput() {
+    Object input = getInput();
+    return input instanceof File || input instanceof FileChannel;
+  }
+
+  /**
+   * Returns the contents of a {@code File} or {@code FileChannel} input, memory mapped unless they
+   * are smaller than {@link #MAP_THRESHOLD}, or the contents of a stream input read into a direct
+   * buffer. Channels are read from their current position, without moving it.
+   */
+  private ByteBuffer getBuffer() throws IOException {
+    if ( fBuffer != null ) {
+      return fBuffer;
+    }
+
+    Object input = getInput();
+    if ( input instanceof File ) {
+      RandomAccessFile file = new RandomAccessFile( ( File ) input, "r" );
+      try {
+        fBuffer = readFile( file.getChannel() );
+      } finally {
+        file.close();
+      }
+    }
+    else if ( input instanceof FileChannel ) {
+      fBuffer = readFile( ( FileChannel ) input );
+    }
+    else {
+      fBuffer = readFully( getInputStream() );
+    }
+    return fBuffer;
+  }
+
+  private ByteBuffer readFile( FileChannel channel ) throws IOException {
+    long position = channel.position();
+    long length = channel.size() - position;
+    if ( length > Integer.MAX_VALUE ) {
+      throw new IOException( "Cannot read image of size " + length );
+    }
+    if ( length >= MAP_THRESHOLD ) {
+      return channel.map( FileChannel.MapMode.READ_ONLY, position, length );
+    }
+
+    if ( fFileBuffer == null ) {
+      fFileBuffer = ByteBuffer.allocateDirect( MAP_THRESHOLD );
+    }
+    ByteBuffer buffer = fFileBuffer;
+    buffer.clear();
+    buffer.limit( ( int ) length );
+    int bytesRead;
+    while ( buffer.hasRemaining() && ( bytesRead = channel.read( buffer, position ) ) != -1 ) {
+      position += bytesRead;
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer readFully( ImageInputStream input ) throws IOException {
     long length = input.length();
     if ( length > Integer.MAX_VALUE ) {
       throw new IOException( "Cannot read image of size " + length );
     }
 
+    ByteBuffer buffer = ByteBuffer.allocateDirect( length >= 0 ? ( int ) length : INITIAL_BUFFER_SIZE );
+    byte[] chunk = new byte[ INITIAL_BUFFER_SIZE ];
+    int bytesRead;
+    while ( ( bytesRead = input.read( chunk ) ) != -1 ) {
+      if ( buffer.remaining() < bytesRead ) {
+        long capacity = Math.max( buffer.capacity() * 2L, ( long ) buffer.position() + bytesRead );
+        if ( capacity > Integer.MAX_VALUE ) {
+          throw new IOException( "Cannot read image of size " + capacity );
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect( ( int ) capacity );
+        buffer.flip();
+        larger.put( buffer );
+        buffer = larger;
+      }
+      buffer.put( chunk, 0, bytesRead );
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private ImageInputStream getInputStream() throws IOException {
+    ImageInputStream input = ( ImageInputStream ) getInput();
+    if ( input == null ) {
+      throw new IllegalStateException( "Input not set" );
+    }
+
     if ( input.getStreamPosition() != 0L ) {
       if ( isSeekForwardOnly() ) {
         throw new IOException();
@@ -79,27 +223,13 @@ class WebPReader extends ImageReader {
         input.seek( 0 );
       }
     }
-
-    byte[] data;
-    if ( length > 0 ) {
-      data = new byte[ ( int ) length ];
-      input.readFully( data );
-    }
-    else {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      byte[] buffer = new byte[ 4096 ];
-      int bytesRead;
-      while ( ( bytesRead = input.read( buffer ) ) != -1 ) {
-        out.write( buffer, 0, bytesRead );
-      }
-      out.close();
-      data = out.toByteArray();
-    }
-    fData = data;
+    return input;
   }
 
-  private void checkIndex( int imageIndex ) {
-    if ( imageIndex != 0 ) {
+  private void checkIndex( int imageIndex ) throws IOException {
+    readHeader();
+    // Every image has a first frame, so only later frames need the frames to be counted.
+    if ( imageIndex < 0 || ( imageIndex > 0 && imageIndex >= getNumImages( true ) ) ) {
       throw new IndexOutOfBoundsException( "Invalid image index: " + imageIndex );
     }
   }
@@ -130,8 +260,10 @@ class WebPReader extends ImageReader {
 
   @Override
   public Iterator<ImageTypeSpecifier> getImageTypes( int imageIndex ) throws IOException {
-    return Collections.singletonList(
-        ImageTypeSpecifier.createFromBufferedImageType( BufferedImage.TYPE_INT_ARGB )
+    return Arrays.asList(
+        ImageTypeSpecifier.createFromBufferedImageType( BufferedImage.TYPE_INT_ARGB ),
+        ImageTypeSpecifier.createFromBufferedImageType( BufferedImage.TYPE_INT_ARGB_PRE ),
+        ImageTypeSpecifier.createFromBufferedImageType( BufferedImage.TYPE_INT_RGB )
     ).iterator();
   }
 
@@ -143,9 +275,194 @@ class WebPReader extends ImageReader {
   @Override
   public BufferedImage read( int imageIndex, ImageReadParam param ) throws IOException {
     checkIndex( imageIndex );
-    readData();
+    WebPReadParam options = param instanceof WebPReadParam ? (WebPReadParam) param : getDefaultOptions();
+    if ( fAnimation ) {
+      return readFrame( imageIndex, param != null ? param : options, options );
+    }
+
+    // Mapped files are always decoded into a destination of the final size, without a heap copy
+    // of the data.
+    if ( isFileInput() || ( param != null && hasRegionSettings( param ) ) ) {
+      return readRegion( imageIndex, param != null ? param : options, options );
+    }
+
+    // Decode while the data is being read.
+    return WebP.decode( options, getInputStream() );
+  }
+
+  /**
+   * Returns whether any of the standard destination, source region, subsampling or destination
+   * offset settings of the param are used.
+   */
+  private static boolean hasRegionSettings( ImageReadParam param ) {
+    return param.getDestination() != null ||
+           param.getDestinationType() != null ||
+           param.getSourceRegion() != null ||
+           hasSubsampling( param ) ||
+           !param.getDestinationOffset().equals( new Point( 0, 0 ) );
+  }
+
+  private static boolean hasSubsampling( ImageReadParam param ) {
+    return param.getSourceXSubsampling() != 1 ||
+           param.getSourceYSubsampling() != 1 ||
+           param.getSubsamplingXOffset() != 0 ||
+           param.getSubsamplingYOffset() != 0;
+  }
+
+  /**
+   * Decodes the source region of the image into the destination region. The source region and
+   * subsampling are translated into the native cropping and scaling options, so only the
+   * requested part of the image is decoded and allocated.
+   */
+  private BufferedImage readRegion( int imageIndex, ImageReadParam param, WebPReadParam options ) throws IOException {
     readHeader();
-    WebPReadParam options = param != null ? (WebPReadParam) param : new WebPReadParam();
-    return WebP.decode( options, fData, 0, fData.length );
+    boolean nativeRegion = options.isUseCropping() || options.isUseScaling();
+    if ( nativeRegion && ( param.getSourceRegion() != null || hasSubsampling( param ) ) ) {
+      throw new IllegalArgumentException( "Source region and subsampling cannot be combined with WebP cropping or scaling" );
+    }
+
+    // The size of the image produced by the decoder options
+    int width = fWidth;
+    int height = fHeight;
+    if ( options.isUseCropping() ) {
+      width = options.getCropWidth();
+      height = options.getCropHeight();
+    }
+    if ( options.isUseScaling() ) {
+      width = options.getScaledWidth();
+      height = options.getScaledHeight();
+    }
+
+    BufferedImage destination = createDestination( imageIndex, param, width, height );
+    if ( !WebP.canDecodeInto( destination ) ) {
+      throw new IIOException( "Unsupported destination image: " + destination );
+    }
+    Rectangle sourceRegion = new Rectangle();
+    Rectangle destinationRegion = new Rectangle();
+    computeRegions( param, width, height, destination, sourceRegion, destinationRegion );
+
+    WebPReadParam decoderOptions = options;
+    int sourceX = sourceRegion.x;
+    int sourceY = sourceRegion.y;
+    if ( !nativeRegion ) {
+      decoderOptions = copyDecoderOptions( options );
+
+      // libwebp only crops at even coordinates. Without subsampling, the crop is extended to the
+      // preceding even coordinate and the extra column and row are skipped when copying. With
+      // subsampling, the shift of at most one source pixel is below the output resolution.
+      int cropX = sourceRegion.x & ~1;
+      int cropY = sourceRegion.y & ~1;
+      int cropWidth = sourceRegion.width;
+      int cropHeight = sourceRegion.height;
+      if ( param.getSourceXSubsampling() != 1 || param.getSourceYSubsampling() != 1 ) {
+        decoderOptions.setUseScaling( true );
+        decoderOptions.setScaledWidth( destinationRegion.width );
+        decoderOptions.setScaledHeight( destinationRegion.height );
+        sourceX = 0;
+        sourceY = 0;
+      }
+      else {
+        sourceX = sourceRegion.x - cropX;
+        sourceY = sourceRegion.y - cropY;
+        cropWidth += sourceX;
+        cropHeight += sourceY;
+      }
+
+      if ( cropX != 0 || cropY != 0 || cropWidth != fWidth || cropHeight != fHeight ) {
+        decoderOptions.setUseCropping( true );
+        decoderOptions.setCropLeft( cropX );
+        decoderOptions.setCropTop( cropY );
+        decoderOptions.setCropWidth( cropWidth );
+        decoderOptions.setCropHeight( cropHeight );
+      }
+    }
+
+    try {
+      if ( isFileInput() ) {
+        WebP.decode( decoderOptions, getBuffer(), sourceX, sourceY, destination, destinationRegion );
+      }
+      else {
+        WebP.decode( decoderOptions, getInputStream(), sourceX, sourceY, destination, destinationRegion );
+      }
+    } finally {
+      if ( decoderOptions != options ) {
+        decoderOptions.close();
+      }
+    }
+    return destination;
+  }
+
+  /**
+   * Composites the frame of an animation and copies the requested region of the canvas into the
+   * destination.
+   */
+  private BufferedImage readFrame( int imageIndex, ImageReadParam param, WebPReadParam options ) throws IOException {
+    if ( options.isUseCropping() || options.isUseScaling() ) {
+      throw new IllegalArgumentException( "WebP cropping and scaling are not supported for animations" );
+    }
+
+    WebPReadParam frameOptions = copyDecoderOptions( options );
+    int[] canvas;
+    try {
+      canvas = getAnimationDecoder().getCanvas( imageIndex, frameOptions );
+    } finally {
+      frameOptions.close();
+    }
+    if ( !hasRegionSettings( param ) ) {
+      return WebP.createImage( canvas.clone(), fWidth, fHeight, fAlpha );
+    }
+
+    BufferedImage destination = createDestination( imageIndex, param, fWidth, fHeight );
+    Rectangle sourceRegion = new Rectangle();
+    Rectangle destinationRegion = new Rectangle();
+    computeRegions( param, fWidth, fHeight, destination, sourceRegion, destinationRegion );
+
+    boolean direct = WebP.canDecodeInto( destination ) && !destination.isAlphaPremultiplied();
+    int periodX = param.getSourceXSubsampling();
+    int periodY = param.getSourceYSubsampling();
+    int[] row = new int[ destinationRegion.width ];
+    for ( int y = 0; y < destinationRegion.height; y++ ) {
+      int offset = ( sourceRegion.y + y * periodY ) * fWidth + sourceRegion.x;
+      for ( int x = 0; x < destinationRegion.width; x++ ) {
+        row[ x ] = canvas[ offset + x * periodX ];
+      }
+      if ( direct ) {
+        destination.getRaster().setDataElements( destinationRegion.x, destinationRegion.y + y, destinationRegion.width, 1, row );
+      }
+      else {
+        destination.setRGB( destinationRegion.x, destinationRegion.y + y, destinationRegion.width, 1, row, 0, destinationRegion.width );
+      }
+    }
+    return destination;
+  }
+
+  /**
+   * Returns the destination of the param, or creates an image that covers the destination region.
+   */
+  private BufferedImage createDestination( int imageIndex, ImageReadParam param, int width, int height ) throws IOException {
+    if ( param.getDestination() != null || param.getDestinationType() != null ) {
+      return getDestination( param, getImageTypes( imageIndex ), width, height );
+    }
+
+    Rectangle sourceRegion = new Rectangle();
+    Rectangle destinationRegion = new Rectangle();
+    computeRegions( param, width, height, null, sourceRegion, destinationRegion );
+    return WebP.createImage( destinationRegion.x + destinationRegion.width,
+                             destinationRegion.y + destinationRegion.height, fAlpha );
+  }
+
+  /**
+   * Copies the decoder options that are not related to cropping and scaling, so the region of a
+   * read can be configured without modifying the param of the caller.
+   */
+  private static WebPReadParam copyDecoderOptions( WebPReadParam options ) {
+    WebPReadParam copy = new WebPReadParam();
+    copy.setBypassFiltering( options.isBypassFiltering() );
+    copy.setEnhancement( options.isEnhancement() );
+    copy.setFancyUpsampling( options.isFancyUpsampling() );
+    copy.setForceRotation( options.isForceRotation() );
+    copy.setUseThreads( options.isUseThreads() );
+    copy.setPinFree( options.isPinFree() );
+    return copy;
   }
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Luciad (http://www.luciad.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.luciad.imageio.webp;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Encodes an image with several qualities and methods in parallel, and keeps the best result. See
+ * {@link WebPWriteParam#setTrialQualities(float...)}.
+ * <p/>
+ * The pixels are imported into a single native picture that all trials encode a copy of. Trials
+ * that are still running when the timeout has passed, or once the encode has been aborted, are
+ * aborted, but only stop at their next progress report, so the picture is reference counted and
+ * deleted by whoever uses it last.
+ */
+final class WebPTrialEncoder {
+  private static ExecutorService SHARED_EXECUTOR;
+
+  private static final class Trial {
+    final byte[] fData;
+    final float fPSNR;
+    final float[] fPSNRs;
+    final long[] fStats;
+
+    Trial( byte[] aData, float[] aPSNRs, long[] aStats ) {
+      fData = aData;
+      fPSNR = aPSNRs[ 3 ];
+      fPSNRs = aPSNRs;
+      fStats = aStats;
+    }
+  }
+
+  private static final class Picture {
+    private final long fPointer;
+    private final int[] fConfig;
+    private int fReferences = 1;
+
+    Picture( long aPointer, int[] aConfig ) {
+      fPointer = aPointer;
+      fConfig = aConfig;
+    }
+
+    synchronized boolean retain() {
+      if ( fReferences == 0 ) {
+        return false;
+      }
+      fReferences++;
+      return true;
+    }
+
+    synchronized void release() {
+      if ( --fReferences == 0 ) {
+        WebP.deletePicture( fPointer );
+      }
+    }
+  }
+
+  private WebPTrialEncoder() {
+  }
+
+  /**
+   * Encodes a region of the image, rescaled to the given size.
+   *
+   * @param aConfig   the packed configuration to encode with.
+   * @param aProgress the listener that is told which part of the trials has finished, and that can
+   *                  abort them, or {@code null}.
+   */
+  static byte[] encode( WebPWriteParam aWriteParam, int[] aConfig, RenderedImage aImage, Rectangle aRegion,
+                        int aScaledWidth, int aScaledHeight, WebP.ProgressListener aProgress ) throws IOException {
+    float[] qualities = aWriteParam.getTrialQualities();
+    if ( qualities == null ) {
+      qualities = new float[]{ WebPWriteParam.getEncodeQuality( aConfig ) };
+    }
+    int[] methods = aWriteParam.getTrialMethods();
+    if ( methods == null ) {
+      methods = new int[]{ WebPWriteParam.getMethod( aConfig ) };
+    }
+    ExecutorService executor = aWriteParam.getTrialExecutor();
+    if ( executor == null ) {
+      executor = getSharedExecutor();
+    }
+
+    final WebPEncodeResult.Listener listener = aWriteParam.getEncodeResultListener();
+    long importStart = System.nanoTime();
+    long pointer = WebP.createPicture( aConfig, aImage, aRegion, aScaledWidth, aScaledHeight, aWriteParam.isPinFree() );
+    long importTime = System.nanoTime() - importStart;
+    final Picture picture = new Picture( pointer, aConfig );
+    // Lets the trials that are still running stop as soon as their results are no longer needed,
+    // or the encode has been aborted.
+    final AtomicBoolean done = new AtomicBoolean();
+    final WebP.ProgressListener progress = aProgress;
+    final WebP.ProgressListener abortCheck = new WebP.ProgressListener() {
+      @Override
+      public boolean update( int aPercent ) {
+        return !isAborted();
+      }
+
+      @Override
+      public boolean isAborted() {
+        return done.get() || ( progress != null && progress.isAborted() );
+      }
+    };
+    List<Future<Trial>> futures = new ArrayList<Future<Trial>>();
+    List<Trial> trials = new ArrayList<Trial>();
+    try {
+      CompletionService<Trial> completionService = new ExecutorCompletionService<Trial>( executor );
+      for ( final float quality : qualities ) {
+        for ( final int method : methods ) {
+          futures.add( completionService.submit( new Callable<Trial>() {
+            @Override
+            public Trial call() throws IOException {
+              if ( !picture.retain() ) {
+                return null;
+              }
+              try {
+                float[] psnr = new float[ 5 ];
+                long[] stats = listener != null ? new long[ WebPEncodeResult.STATS_SIZE ] : null;
+                byte[] data = WebP.encodePicture( picture.fConfig, picture.fPointer, quality * 100f, method, psnr, stats, abortCheck );
+                return new Trial( data, psnr, stats );
+              } finally {
+                picture.release();
+              }
+            }
+          } ) );
+        }
+      }
+
+      long timeout = aWriteParam.getTrialTimeout();
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeout );
+      for ( int i = 0; i < futures.size(); i++ ) {
+        Future<Trial> future;
+        if ( timeout == 0 || trials.isEmpty() ) {
+          future = completionService.take();
+        }
+        else {
+          future = completionService.poll( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+          if ( future == null ) {
+            break;
+          }
+        }
+        trials.add( WebPBatchEncoder.getResult( future ) );
+        if ( aProgress != null && !aProgress.update( 100 * ( i + 1 ) / futures.size() ) ) {
+          throw new IOException( "Encoding was aborted" );
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while encoding" );
+    } finally {
+      done.set( true );
+      for ( Future<Trial> future : futures ) {
+        future.cancel( false );
+      }
+      picture.release();
+    }
+
+    Trial best = select( trials, aWriteParam.getTargetSize(), aWriteParam.getTargetPSNR() );
+    if ( listener != null ) {
+      listener.imageEncoded( new WebPEncodeResult( best.fPSNRs, best.fStats, 0, importTime ) );
+    }
+    return best.fData;
+  }
+
+  /**
+   * Of the trials that meet the targets, returns the smallest one if a target PSNR is set, and the
+   * one with the highest PSNR otherwise. If no trial meets the targets, returns the smallest one if
+   * a target size is set, and the one with the highest PSNR otherwise.
+   */
+  private static Trial select( List<Trial> aTrials, int aTargetSize, float aTargetPSNR ) {
+    Trial best = null;
+    for ( Trial trial : aTrials ) {
+      boolean meetsTargets = ( aTargetSize <= 0 || trial.fData.length <= aTargetSize ) &&
+                             ( aTargetPSNR <= 0 || trial.fPSNR >= aTargetPSNR );
+      if ( meetsTargets && ( best == null || isBetter( trial, best, aTargetPSNR > 0 ) ) ) {
+        best = trial;
+      }
+    }
+    if ( best != null ) {
+      return best;
+    }
+
+    for ( Trial trial : aTrials ) {
+      if ( best == null || isBetter( trial, best, aTargetSize > 0 ) ) {
+        best = trial;
+      }
+    }
+    return best;
+  }
+
+  private static boolean isBetter( Trial aTrial, Trial aBest, boolean aSmallest ) {
+    return aSmallest ? aTrial.fData.length < aBest.fData.length : aTrial.fPSNR > aBest.fPSNR;
+  }
+
+  private static synchronized ExecutorService getSharedExecutor() {
+    if ( SHARED_EXECUTOR == null ) {
+      SHARED_EXECUTOR = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        private int fCount;
+
+        @Override
+        public Thread newThread( Runnable aRunnable ) {
+          Thread thread = new Thread( aRunnable, "WebP trial encoder " + ( ++fCount ) );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    return SHARED_EXECUTOR;
+  }
+}
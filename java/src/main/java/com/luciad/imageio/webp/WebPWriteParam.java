@@ -16,46 +16,159 @@
 package com.luciad.imageio.webp;
 
 import javax.imageio.ImageWriteParam;
+import java.io.Closeable;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
 
-public class WebPWriteParam extends ImageWriteParam {
+/**
+ * The encoder options of a write. A write param can be reused for any number of writes, and shared
+ * by concurrent writes as long as it is not modified. The options are kept in Java, so reading and
+ * setting them does not call into native code, and every encode fills its own native configuration
+ * from them.
+ */
+public class WebPWriteParam extends ImageWriteParam implements Closeable {
   static {
     WebP.loadNativeLibrary();
   }
 
-  long fPointer;
+  /**
+   * The largest frame duration, in milliseconds, that can be stored in a WebP animation.
+   */
+  public static final int MAX_FRAME_DURATION = 0xffffff;
+
+  // The positions of the WebPConfig fields in the packed configuration. Floats are packed as their
+  // bits.
+  private static final int LOSSLESS = 0;
+  private static final int QUALITY = 1;
+  private static final int METHOD = 2;
+  private static final int TARGET_SIZE = 3;
+  private static final int TARGET_PSNR = 4;
+  private static final int SEGMENTS = 5;
+  private static final int SNS_STRENGTH = 6;
+  private static final int FILTER_STRENGTH = 7;
+  private static final int FILTER_SHARPNESS = 8;
+  private static final int FILTER_TYPE = 9;
+  private static final int AUTOFILTER = 10;
+  private static final int ALPHA_COMPRESSION = 11;
+  private static final int ALPHA_FILTERING = 12;
+  private static final int ALPHA_QUALITY = 13;
+  private static final int PASS = 14;
+  private static final int SHOW_COMPRESSED = 15;
+  private static final int PREPROCESSING = 16;
+  private static final int PARTITIONS = 17;
+  private static final int PARTITION_LIMIT = 18;
+  private static final int EMULATE_JPEG_SIZE = 19;
+  private static final int THREAD_LEVEL = 20;
+  private static final int LOW_MEMORY = 21;
+  private static final int CONFIG_SIZE = 22;
+
+  // The configuration is never modified in place, so it can be read without locking, also while
+  // the write param is shared by concurrent writes. Every setter replaces it, and every encode
+  // copies the one it read into a native configuration of its own in a single call.
+  private volatile int[] fConfig;
+  private volatile boolean fClosed;
   private final int defaultLossless;
+  private int fFrameDuration = 100;
+  private int fFrameXOffset;
+  private int fFrameYOffset;
+  private boolean fFrameBlending = true;
+  private boolean fDisposeFrameToBackground;
+  private int fLoopCount;
+  private boolean fMinimizeFrames = true;
+  private float[] fTrialQualities;
+  private int[] fTrialMethods;
+  private long fTrialTimeout;
+  private ExecutorService fTrialExecutor;
+  private WebPEncodeResult.Listener fEncodeResultListener;
+  private boolean fPinFree = WebP.PIN_FREE;
 
   public WebPWriteParam( Locale aLocale ) {
     super( aLocale );
-    fPointer = createConfig();
-    if ( fPointer == 0 ) {
-      throw new OutOfMemoryError();
-    }
-    defaultLossless = getLossless( fPointer );
+    fConfig = new int[ CONFIG_SIZE ];
+    getDefaultConfig( fConfig );
+    defaultLossless = fConfig[ LOSSLESS ];
     canWriteCompressed = true;
     compressionTypes = new String[]{
         "Lossy",
-        "Lossless"
+        "Lossless",
+        "Auto"
     };
     compressionType = compressionTypes[defaultLossless];
-    compressionQuality = getQuality( fPointer ) / 100f;
+    compressionQuality = Float.intBitsToFloat( fConfig[ QUALITY ] ) / 100f;
     compressionMode = MODE_EXPLICIT;
   }
 
+  /**
+   * The write param can no longer be used afterwards. It holds no native memory, so encodes that
+   * are still running are not affected.
+   */
   @Override
-  protected void finalize() throws Throwable {
-    super.finalize();
-    deleteConfig( fPointer );
-    fPointer = 0L;
+  public void close() {
+    fClosed = true;
+  }
+
+  /**
+   * @return the packed configuration to encode with. It is never modified, so it must be copied
+   * before making changes.
+   */
+  int[] getConfig() {
+    if ( fClosed ) {
+      throw new IllegalStateException( "Write param has been closed" );
+    }
+    return fConfig;
+  }
+
+  /**
+   * @return whether the compression type is "Auto", which chooses between lossy and lossless
+   * compression, and the preset for lossy compression, by analysing each image.
+   */
+  boolean isAutoCompression() {
+    return compressionMode == MODE_EXPLICIT && compressionTypes[ 2 ].equals( compressionType );
+  }
+
+  /**
+   * Returns a copy of a packed configuration for the Auto compression type.
+   *
+   * @param aPreset the WebPPreset of which the filter and spatial noise shaping settings replace
+   *                those of the configuration for lossy compression.
+   */
+  static int[] createAutoConfig( int[] aConfig, boolean aLossless, int aPreset ) {
+    int[] config = aConfig.clone();
+    config[ LOSSLESS ] = aLossless ? 1 : 0;
+    if ( !aLossless ) {
+      applyPreset( config, aPreset );
+    }
+    return config;
   }
 
-  private static native long createConfig();
+  private static native void applyPreset( int[] aConfig, int aPreset );
+
+  /**
+   * Returns a copy of a packed configuration without alpha filtering.
+   */
+  static int[] disableAlphaFiltering( int[] aConfig ) {
+    int[] config = aConfig.clone();
+    config[ ALPHA_FILTERING ] = 0;
+    return config;
+  }
+
+  static boolean isLossless( int[] aConfig ) {
+    return aConfig[ LOSSLESS ] != 0;
+  }
 
-  private static native void deleteConfig( long aPointer );
+  /**
+   * @return the quality of a packed configuration, between 0 and 1. Unlike
+   * {@link #getCompressionQuality()}, this does not require the explicit compression mode.
+   */
+  static float getEncodeQuality( int[] aConfig ) {
+    return Float.intBitsToFloat( aConfig[ QUALITY ] ) / 100f;
+  }
 
-  long getPointer() {
-    return fPointer;
+  /**
+   * @return the method of a packed configuration.
+   */
+  static int getMethod( int[] aConfig ) {
+    return aConfig[ METHOD ];
   }
 
   @Override
@@ -66,272 +179,430 @@ public class WebPWriteParam extends ImageWriteParam {
   @Override
   public void setCompressionQuality( float quality ) {
     super.setCompressionQuality( quality );
-    setQuality( fPointer, quality * 100f );
+    set( QUALITY, Float.floatToRawIntBits( quality * 100f ) );
   }
 
+  /**
+   * Sets the compression type to "Lossy", "Lossless", or "Auto". With "Auto", each image is
+   * analysed before it is encoded: images with few colours or large flat areas are encoded
+   * lossless, and others lossy, with the segments, spatial noise shaping and filter settings of
+   * the libwebp preset that suits the image best.
+   */
   @Override
   public void setCompressionType( String compressionType ) {
     super.setCompressionType( compressionType );
-    for ( int i = 0; i < compressionTypes.length; i++ ) {
-      if ( compressionTypes[i].equals( compressionType ) ) {
-        setLossless( fPointer, i );
-        break;
-      }
-    }
-
+    updateLossless();
   }
 
   @Override
   public void unsetCompression() {
     super.unsetCompression();
-    setLossless( fPointer, defaultLossless );
+    updateLossless();
+  }
+
+  @Override
+  public void setCompressionMode( int mode ) {
+    super.setCompressionMode( mode );
+    updateLossless();
+  }
+
+  /**
+   * Stores whether the encoder is lossless in the configuration, which only accepts 0 or 1. The
+   * Auto compression type only exists in Java and chooses for each image, so it, like the modes
+   * other than {@link #MODE_EXPLICIT}, leaves the default in the configuration.
+   */
+  private void updateLossless() {
+    int lossless = defaultLossless;
+    if ( compressionMode == MODE_EXPLICIT ) {
+      if ( compressionTypes[ 0 ].equals( compressionType ) ) {
+        lossless = 0;
+      }
+      else if ( compressionTypes[ 1 ].equals( compressionType ) ) {
+        lossless = 1;
+      }
+    }
+    set( LOSSLESS, lossless );
   }
 
   public int getTargetSize() {
-    return getTargetSize( fPointer );
+    return fConfig[ TARGET_SIZE ];
   }
 
   public void setTargetSize( int aTargetSize ) {
-    setTargetSize( fPointer, aTargetSize );
+    set( TARGET_SIZE, aTargetSize );
   }
 
   public float getTargetPSNR() {
-    return getTargetPSNR( fPointer );
+    return Float.intBitsToFloat( fConfig[ TARGET_PSNR ] );
   }
 
   public void setTargetPSNR( float aTargetPSNR ) {
-    setTargetPSNR( fPointer, aTargetPSNR );
+    set( TARGET_PSNR, Float.floatToRawIntBits( aTargetPSNR ) );
   }
 
   public int getMethod() {
-    return getMethod( fPointer );
+    return fConfig[ METHOD ];
   }
 
   public void setMethod( int aMethod ) {
-    setMethod( fPointer, aMethod );
+    set( METHOD, aMethod );
   }
 
   public int getSegments() {
-    return getSegments( fPointer );
+    return fConfig[ SEGMENTS ];
   }
 
   public void setSegments( int aSegments ) {
-    setSegments( fPointer, aSegments );
+    set( SEGMENTS, aSegments );
   }
 
   public int getSnsStrength() {
-    return getSnsStrength( fPointer );
+    return fConfig[ SNS_STRENGTH ];
   }
 
   public void setSnsStrength( int aSnsStrength ) {
-    setSnsStrength( fPointer, aSnsStrength );
+    set( SNS_STRENGTH, aSnsStrength );
   }
 
   public int getFilterStrength() {
-    return getFilterStrength( fPointer );
+    return fConfig[ FILTER_STRENGTH ];
   }
 
   public void setFilterStrength( int aFilterStrength ) {
-    setFilterStrength( fPointer, aFilterStrength );
+    set( FILTER_STRENGTH, aFilterStrength );
   }
 
   public int getFilterSharpness() {
-    return getFilterSharpness( fPointer );
+    return fConfig[ FILTER_SHARPNESS ];
   }
 
   public void setFilterSharpness( int aFilterSharpness ) {
-    setFilterSharpness( fPointer, aFilterSharpness );
+    set( FILTER_SHARPNESS, aFilterSharpness );
   }
 
   public int getFilterType() {
-    return getFilterType( fPointer );
+    return fConfig[ FILTER_TYPE ];
   }
 
   public void setFilterType( int aFilterType ) {
-    setFilterType( fPointer, aFilterType );
+    set( FILTER_TYPE, aFilterType );
   }
 
   public boolean isAutoAdjustFilterStrength() {
-    return getAutofilter( fPointer ) != 0;
+    return fConfig[ AUTOFILTER ] != 0;
   }
 
   public void setAutoAdjustFilterStrength( boolean aAutofilter ) {
-    setAutofilter( fPointer, aAutofilter ? 1 : 0 );
+    set( AUTOFILTER, aAutofilter ? 1 : 0 );
   }
 
   public int getEntropyAnalysisPassCount() {
-    return getPass( fPointer );
+    return fConfig[ PASS ];
   }
 
   public void setEntropyAnalysisPassCount( int aPass ) {
-    setPass( fPointer, aPass );
+    set( PASS, aPass );
   }
 
   public boolean isShowCompressed() {
-    return getShowCompressed( fPointer ) != 0;
+    return fConfig[ SHOW_COMPRESSED ] != 0;
   }
 
   public void setShowCompressed( boolean aShowCompressed ) {
-    setShowCompressed( fPointer, aShowCompressed ? 1 : 0 );
+    set( SHOW_COMPRESSED, aShowCompressed ? 1 : 0 );
   }
 
   public int getPreprocessing() {
-    return getPreprocessing( fPointer );
+    return fConfig[ PREPROCESSING ];
   }
 
   public void setPreprocessing( int aPreprocessing ) {
-    setPreprocessing( fPointer, aPreprocessing );
+    set( PREPROCESSING, aPreprocessing );
   }
 
   public int getPartitions() {
-    return getPartitions( fPointer );
+    return fConfig[ PARTITIONS ];
   }
 
   public void setPartitions( int aPartitions ) {
-    setPartitions( fPointer, aPartitions );
+    set( PARTITIONS, aPartitions );
   }
 
   public int getPartitionLimit() {
-    return getPartitionLimit( fPointer );
+    return fConfig[ PARTITION_LIMIT ];
   }
 
   public void setPartitionLimit( int aPartitionLimit ) {
-    setPartitionLimit( fPointer, aPartitionLimit );
+    set( PARTITION_LIMIT, aPartitionLimit );
   }
 
   public int getAlphaCompression() {
-    return getAlphaCompression( fPointer );
+    return fConfig[ ALPHA_COMPRESSION ];
   }
 
   public void setAlphaCompression( int aAlphaCompression ) {
-    setAlphaCompression( fPointer, aAlphaCompression );
+    set( ALPHA_COMPRESSION, aAlphaCompression );
   }
 
   public int getAlphaFiltering() {
-    return getAlphaFiltering( fPointer );
+    return fConfig[ ALPHA_FILTERING ];
   }
 
   public void setAlphaFiltering( int aAlphaFiltering ) {
-    setAlphaFiltering( fPointer, aAlphaFiltering );
+    set( ALPHA_FILTERING, aAlphaFiltering );
   }
 
   public int getAlphaQuality() {
-    return getAlphaQuality( fPointer );
+    return fConfig[ ALPHA_QUALITY ];
   }
 
   public void setAlphaQuality( int aAlphaQuality ) {
-    setAlphaQuality( fPointer, aAlphaQuality );
+    set( ALPHA_QUALITY, aAlphaQuality );
   }
 
   public boolean isEmulateJpegSize() {
-    return getEmulateJpegSize( fPointer ) != 0;
+    return fConfig[ EMULATE_JPEG_SIZE ] != 0;
   }
 
   public void setEmulateJpegSize( boolean aEmulateJpegSize ) {
-    setEmulateJpegSize( fPointer, aEmulateJpegSize ? 1 : 0 );
+    set( EMULATE_JPEG_SIZE, aEmulateJpegSize ? 1 : 0 );
   }
 
   public int getThreadLevel() {
-    return getThreadLevel( fPointer );
+    return fConfig[ THREAD_LEVEL ];
   }
 
   public void setThreadLevel( int aThreadLevel ) {
-    setThreadLevel( fPointer, aThreadLevel );
+    set( THREAD_LEVEL, aThreadLevel );
   }
 
-  public boolean isReduceMemoryUsage() {
-    return getLowMemory( fPointer ) != 0;
+  /**
+   * @return how long the frame is shown when writing a sequence, in milliseconds.
+   */
+  public int getFrameDuration() {
+    return fFrameDuration;
   }
 
-  public void setReduceMemoryUsage( boolean aLowMemory ) {
-    setLowMemory( fPointer, aLowMemory ? 1 : 0 );
+  public void setFrameDuration( int aFrameDuration ) {
+    if ( aFrameDuration < 0 || aFrameDuration > MAX_FRAME_DURATION ) {
+      throw new IllegalArgumentException( "Frame duration must be between 0 and " + MAX_FRAME_DURATION + ": " + aFrameDuration );
+    }
+    fFrameDuration = aFrameDuration;
   }
 
-  private static native float getQuality( long aPointer );
-
-  private static native void setQuality( long aPointer, float aQuality );
-
-  private static native int getTargetSize( long aPointer );
-
-  private static native void setTargetSize( long aPointer, int aTargetSize );
-
-  private static native float getTargetPSNR( long aPointer );
-
-  private static native void setTargetPSNR( long aPointer, float aTargetPSNR );
-
-  private static native int getMethod( long aPointer );
-
-  private static native void setMethod( long aPointer, int aMethod );
-
-  private static native int getSegments( long aPointer );
-
-  private static native void setSegments( long aPointer, int aSegments );
-
-  private static native int getSnsStrength( long aPointer );
-
-  private static native void setSnsStrength( long aPointer, int aSnsStrength );
-
-  private static native int getFilterStrength( long aPointer );
-
-  private static native void setFilterStrength( long aPointer, int aFilterStrength );
-
-  private static native int getFilterSharpness( long aPointer );
-
-  private static native void setFilterSharpness( long aPointer, int aFilterSharpness );
-
-  private static native int getFilterType( long aPointer );
+  public int getFrameXOffset() {
+    return fFrameXOffset;
+  }
 
-  private static native void setFilterType( long aPointer, int aFilterType );
+  public int getFrameYOffset() {
+    return fFrameYOffset;
+  }
 
-  private static native int getAutofilter( long aPointer );
+  /**
+   * Sets the position of the frame on the canvas when writing a sequence. The canvas has the size
+   * of the first frame including its offset, and later frames must fit on it. WebP only stores
+   * even offsets.
+   */
+  public void setFrameOffset( int aXOffset, int aYOffset ) {
+    if ( aXOffset < 0 || aYOffset < 0 || ( aXOffset & 1 ) != 0 || ( aYOffset & 1 ) != 0 ) {
+      throw new IllegalArgumentException( "Frame offsets must be even and positive: " + aXOffset + ", " + aYOffset );
+    }
+    fFrameXOffset = aXOffset;
+    fFrameYOffset = aYOffset;
+  }
 
-  private static native void setAutofilter( long aPointer, int aAutofilter );
+  /**
+   * @return {@code true} if the translucent pixels of the frame are blended with the canvas, or
+   * {@code false} if they replace the pixels of the canvas.
+   */
+  public boolean isFrameBlending() {
+    return fFrameBlending;
+  }
 
-  private static native int getPass( long aPointer );
+  public void setFrameBlending( boolean aFrameBlending ) {
+    fFrameBlending = aFrameBlending;
+  }
 
-  private static native void setPass( long aPointer, int aPass );
+  /**
+   * @return {@code true} if the area of the frame is cleared to transparent after the frame has
+   * been shown, or {@code false} if it is left as is.
+   */
+  public boolean isDisposeFrameToBackground() {
+    return fDisposeFrameToBackground;
+  }
 
-  private static native int getShowCompressed( long aPointer );
+  public void setDisposeFrameToBackground( boolean aDisposeFrameToBackground ) {
+    fDisposeFrameToBackground = aDisposeFrameToBackground;
+  }
 
-  private static native void setShowCompressed( long aPointer, int aShowCompressed );
+  /**
+   * @return the number of times an animation is played, or 0 to play it forever. Only the value of
+   * the first frame of a sequence is used.
+   */
+  public int getLoopCount() {
+    return fLoopCount;
+  }
 
-  private static native int getPreprocessing( long aPointer );
+  public void setLoopCount( int aLoopCount ) {
+    if ( aLoopCount < 0 || aLoopCount > 0xffff ) {
+      throw new IllegalArgumentException( "Loop count must be between 0 and 65535: " + aLoopCount );
+    }
+    fLoopCount = aLoopCount;
+  }
 
-  private static native void setPreprocessing( long aPointer, int aPreprocessing );
+  /**
+   * @return whether only the area that differs from the previous frame is encoded for each frame of
+   * a sequence. Only the value of the first frame of a sequence is used.
+   */
+  public boolean isMinimizeFrames() {
+    return fMinimizeFrames;
+  }
 
-  private static native int getPartitions( long aPointer );
+  public void setMinimizeFrames( boolean aMinimizeFrames ) {
+    fMinimizeFrames = aMinimizeFrames;
+  }
 
-  private static native void setPartitions( long aPointer, int aPartitions );
+  /**
+   * @return whether the image is encoded once for every trial quality and method, to keep the
+   * smallest result that meets the target size and target PSNR.
+   */
+  public boolean isTrialEncoding() {
+    return fTrialQualities != null || fTrialMethods != null;
+  }
 
-  private static native int getPartitionLimit( long aPointer );
+  public float[] getTrialQualities() {
+    return fTrialQualities == null ? null : fTrialQualities.clone();
+  }
 
-  private static native void setPartitionLimit( long aPointer, int aPartitionLimit );
+  /**
+   * Sets the compression qualities, between 0 and 1, to try in parallel. The image is imported
+   * once, and encoded once for each combination of trial quality and trial method. Of the results
+   * that are no larger than the target size and have at least the target PSNR, the smallest one is
+   * kept if a target PSNR is set, and the one with the highest PSNR otherwise. If no result meets
+   * the targets, the smallest result is kept when a target size is set, and the one with the
+   * highest PSNR otherwise. The targets are not passed on to the encoder, so each trial is a single
+   * pass.
+   *
+   * @param aQualities the qualities to try, or {@code null} to only use the compression quality.
+   */
+  public void setTrialQualities( float... aQualities ) {
+    if ( aQualities != null ) {
+      if ( aQualities.length == 0 ) {
+        throw new IllegalArgumentException( "No trial qualities" );
+      }
+      for ( float quality : aQualities ) {
+        if ( quality < 0 || quality > 1 ) {
+          throw new IllegalArgumentException( "Quality must be between 0 and 1: " + quality );
+        }
+      }
+    }
+    fTrialQualities = aQualities == null ? null : aQualities.clone();
+  }
 
-  private static native int getAlphaCompression( long aPointer );
+  public int[] getTrialMethods() {
+    return fTrialMethods == null ? null : fTrialMethods.clone();
+  }
 
-  private static native void setAlphaCompression( long aPointer, int aAlphaCompression );
+  /**
+   * Sets the methods, between 0 and 6, to try in parallel.
+   *
+   * @param aMethods the methods to try, or {@code null} to only use the method.
+   * @see #setTrialQualities(float...)
+   */
+  public void setTrialMethods( int... aMethods ) {
+    if ( aMethods != null ) {
+      if ( aMethods.length == 0 ) {
+        throw new IllegalArgumentException( "No trial methods" );
+      }
+      for ( int method : aMethods ) {
+        if ( method < 0 || method > 6 ) {
+          throw new IllegalArgumentException( "Method must be between 0 and 6: " + method );
+        }
+      }
+    }
+    fTrialMethods = aMethods == null ? null : aMethods.clone();
+  }
 
-  private static native int getAlphaFiltering( long aPointer );
+  /**
+   * @return how long to wait for trials, in milliseconds, or 0 to wait for all of them.
+   */
+  public long getTrialTimeout() {
+    return fTrialTimeout;
+  }
 
-  private static native void setAlphaFiltering( long aPointer, int aAlphaFiltering );
+  /**
+   * Sets how long to wait for trials. Once it has passed, the best of the finished trials is kept
+   * and the other trials are cancelled or aborted. If no trial has finished by then, the
+   * first one to finish is kept.
+   */
+  public void setTrialTimeout( long aTimeout ) {
+    if ( aTimeout < 0 ) {
+      throw new IllegalArgumentException( "Timeout must be positive: " + aTimeout );
+    }
+    fTrialTimeout = aTimeout;
+  }
 
-  private static native int getAlphaQuality( long aPointer );
+  /**
+   * @return the executor that runs the trials, or {@code null} to use a shared pool with a thread
+   * per processor.
+   */
+  public ExecutorService getTrialExecutor() {
+    return fTrialExecutor;
+  }
 
-  private static native void setAlphaQuality( long aPointer, int aAlphaQuality );
+  public void setTrialExecutor( ExecutorService aTrialExecutor ) {
+    fTrialExecutor = aTrialExecutor;
+  }
 
-  private static native int getLossless( long aPointer );
+  /**
+   * @return the listener that receives the statistics of every image encoded with this write param,
+   * or {@code null}.
+   */
+  public WebPEncodeResult.Listener getEncodeResultListener() {
+    return fEncodeResultListener;
+  }
 
-  private static native void setLossless( long aPointer, int aLossless );
+  /**
+   * Sets the listener that receives the statistics and timing of every image encoded with this write
+   * param, including the frames of a sequence. The listener is called on the thread that encoded
+   * the image, so it must be thread safe when the write param is shared, for instance by a
+   * {@link WebPBatchEncoder}. Statistics are only collected when a listener is set.
+   */
+  public void setEncodeResultListener( WebPEncodeResult.Listener aEncodeResultListener ) {
+    fEncodeResultListener = aEncodeResultListener;
+  }
 
-  private static native int getEmulateJpegSize( long aPointer );
+  public boolean isPinFree() {
+    return fPinFree;
+  }
 
-  private static native void setEmulateJpegSize( long aPointer, int aEmulateJpegSize );
+  /**
+   * Sets whether Java arrays are never pinned while the native code works on them. By default, the
+   * encoder pins the pixel array while importing it. Garbage collectors that can not pin a
+   * region then have to wait for the whole import. When set, the pixels are first copied into a
+   * native buffer in chunks, which costs a copy of the pixels in native memory. The default is
+   * taken from the {@code com.luciad.imageio.webp.pinFree} system property.
+   */
+  public void setPinFree( boolean aPinFree ) {
+    fPinFree = aPinFree;
+  }
 
-  private static native int getThreadLevel( long aPointer );
+  public boolean isReduceMemoryUsage() {
+    return fConfig[ LOW_MEMORY ] != 0;
+  }
 
-  private static native void setThreadLevel( long aPointer, int aThreadLevel );
+  public void setReduceMemoryUsage( boolean aLowMemory ) {
+    set( LOW_MEMORY, aLowMemory ? 1 : 0 );
+  }
 
-  private static native int getLowMemory( long aPointer );
+  private synchronized void set( int aPosition, int aValue ) {
+    int[] config = fConfig.clone();
+    config[ aPosition ] = aValue;
+    fConfig = config;
+  }
 
-  private static native void setLowMemory( long aPointer, int aLowMemory );
+  /**
+   * Fills a packed configuration with the libwebp defaults.
+   */
+  private static native void getDefaultConfig( int[] aConfig );
 }
@@ -24,8 +24,18 @@ import javax.imageio.spi.ImageWriterSpi;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 class WebPWriter extends ImageWriter {
+  private boolean fSequenceStarted;
+  // Set by abort(), and read by the threads that encode trials for a write.
+  private volatile boolean fAborted;
+  private WebPAnimationEncoder fAnimationEncoder;
+  // The options for writes without a write param, reused until the writer is disposed.
+  private WebPWriteParam fDefaultOptions;
+
   WebPWriter( ImageWriterSpi originatingProvider ) {
     super( originatingProvider );
   }
@@ -55,18 +65,178 @@ class WebPWriter extends ImageWriter {
     return null;
   }
 
+  @Override
+  public void abort() {
+    fAborted = true;
+    super.abort();
+  }
+
+  @Override
+  protected void clearAbortRequest() {
+    super.clearAbortRequest();
+    fAborted = false;
+  }
+
   @Override
   public void write( IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param ) throws IOException {
     if ( param == null ) {
-      param = getDefaultWriteParam();
+      param = getDefaultOptions();
     }
 
     WebPWriteParam writeParam = (WebPWriteParam) param;
 
-    ImageOutputStream output = ( ImageOutputStream ) getOutput();
     RenderedImage ri = image.getRenderedImage();
 
-    byte[] encodedData = WebP.encode(writeParam, ri);
-    output.write( encodedData );
+    clearAbortRequest();
+    processImageStarted( 0 );
+    OutputStream output = getOutputStream();
+    try {
+      WebP.encode( writeParam, ri, output, new WebP.ProgressListener() {
+        @Override
+        public boolean update( int aPercent ) {
+          processImageProgress( aPercent );
+          return !fAborted;
+        }
+
+        @Override
+        public boolean isAborted() {
+          return fAborted;
+        }
+      } );
+    } catch ( IOException e ) {
+      // The encoder stops at its next progress report once the write has been aborted.
+      if ( abortRequested() ) {
+        processWriteAborted();
+        return;
+      }
+      throw e;
+    }
+    output.flush();
+    processImageComplete();
+  }
+
+  @Override
+  public boolean canWriteSequence() {
+    return true;
+  }
+
+  @Override
+  public void prepareWriteSequence( IIOMetadata streamMetadata ) throws IOException {
+    if ( getOutput() == null ) {
+      throw new IllegalStateException( "Output has not been set" );
+    }
+    if ( fSequenceStarted ) {
+      throw new IllegalStateException( "A sequence is already being written" );
+    }
+    fSequenceStarted = true;
+  }
+
+  /**
+   * Adds a frame to the animation. The frame options of the write param apply to this frame only;
+   * the animation options are taken from the write param of the first frame. Frames are always
+   * written as a whole; the source region and subsampling of the write param are ignored.
+   */
+  @Override
+  public void writeToSequence( IIOImage image, ImageWriteParam param ) throws IOException {
+    if ( !fSequenceStarted ) {
+      throw new IllegalStateException( "prepareWriteSequence has not been called" );
+    }
+    if ( param == null ) {
+      param = getDefaultOptions();
+    }
+
+    WebPWriteParam writeParam = ( WebPWriteParam ) param;
+    if ( fAnimationEncoder == null ) {
+      fAnimationEncoder = new WebPAnimationEncoder( writeParam );
+    }
+    fAnimationEncoder.addFrame( image.getRenderedImage(), writeParam );
+  }
+
+  @Override
+  public void endWriteSequence() throws IOException {
+    if ( !fSequenceStarted ) {
+      throw new IllegalStateException( "prepareWriteSequence has not been called" );
+    }
+    if ( fAnimationEncoder == null ) {
+      throw new IllegalStateException( "No frames have been written" );
+    }
+
+    OutputStream output = getOutputStream();
+    try {
+      fAnimationEncoder.finish( output );
+    } finally {
+      disposeSequence();
+    }
+    output.flush();
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    disposeSequence();
+  }
+
+  @Override
+  public void dispose() {
+    disposeSequence();
+    if ( fDefaultOptions != null ) {
+      fDefaultOptions.close();
+      fDefaultOptions = null;
+    }
+    super.dispose();
+  }
+
+  private WebPWriteParam getDefaultOptions() {
+    if ( fDefaultOptions == null ) {
+      fDefaultOptions = new WebPWriteParam( getLocale() );
+    }
+    return fDefaultOptions;
+  }
+
+  private void disposeSequence() {
+    if ( fAnimationEncoder != null ) {
+      fAnimationEncoder.dispose();
+      fAnimationEncoder = null;
+    }
+    fSequenceStarted = false;
+  }
+
+  private OutputStream getOutputStream() {
+    Object output = getOutput();
+    if ( output == null ) {
+      throw new IllegalStateException( "Output has not been set" );
+    }
+    if ( output instanceof ImageOutputStream ) {
+      return new ImageOutputStreamAdapter( ( ImageOutputStream ) output );
+    }
+    else if ( output instanceof OutputStream ) {
+      return ( OutputStream ) output;
+    }
+    else {
+      return Channels.newOutputStream( ( WritableByteChannel ) output );
+    }
+  }
+
+  private static final class ImageOutputStreamAdapter extends OutputStream {
+    private final ImageOutputStream fOutput;
+
+    ImageOutputStreamAdapter( ImageOutputStream aOutput ) {
+      fOutput = aOutput;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      fOutput.write( b );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      fOutput.write( b, off, len );
+    }
+
+    @Override
+    public void flush() throws IOException {
+      fOutput.flush();
+    }
   }
 }
@@ -0,0 +1,154 @@
+package com.luciad.imageio.webp;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * <code>WebPNativeLibraryTest</code> unit tests {@link WebPNativeLibrary}.
+ */
+public class WebPNativeLibraryTest {
+   private static final String CACHE_DIR_PROPERTY = "com.luciad.imageio.webp.cacheDir";
+
+   /**
+    * Tests that a library is extracted to a directory named after the SHA-256
+    * hash of its contents, and that a second extraction reuses the file
+    * without writing it again.
+    *
+    * @throws Exception
+    *            if unable to extract the library.
+    */
+   @Test
+   public void testExtract() throws Exception {
+      final byte[] contents = createContents();
+      final File cacheDirectory = createCacheDirectory();
+      final String previous = System.setProperty(CACHE_DIR_PROPERTY, cacheDirectory.getPath());
+      try {
+         final File library = WebPNativeLibrary.extract(contents);
+         final File expected = new File(new File(cacheDirectory, "webp-imageio-" + sha256(contents)),
+               System.mapLibraryName("webp-imageio"));
+         assertEquals(library.getCanonicalFile(), expected.getCanonicalFile());
+         assertTrue(Arrays.equals(read(library), contents));
+
+         final long lastModified = library.lastModified() - 60000;
+         assertTrue(library.setLastModified(lastModified));
+         final File reused = WebPNativeLibrary.extract(contents);
+         assertEquals(reused, library);
+         assertEquals(reused.lastModified(), lastModified);
+         assertEquals(library.getParentFile().list().length, 1);
+      } finally {
+         restore(previous);
+         delete(cacheDirectory);
+      }
+   }
+
+   /**
+    * Tests that an extracted library whose contents were changed, even without
+    * changing its length, is replaced instead of reused.
+    *
+    * @throws Exception
+    *            if unable to extract the library.
+    */
+   @Test
+   public void testExtractReplacesTamperedLibrary() throws Exception {
+      final byte[] contents = createContents();
+      final File cacheDirectory = createCacheDirectory();
+      final String previous = System.setProperty(CACHE_DIR_PROPERTY, cacheDirectory.getPath());
+      try {
+         final File library = WebPNativeLibrary.extract(contents);
+
+         final RandomAccessFile file = new RandomAccessFile(library, "rw");
+         try {
+            file.seek(contents.length / 2);
+            file.write(~contents[contents.length / 2]);
+         } finally {
+            file.close();
+         }
+         assertEquals(library.length(), contents.length);
+         assertFalse(Arrays.equals(read(library), contents));
+
+         assertEquals(WebPNativeLibrary.extract(contents), library);
+         assertTrue(Arrays.equals(read(library), contents));
+
+         final FileOutputStream out = new FileOutputStream(library);
+         try {
+            out.write(contents, 0, contents.length / 2);
+         } finally {
+            out.close();
+         }
+
+         assertEquals(WebPNativeLibrary.extract(contents), library);
+         assertTrue(Arrays.equals(read(library), contents));
+         assertEquals(library.getParentFile().list().length, 1);
+      } finally {
+         restore(previous);
+         delete(cacheDirectory);
+      }
+   }
+
+   private static byte[] createContents() {
+      final byte[] contents = new byte[100000];
+      for (int i = 0; i < contents.length; i++) {
+         contents[i] = (byte) (i * 31);
+      }
+      return contents;
+   }
+
+   private static File createCacheDirectory() throws IOException {
+      final File directory = File.createTempFile("webp-imageio", ".cache");
+      assertTrue(directory.delete());
+      assertTrue(directory.mkdir());
+      return directory;
+   }
+
+   private static void restore(final String value) {
+      if (value == null) {
+         System.clearProperty(CACHE_DIR_PROPERTY);
+      } else {
+         System.setProperty(CACHE_DIR_PROPERTY, value);
+      }
+   }
+
+   private static void delete(final File file) {
+      final File[] children = file.listFiles();
+      if (children != null) {
+         for (final File child : children) {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+   private static byte[] read(final File file) throws IOException {
+      final byte[] contents = new byte[(int) file.length()];
+      final FileInputStream in = new FileInputStream(file);
+      try {
+         int offset = 0;
+         while (offset < contents.length) {
+            final int read = in.read(contents, offset, contents.length - offset);
+            assertTrue(read > 0);
+            offset += read;
+         }
+      } finally {
+         in.close();
+      }
+      return contents;
+   }
+
+   private static String sha256(final byte[] contents) throws NoSuchAlgorithmException {
+      final StringBuilder hash = new StringBuilder();
+      for (final byte b : MessageDigest.getInstance("SHA-256").digest(contents)) {
+         hash.append(String.format("%02x", b & 0xff));
+      }
+      return hash.toString();
+   }
+}
@@ -0,0 +1,689 @@
+package com.luciad.imageio.webp;
+
+import static org.testng.Assert.*;
+
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * <code>WebPReaderTest</code> unit tests {@link WebPReader}.
+ */
+public class WebPReaderTest {
+   /**
+    * Tests that decoding from a stream produces the same pixels as decoding
+    * the fully buffered file.
+    *
+    * @param im
+    *           the image to encode and decode.
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(dataProvider = "createBasicImages", enabled = true)
+   public void testStreamingDecode(final RenderedImage im) throws IOException {
+      final byte[] data = encode(im);
+
+      final BufferedImage buffered = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         final BufferedImage streamed = WebP.decode(new WebPReadParam(), stream);
+         assertEquals(streamed.getWidth(), buffered.getWidth());
+         assertEquals(streamed.getHeight(), buffered.getHeight());
+         assertTrue(Arrays.equals(getPixels(streamed), getPixels(buffered)));
+      } finally {
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests that a truncated stream is reported as an error.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(expectedExceptions = IOException.class)
+   public void testStreamingDecodeTruncated() throws IOException {
+      final byte[] data = encode(loadImage("1.png"));
+      final byte[] truncated = new byte[data.length / 2];
+      System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(truncated));
+      try {
+         WebP.decode(new WebPReadParam(), stream);
+      } finally {
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests that a read param can be reused, and can no longer be used once it
+    * has been closed.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testCloseReadParam() throws IOException {
+      final byte[] data = encode(loadImage("1.png"));
+      final WebPReadParam readParam = new WebPReadParam();
+      final BufferedImage first = WebP.decode(readParam, data, 0, data.length);
+      final BufferedImage second = WebP.decode(readParam, data, 0, data.length);
+      assertTrue(Arrays.equals(getPixels(second), getPixels(first)));
+
+      readParam.close();
+      readParam.close();
+      WebP.decode(readParam, data, 0, data.length);
+   }
+
+   /**
+    * Tests that the reader reports the image dimensions from the header.
+    *
+    * @param im
+    *           the image to encode and probe.
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test(dataProvider = "createBasicImages", enabled = true)
+   public void testGetWidthHeight(final RenderedImage im) throws IOException {
+      final byte[] data = encode(im);
+
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         assertEquals(reader.getWidth(0), im.getWidth());
+         assertEquals(reader.getHeight(0), im.getHeight());
+         assertEquals(stream.getStreamPosition(), 0);
+
+         final BufferedImage decoded = reader.read(0);
+         assertEquals(decoded.getWidth(), im.getWidth());
+         assertEquals(decoded.getHeight(), im.getHeight());
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests probing the features of lossy and lossless images from the
+    * different input types.
+    *
+    * @throws IOException
+    *            if unable to encode or probe the image.
+    */
+   @Test
+   public void testProbe() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType("Lossless");
+      final byte[] data = encode(im, writeParam);
+
+      final WebPFeatures features = WebPFeatures.probe(data);
+      assertEquals(features.getWidth(), im.getWidth());
+      assertEquals(features.getHeight(), im.getHeight());
+      assertTrue(features.isLossless());
+      assertFalse(features.hasAnimation());
+
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data).flip();
+      assertEquals(WebPFeatures.probe(buffer).toString(), features.toString());
+      assertEquals(buffer.position(), 0);
+
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         assertEquals(WebPFeatures.probe(stream).toString(), features.toString());
+         assertEquals(stream.getStreamPosition(), 0);
+      } finally {
+         stream.close();
+      }
+
+      writeParam.setCompressionType("Lossy");
+      assertEquals(WebPFeatures.probe(encode(im, writeParam)).getFormat(), WebPFeatures.Format.LOSSY);
+   }
+
+   /**
+    * Tests that probing a truncated header is reported as an error.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(expectedExceptions = IOException.class)
+   public void testProbeTruncated() throws IOException {
+      final byte[] data = encode(loadImage("1.png"));
+      WebPFeatures.probe(data, 0, 16);
+   }
+
+   /**
+    * Tests that decoding without pinning the data and pixel arrays produces
+    * the same pixels, into a new image and into a destination.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testDecodePinFree() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final byte[] data = encode(im);
+      final WebPReadParam readParam = new WebPReadParam();
+      readParam.setPinFree(false);
+      final BufferedImage expected = WebP.decode(readParam, data, 0, data.length);
+
+      readParam.setPinFree(true);
+      final BufferedImage decoded = WebP.decode(readParam, data, 0, data.length);
+      assertTrue(Arrays.equals(getPixels(decoded), getPixels(expected)));
+
+      final BufferedImage destination = new BufferedImage(im.getWidth(), im.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      WebP.decode(readParam, data, 0, data.length, destination);
+      assertTrue(Arrays.equals(getPixels(destination), getPixels(expected)));
+   }
+
+   /**
+    * Tests that decoding from a direct buffer into a direct pixel buffer
+    * produces the same pixels, in a row stride with padding.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testDecodeToBuffer() throws IOException {
+      final byte[] data = encode(loadImage("1.png"));
+      final BufferedImage expected = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      final int width = expected.getWidth();
+      final int height = expected.getHeight();
+
+      final ByteBuffer input = ByteBuffer.allocateDirect(data.length);
+      input.put(data).flip();
+      final int stride = width * 4 + 8;
+      final ByteBuffer pixels = ByteBuffer.allocateDirect(stride * height);
+      final Dimension size = WebP.decode(new WebPReadParam(), input, pixels, stride);
+      assertEquals(size, new Dimension(width, height));
+
+      final int[] rgb = getPixels(expected);
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            final int i = y * stride + x * 4;
+            final int argb = (pixels.get(i + 3) & 0xff) << 24 | (pixels.get(i) & 0xff) << 16
+                  | (pixels.get(i + 1) & 0xff) << 8 | pixels.get(i + 2) & 0xff;
+            assertEquals(argb, rgb[y * width + x], "Pixel " + x + "," + y);
+         }
+      }
+   }
+
+   /**
+    * Tests that the reader decodes into a destination image supplied through
+    * the read param, and that the destination can be reused.
+    *
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test
+   public void testReadIntoDestination() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final byte[] data = encode(im);
+      final BufferedImage expected = WebP.decode(new WebPReadParam(), data, 0, data.length);
+
+      final BufferedImage destination = new BufferedImage(im.getWidth() + 10, im.getHeight() + 10,
+            BufferedImage.TYPE_INT_ARGB);
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      try {
+         for (int i = 0; i < 2; i++) {
+            final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+            try {
+               reader.setInput(stream);
+               final ImageReadParam readParam = reader.getDefaultReadParam();
+               readParam.setDestination(destination);
+               assertSame(reader.read(0, readParam), destination);
+            } finally {
+               stream.close();
+            }
+         }
+      } finally {
+         reader.dispose();
+      }
+
+      assertTrue(Arrays.equals(getPixels(destination.getSubimage(0, 0, im.getWidth(), im.getHeight())),
+            getPixels(expected)));
+   }
+
+   /**
+    * Tests that the reader honours the destination type of the read param.
+    *
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test
+   public void testReadDestinationType() throws IOException {
+      final byte[] data = encode(loadImage("2.png"));
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         final ImageReadParam readParam = new ImageReadParam();
+         readParam.setDestinationType(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+         assertEquals(reader.read(0, readParam).getType(), BufferedImage.TYPE_INT_RGB);
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests that an incompatible destination image is rejected.
+    *
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test(expectedExceptions = IIOException.class)
+   public void testReadIntoUnsupportedDestination() throws IOException {
+      final byte[] data = encode(loadImage("1.png"));
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         final ImageReadParam readParam = reader.getDefaultReadParam();
+         readParam.setDestination(new BufferedImage(reader.getWidth(0), reader.getHeight(0),
+               BufferedImage.TYPE_3BYTE_BGR));
+         reader.read(0, readParam);
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests that a source region at odd coordinates and a destination offset
+    * produce the same pixels as the corresponding part of the full image.
+    *
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test
+   public void testReadSourceRegion() throws IOException {
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType("Lossless");
+      final byte[] data = encode(loadImage("1.png"), writeParam);
+      final BufferedImage expected = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      final Rectangle region = new Rectangle(3, 5, expected.getWidth() / 2, expected.getHeight() / 2);
+
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         final ImageReadParam readParam = reader.getDefaultReadParam();
+         readParam.setSourceRegion(region);
+         readParam.setDestinationOffset(new Point(2, 1));
+         final BufferedImage decoded = reader.read(0, readParam);
+         assertEquals(decoded.getWidth(), region.width + 2);
+         assertEquals(decoded.getHeight(), region.height + 1);
+         assertTrue(Arrays.equals(getPixels(decoded.getSubimage(2, 1, region.width, region.height)),
+               getPixels(expected.getSubimage(region.x, region.y, region.width, region.height))));
+         assertFalse(((WebPReadParam) readParam).isUseCropping());
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests that subsampling is applied while decoding.
+    *
+    * @throws IOException
+    *            if unable to encode or read the image.
+    */
+   @Test
+   public void testReadSubsampling() throws IOException {
+      final RenderedImage im = loadImage("2.png");
+      final byte[] data = encode(im);
+
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         final ImageReadParam readParam = new ImageReadParam();
+         readParam.setSourceSubsampling(2, 3, 0, 0);
+         final BufferedImage decoded = reader.read(0, readParam);
+         assertEquals(decoded.getWidth(), (im.getWidth() + 1) / 2);
+         assertEquals(decoded.getHeight(), (im.getHeight() + 2) / 3);
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Tests reading {@link File} and {@link FileChannel} inputs, both small
+    * files that are read and larger files that are memory mapped.
+    *
+    * @param quality
+    *           the quality to encode the file with; the highest quality
+    *           makes it larger than the files that are read instead of
+    *           mapped.
+    * @throws IOException
+    *            if unable to encode, write or read the image.
+    */
+   @Test(dataProvider = "createFileQualities", enabled = true)
+   public void testReadFile(final float quality) throws IOException {
+      final ImageWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      writeParam.setCompressionType("Lossy");
+      writeParam.setCompressionQuality(quality);
+      final byte[] data = encode(loadImage("3.png"), writeParam);
+      assertEquals(data.length >= 64 * 1024, quality == 1f);
+      final BufferedImage expected = WebP.decode(new WebPReadParam(), data, 0, data.length);
+
+      final File file = File.createTempFile("webp", ".webp");
+      try {
+         final FileOutputStream out = new FileOutputStream(file);
+         try {
+            out.write(data);
+         } finally {
+            out.close();
+         }
+
+         final Iterator<ImageReader> readers = ImageIO.getImageReaders(file);
+         assertTrue(readers.hasNext());
+         final ImageReader reader = readers.next();
+         try {
+            reader.setInput(file);
+            assertEquals(reader.getWidth(0), expected.getWidth());
+            assertTrue(Arrays.equals(getPixels(reader.read(0)), getPixels(expected)));
+
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+               final FileChannel channel = randomAccessFile.getChannel();
+               reader.setInput(channel);
+               final ImageReadParam readParam = reader.getDefaultReadParam();
+               readParam.setSourceRegion(new Rectangle(1, 1, 10, 10));
+               final BufferedImage decoded = reader.read(0, readParam);
+               assertTrue(Arrays.equals(getPixels(decoded), getPixels(expected.getSubimage(1, 1, 10, 10))));
+               assertEquals(channel.position(), 0);
+            } finally {
+               randomAccessFile.close();
+            }
+         } finally {
+            reader.dispose();
+         }
+      } finally {
+         file.delete();
+      }
+   }
+
+   /**
+    * Tests that the frames of an animation are composited according to their
+    * blend and dispose methods, in any order.
+    *
+    * @throws IOException
+    *            if unable to encode or read the animation.
+    */
+   @Test
+   public void testReadAnimation() throws IOException {
+      final BufferedImage[] frames = new BufferedImage[] { createImage(16, 16, 0xffff0000),
+            createImage(8, 8, 0x800000ff), createImage(4, 4, 0xff00ff00), createImage(4, 4, 0x80ffffff) };
+      final Point[] offsets = new Point[] { new Point(0, 0), new Point(4, 4), new Point(0, 0), new Point(10, 10) };
+      final boolean[] blend = new boolean[] { false, true, false, true };
+      final boolean[] dispose = new boolean[] { true, false, false, false };
+      final byte[] data = createAnimation(16, 16, frames, offsets, blend, dispose);
+
+      final int[][] expected = new int[frames.length][];
+      final BufferedImage canvas = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+      final Graphics2D graphics = canvas.createGraphics();
+      for (int i = 0; i < frames.length; i++) {
+         if (i > 0 && dispose[i - 1]) {
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(offsets[i - 1].x, offsets[i - 1].y, frames[i - 1].getWidth(), frames[i - 1].getHeight());
+         }
+         graphics.setComposite(blend[i] ? AlphaComposite.SrcOver : AlphaComposite.Src);
+         graphics.drawImage(frames[i], offsets[i].x, offsets[i].y, null);
+         expected[i] = getPixels(canvas);
+      }
+      graphics.dispose();
+
+      final ImageReader reader = ImageIO.getImageReadersByFormatName("webp").next();
+      final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+      try {
+         reader.setInput(stream);
+         assertEquals(reader.getWidth(0), 16);
+         assertEquals(reader.getHeight(0), 16);
+         assertEquals(reader.getNumImages(false), -1);
+         reader.setInput(stream);
+         assertSimilar(getPixels(reader.read(0)), expected[0]);
+         assertEquals(reader.getNumImages(true), frames.length);
+         assertEquals(reader.getNumImages(false), frames.length);
+         assertEquals(reader.getWidth(3), 16);
+         for (final int i : new int[] { 3, 1, 0, 2, 3 }) {
+            assertSimilar(getPixels(reader.read(i)), expected[i]);
+         }
+
+         final ImageReadParam readParam = reader.getDefaultReadParam();
+         readParam.setSourceRegion(new Rectangle(8, 8, 8, 8));
+         assertSimilar(getPixels(reader.read(3, readParam)), getPixels(canvas.getSubimage(8, 8, 8, 8)));
+      } finally {
+         reader.dispose();
+         stream.close();
+      }
+   }
+
+   /**
+    * Asserts that the color components of the non-transparent pixels differ
+    * by at most 2.
+    *
+    * @param actual
+    *           the actual pixels.
+    * @param expected
+    *           the expected pixels.
+    */
+   private void assertSimilar(final int[] actual, final int[] expected) {
+      assertEquals(actual.length, expected.length);
+      for (int i = 0; i < actual.length; i++) {
+         if ((actual[i] >>> 24) == 0 && (expected[i] >>> 24) == 0) {
+            continue;
+         }
+         for (int shift = 0; shift < 32; shift += 8) {
+            final int difference = ((actual[i] >>> shift) & 0xff) - ((expected[i] >>> shift) & 0xff);
+            assertTrue(Math.abs(difference) <= 2, "Pixel " + i + ": " + Integer.toHexString(actual[i]) + " != "
+                  + Integer.toHexString(expected[i]));
+         }
+      }
+   }
+
+   /**
+    * Creates an image filled with a single color.
+    *
+    * @param width
+    *           the width of the image.
+    * @param height
+    *           the height of the image.
+    * @param argb
+    *           the color.
+    * @return the image.
+    */
+   private BufferedImage createImage(final int width, final int height, final int argb) {
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            image.setRGB(x, y, argb);
+         }
+      }
+      return image;
+   }
+
+   /**
+    * Creates an animated WebP file with lossless frames.
+    *
+    * @param width
+    *           the width of the canvas.
+    * @param height
+    *           the height of the canvas.
+    * @param frames
+    *           the frames.
+    * @param offsets
+    *           the even offsets of the frames.
+    * @param blend
+    *           whether the frames are blended with the canvas.
+    * @param dispose
+    *           whether the frames are disposed to the background.
+    * @return the animation.
+    * @throws IOException
+    *            if unable to encode the frames.
+    */
+   private byte[] createAnimation(final int width, final int height, final BufferedImage[] frames,
+         final Point[] offsets, final boolean[] blend, final boolean[] dispose) throws IOException {
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType("Lossless");
+
+      final ByteBuffer chunks = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+      chunks.put("VP8X".getBytes("US-ASCII")).putInt(10).putInt(0x12);
+      putInt24(chunks, width - 1);
+      putInt24(chunks, height - 1);
+      chunks.put("ANIM".getBytes("US-ASCII")).putInt(6).putInt(0).putShort((short) 0);
+      for (int i = 0; i < frames.length; i++) {
+         final byte[] frame = encode(frames[i], writeParam);
+         chunks.put("ANMF".getBytes("US-ASCII")).putInt(16 + frame.length - 12);
+         putInt24(chunks, offsets[i].x / 2);
+         putInt24(chunks, offsets[i].y / 2);
+         putInt24(chunks, frames[i].getWidth() - 1);
+         putInt24(chunks, frames[i].getHeight() - 1);
+         putInt24(chunks, 100);
+         chunks.put((byte) ((blend[i] ? 0 : 2) | (dispose[i] ? 1 : 0)));
+         chunks.put(frame, 12, frame.length - 12);
+      }
+      chunks.flip();
+
+      final ByteBuffer file = ByteBuffer.allocate(12 + chunks.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+      file.put("RIFF".getBytes("US-ASCII")).putInt(4 + chunks.remaining()).put("WEBP".getBytes("US-ASCII"));
+      file.put(chunks);
+      return file.array();
+   }
+
+   /**
+    * Writes a 24 bit little endian value.
+    *
+    * @param buffer
+    *           the buffer to write to.
+    * @param value
+    *           the value.
+    */
+   private void putInt24(final ByteBuffer buffer, final int value) {
+      buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+   }
+
+   /**
+    * The data provider for {@link #testReadFile(float)}.
+    *
+    * @return the qualities to encode the file with.
+    */
+   @DataProvider
+   public Object[][] createFileQualities() {
+      return new Object[][] { new Object[] { 0.75f }, new Object[] { 1f } };
+   }
+
+   /**
+    * The data provider for {@link #testStreamingDecode(RenderedImage)}.
+    *
+    * @return the test images.
+    * @throws IOException
+    *            if unable to read one of the test images.
+    */
+   @DataProvider
+   public Object[][] createBasicImages() throws IOException {
+      return new Object[][] { new Object[] { loadImage("1.png") },
+            new Object[] { loadImage("2.png") },
+            new Object[] { loadImage("3.png") },
+            new Object[] { loadImage("4.png") },
+            new Object[] { loadImage("5.png") } };
+   }
+
+   /**
+    * Encodes the image using the default WebP settings.
+    *
+    * @param im
+    *           the image to encode.
+    * @return the encoded image.
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   private byte[] encode(final RenderedImage im) throws IOException {
+      final ByteArrayOutputStream baoStream = new ByteArrayOutputStream();
+      ImageIO.write(im, "webp", baoStream);
+      return baoStream.toByteArray();
+   }
+
+   /**
+    * Encodes the image using the given WebP settings.
+    *
+    * @param im
+    *           the image to encode.
+    * @param writeParam
+    *           the encoder settings.
+    * @return the encoded image.
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   private byte[] encode(final RenderedImage im, final ImageWriteParam writeParam) throws IOException {
+      final ByteArrayOutputStream baoStream = new ByteArrayOutputStream();
+      final ImageWriter writer = ImageIO.getImageWritersByFormatName("webp").next();
+      final ImageOutputStream stream = ImageIO.createImageOutputStream(baoStream);
+      try {
+         writer.setOutput(stream);
+         writer.write(null, new IIOImage(im, null, null), writeParam);
+      } finally {
+         writer.dispose();
+         stream.close();
+      }
+      return baoStream.toByteArray();
+   }
+
+   /**
+    * Returns the pixels of the image as packed ARGB values.
+    *
+    * @param image
+    *           the image.
+    * @return the pixels.
+    */
+   private int[] getPixels(final BufferedImage image) {
+      return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+   }
+
+   /**
+    * Loads the image with the given name.
+    *
+    * @param name
+    *           the name of the image to load.
+    * @return the requested image.
+    * @throws IOException
+    *            if unable to read the image.
+    */
+   private RenderedImage loadImage(final String name) throws IOException {
+      final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      return ImageIO.read(classLoader.getResource(name));
+   }
+}
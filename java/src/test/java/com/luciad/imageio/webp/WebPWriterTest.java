@@ -2,22 +2,50 @@ package com.luciad.imageio.webp;
 
 import static org.testng.Assert.*;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.management.ObjectName;
 import javax.media.jai.Interpolation;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.operator.ScaleDescriptor;
 
+import org.testng.SkipException;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -31,6 +59,9 @@ public class WebPWriterTest {
    /** The "lossless" compression type. */
    private static final String LOSSLESS_COMPRESSION_TYPE = "Lossless";
 
+   /** The "auto" compression type. */
+   private static final String AUTO_COMPRESSION_TYPE = "Auto";
+
    /**
     * Tests writing WebP images using
     * {@link ImageIO#write(RenderedImage, String, java.io.OutputStream)}.
@@ -185,6 +216,1217 @@ public class WebPWriterTest {
             new Object[] { loadImage("5.png"), .2f, .2f, "5_.2x.2.webp" } };
    }
 
+   /**
+    * Tests that images of the raster types that are encoded straight from
+    * their backing array round-trip losslessly, including child rasters.
+    *
+    * @param imageType
+    *           the {@link BufferedImage} type.
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(dataProvider = "createRasterTypes", enabled = true)
+   public void testEncodeRasterTypes(final int imageType) throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage parent = new BufferedImage(im.getWidth() + 5, im.getHeight() + 6, imageType);
+      final Graphics2D graphics = parent.createGraphics();
+      graphics.drawRenderedImage(im, AffineTransform.getTranslateInstance(3, 4));
+      graphics.dispose();
+      final BufferedImage image = parent.getSubimage(3, 4, im.getWidth(), im.getHeight());
+
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      final byte[] data = WebP.encode(writeParam, image);
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+      final int[] actual = decoded.getRGB(0, 0, width, height, null, 0, width);
+      for (int i = 0; i < expected.length; i++) {
+         if ((expected[i] >>> 24) != 0) {
+            assertEquals(actual[i], expected[i], "Pixel " + i);
+         }
+      }
+   }
+
+   /**
+    * Tests that encoding without pinning the pixel arrays produces the same
+    * file, for images that are encoded from their raster and images that are
+    * converted first.
+    *
+    * @param imageType
+    *           the {@link BufferedImage} type.
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(dataProvider = "createPinFreeTypes", enabled = true)
+   public void testEncodePinFree(final int imageType) throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage parent = new BufferedImage(im.getWidth() + 5, im.getHeight() + 6, imageType);
+      final Graphics2D graphics = parent.createGraphics();
+      graphics.drawRenderedImage(im, AffineTransform.getTranslateInstance(3, 4));
+      graphics.dispose();
+      final BufferedImage image = parent.getSubimage(3, 4, im.getWidth(), im.getHeight());
+
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setPinFree(false);
+      final byte[] expected = WebP.encode(writeParam, image);
+      writeParam.setPinFree(true);
+      assertTrue(Arrays.equals(WebP.encode(writeParam, image), expected));
+   }
+
+   /**
+    * The data provider for {@link #testEncodePinFree(int)}.
+    *
+    * @return the image types.
+    */
+   @DataProvider
+   public Object[][] createPinFreeTypes() {
+      return new Object[][] { new Object[] { BufferedImage.TYPE_INT_ARGB },
+            new Object[] { BufferedImage.TYPE_3BYTE_BGR },
+            new Object[] { BufferedImage.TYPE_USHORT_565_RGB } };
+   }
+
+   /**
+    * Tests that RGBA pixels in a direct buffer round-trip losslessly.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testEncodeBuffer() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage image = new BufferedImage(im.getWidth(), im.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      final Graphics2D graphics = image.createGraphics();
+      graphics.drawRenderedImage(im, new AffineTransform());
+      graphics.dispose();
+
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+      final int stride = width * 4 + 4;
+      final ByteBuffer pixels = ByteBuffer.allocateDirect(stride * height);
+      for (int y = 0; y < height; y++) {
+         pixels.position(y * stride);
+         for (int x = 0; x < width; x++) {
+            final int argb = expected[y * width + x];
+            pixels.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >>> 24));
+         }
+      }
+      pixels.clear();
+
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      final byte[] data = WebP.encode(writeParam, pixels, width, height, stride, true);
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      final int[] actual = decoded.getRGB(0, 0, width, height, null, 0, width);
+      for (int i = 0; i < expected.length; i++) {
+         if ((expected[i] >>> 24) != 0) {
+            assertEquals(actual[i], expected[i], "Pixel " + i);
+         }
+      }
+   }
+
+   /**
+    * The data provider for {@link #testEncodeRasterTypes(int)}.
+    *
+    * @return the image types.
+    */
+   @DataProvider
+   public Object[][] createRasterTypes() {
+      return new Object[][] { new Object[] { BufferedImage.TYPE_INT_ARGB },
+            new Object[] { BufferedImage.TYPE_INT_RGB },
+            new Object[] { BufferedImage.TYPE_4BYTE_ABGR },
+            new Object[] { BufferedImage.TYPE_3BYTE_BGR } };
+   }
+
+   /**
+    * Tests that tiled images with a non-zero origin, and image types that are
+    * converted pixel by pixel, round-trip losslessly.
+    *
+    * @param imageType
+    *           the {@link BufferedImage} type of the pixels.
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(dataProvider = "createTiledTypes", enabled = true)
+   public void testEncodeTiledImage(final int imageType) throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage image = new BufferedImage(im.getWidth(), im.getHeight(), imageType);
+      final Graphics2D graphics = image.createGraphics();
+      graphics.drawRenderedImage(im, new AffineTransform());
+      graphics.dispose();
+
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      final byte[] data = WebP.encode(writeParam, new TiledImage(image, 5, 7, 16));
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+      final int[] actual = decoded.getRGB(0, 0, width, height, null, 0, width);
+      for (int i = 0; i < expected.length; i++) {
+         if ((expected[i] >>> 24) != 0) {
+            assertEquals(actual[i], expected[i], "Pixel " + i);
+         }
+      }
+   }
+
+   /**
+    * The data provider for {@link #testEncodeTiledImage(int)}.
+    *
+    * @return the image types.
+    */
+   @DataProvider
+   public Object[][] createTiledTypes() {
+      return new Object[][] { new Object[] { BufferedImage.TYPE_INT_ARGB },
+            new Object[] { BufferedImage.TYPE_INT_BGR },
+            new Object[] { BufferedImage.TYPE_4BYTE_ABGR },
+            new Object[] { BufferedImage.TYPE_3BYTE_BGR },
+            new Object[] { BufferedImage.TYPE_USHORT_565_RGB },
+            new Object[] { BufferedImage.TYPE_BYTE_GRAY },
+            new Object[] { BufferedImage.TYPE_USHORT_GRAY },
+            new Object[] { BufferedImage.TYPE_BYTE_INDEXED },
+            new Object[] { BufferedImage.TYPE_BYTE_BINARY } };
+   }
+
+   /**
+    * Tests that only the source region of the write param is encoded, for
+    * images that are encoded from their raster, converted pixel by pixel, or
+    * tiled with a non-zero origin.
+    *
+    * @param imageType
+    *           the {@link BufferedImage} type of the pixels.
+    * @param tiled
+    *           whether to encode the image as tiles.
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(dataProvider = "createSourceRegionTypes", enabled = true)
+   public void testSourceRegion(final int imageType, final boolean tiled) throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage image = new BufferedImage(im.getWidth(), im.getHeight(), imageType);
+      final Graphics2D graphics = image.createGraphics();
+      graphics.drawRenderedImage(im, new AffineTransform());
+      graphics.dispose();
+      final RenderedImage source = tiled ? new TiledImage(image, 5, 7, 16) : image;
+
+      final Rectangle region = new Rectangle(3, 5, 41, 27);
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      writeParam.setSourceRegion(new Rectangle(source.getMinX() + region.x, source.getMinY() + region.y,
+            region.width, region.height));
+      final byte[] data = WebP.encode(writeParam, source);
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      assertEquals(decoded.getWidth(), region.width);
+      assertEquals(decoded.getHeight(), region.height);
+
+      final int[] expected = image.getRGB(region.x, region.y, region.width, region.height, null, 0, region.width);
+      final int[] actual = decoded.getRGB(0, 0, region.width, region.height, null, 0, region.width);
+      for (int i = 0; i < expected.length; i++) {
+         if ((expected[i] >>> 24) != 0) {
+            assertEquals(actual[i], expected[i], "Pixel " + i);
+         }
+      }
+   }
+
+   /**
+    * The data provider for {@link #testSourceRegion(int, boolean)}.
+    *
+    * @return the image types, and whether to tile the image.
+    */
+   @DataProvider
+   public Object[][] createSourceRegionTypes() {
+      return new Object[][] { new Object[] { BufferedImage.TYPE_INT_ARGB, false },
+            new Object[] { BufferedImage.TYPE_3BYTE_BGR, false },
+            new Object[] { BufferedImage.TYPE_USHORT_565_RGB, false },
+            new Object[] { BufferedImage.TYPE_INT_ARGB, true } };
+   }
+
+   /**
+    * Tests that the encoded image has the size of the subsampled source
+    * region, as for the other ImageIO writers.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testSourceSubsampling() throws IOException {
+      final RenderedImage image = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setSourceRegion(new Rectangle(10, 10, 40, 31));
+      writeParam.setSourceSubsampling(3, 2, 1, 1);
+      final byte[] data = WebP.encode(writeParam, image);
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      assertEquals(decoded.getWidth(), 13);
+      assertEquals(decoded.getHeight(), 15);
+   }
+
+   /**
+    * Tests that the "Auto" compression type encodes images with flat areas
+    * lossless, and noisy photographic images lossy.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testAutoCompression() throws IOException {
+      final BufferedImage screenshot = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+      fill(screenshot, new Rectangle(0, 0, 300, 200), 0xffeeeeee);
+      fill(screenshot, new Rectangle(0, 0, 300, 24), 0xff3366cc);
+      for (int i = 0; i < 10; i++) {
+         fill(screenshot, new Rectangle(10 + 28 * i, 40, 20, 12), 0xff000000 | 0x1f1f1f * i);
+      }
+      final Rectangle bounds = new Rectangle(300, 200);
+      assertEquals(WebPContentAnalyzer.analyze(screenshot, bounds), WebPContentAnalyzer.LOSSLESS);
+
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(AUTO_COMPRESSION_TYPE);
+      byte[] data = WebP.encode(writeParam, screenshot);
+      BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      assertTrue(Arrays.equals(decoded.getRGB(0, 0, 300, 200, null, 0, 300), screenshot.getRGB(0, 0, 300, 200, null, 0, 300)));
+
+      final BufferedImage photo = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+      final Random random = new Random(42);
+      for (int y = 0; y < 200; y++) {
+         for (int x = 0; x < 300; x++) {
+            final int grey = Math.min(255, x * 255 / 300 + random.nextInt(40));
+            photo.setRGB(x, y, grey << 16 | (y * 255 / 200) << 8 | random.nextInt(256));
+         }
+      }
+      assertEquals(WebPContentAnalyzer.analyze(photo, bounds), WebPContentAnalyzer.PRESET_PHOTO);
+
+      data = WebP.encode(writeParam, photo);
+      decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      assertFalse(Arrays.equals(decoded.getRGB(0, 0, 300, 200, null, 0, 300), photo.getRGB(0, 0, 300, 200, null, 0, 300)));
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      assertTrue(data.length < WebP.encode(writeParam, photo).length);
+   }
+
+   /**
+    * Tests that leaving the explicit compression mode after choosing the "Auto"
+    * compression type still encodes with a valid configuration.
+    *
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testAutoCompressionModeChange() throws IOException {
+      final BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+      fill(image, new Rectangle(0, 0, 40, 30), 0xff3366cc);
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(AUTO_COMPRESSION_TYPE);
+      for (final int mode : new int[] {ImageWriteParam.MODE_DEFAULT, ImageWriteParam.MODE_COPY_FROM_METADATA, ImageWriteParam.MODE_EXPLICIT}) {
+         writeParam.setCompressionMode(mode);
+         final byte[] data = WebP.encode(writeParam, image);
+         assertNotNull(data);
+         final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+         assertEquals(decoded.getWidth(), 40);
+      }
+      writeParam.setCompressionType(AUTO_COMPRESSION_TYPE);
+      writeParam.unsetCompression();
+      assertNotNull(WebP.encode(writeParam, image));
+   }
+
+   /**
+    * Tests that the writer reports its progress to the progress listeners,
+    * and stops encoding when it is aborted.
+    *
+    * @param abort
+    *           whether to abort the write at the first progress report.
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(dataProvider = "createAbort", enabled = true)
+   public void testWriteProgress(final boolean abort) throws IOException {
+      final RenderedImage image = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+
+      final ImageWriter writer = ImageIO.getImageWritersByMIMEType("image/webp").next();
+      final ProgressRecorder recorder = new ProgressRecorder(abort);
+      try {
+         writer.addIIOWriteProgressListener(recorder);
+         writer.setOutput(new ByteArrayOutputStream());
+         writer.write(null, new IIOImage(image, null, null), writeParam);
+      } finally {
+         writer.dispose();
+      }
+
+      assertTrue(recorder.started);
+      assertFalse(recorder.progress.isEmpty());
+      assertEquals(recorder.aborted, abort);
+      assertEquals(recorder.completed, !abort);
+      if (abort) {
+         assertEquals(recorder.progress.size(), 1);
+      } else {
+         assertEquals(recorder.progress.get(recorder.progress.size() - 1).floatValue(), 100f);
+      }
+   }
+
+   /**
+    * Tests that trials stop as soon as the encode has been aborted, rather
+    * than when the caller thread next reports progress.
+    *
+    * @throws IOException
+    *            when the encode has been aborted.
+    */
+   @Test(expectedExceptions = IOException.class)
+   public void testAbortTrials() throws IOException {
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      writeParam.setTrialQualities(0.5f, 0.8f);
+      WebP.encode(writeParam, loadImage("1.png"), new ByteArrayOutputStream(), new WebP.ProgressListener() {
+         @Override
+         public boolean update(final int percent) {
+            return true;
+         }
+
+         @Override
+         public boolean isAborted() {
+            return true;
+         }
+      });
+   }
+
+   /**
+    * The data provider for {@link #testWriteProgress(boolean)}.
+    *
+    * @return whether to abort the write.
+    */
+   @DataProvider
+   public Object[][] createAbort() {
+      return new Object[][] { new Object[] { false }, new Object[] { true } };
+   }
+
+   /**
+    * Tests that the encode result listener receives the statistics of lossy,
+    * lossless and trial encodes.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test
+   public void testEncodeResult() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage image = new BufferedImage(im.getWidth(), im.getHeight(), BufferedImage.TYPE_USHORT_565_RGB);
+      final Graphics2D graphics = image.createGraphics();
+      graphics.drawRenderedImage(im, new AffineTransform());
+      graphics.dispose();
+
+      final List<WebPEncodeResult> results = new ArrayList<WebPEncodeResult>();
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setEncodeResultListener(new WebPEncodeResult.Listener() {
+         @Override
+         public void imageEncoded(final WebPEncodeResult result) {
+            results.add(result);
+         }
+      });
+
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      final byte[] lossy = WebP.encode(writeParam, image);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      final byte[] lossless = WebP.encode(writeParam, image);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      writeParam.setTrialQualities(0.5f, 0.8f);
+      final byte[] trial = WebP.encode(writeParam, image);
+      assertEquals(results.size(), 3);
+
+      final WebPEncodeResult lossyResult = results.get(0);
+      assertEquals(lossyResult.getCodedSize(), lossy.length);
+      final int[] blocks = lossyResult.getBlockCounts();
+      assertEquals(blocks[0] + blocks[1], ((image.getWidth() + 15) / 16) * ((image.getHeight() + 15) / 16));
+      assertTrue(lossyResult.getPSNR()[3] > 20, "PSNR " + lossyResult.getPSNR()[3]);
+      assertTrue(lossyResult.getExtractTime() > 0);
+      assertTrue(lossyResult.getEncodeTime() > 0);
+      assertTrue(lossyResult.getTotalTime() >= lossyResult.getEncodeTime());
+
+      final WebPEncodeResult losslessResult = results.get(1);
+      assertEquals(losslessResult.getCodedSize(), lossless.length);
+      assertTrue(losslessResult.getLosslessSize() > 0);
+
+      final WebPEncodeResult trialResult = results.get(2);
+      assertEquals(trialResult.getCodedSize(), trial.length);
+      assertTrue(trialResult.getImportTime() > 0);
+   }
+
+   /**
+    * Tests that converted images with an alpha channel are encoded without
+    * alpha when all their pixels are opaque, and keep a mask of fully
+    * transparent pixels.
+    *
+    * @param transparent
+    *           whether to clear part of the image.
+    * @throws IOException
+    *            if unable to encode or decode the image.
+    */
+   @Test(dataProvider = "createTransparency", enabled = true)
+   public void testOpacityScan(final boolean transparent) throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage image = new BufferedImage(im.getWidth(), im.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      final Graphics2D graphics = image.createGraphics();
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+      graphics.drawRenderedImage(im, new AffineTransform());
+      if (transparent) {
+         graphics.setComposite(AlphaComposite.Clear);
+         graphics.fillRect(0, 0, image.getWidth() / 2, image.getHeight() / 2);
+      }
+      graphics.dispose();
+
+      final List<WebPEncodeResult> results = new ArrayList<WebPEncodeResult>();
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      writeParam.setEncodeResultListener(new WebPEncodeResult.Listener() {
+         @Override
+         public void imageEncoded(final WebPEncodeResult result) {
+            results.add(result);
+         }
+      });
+      final byte[] data = WebP.encode(writeParam, new TiledImage(image, 0, 0, 16));
+      assertEquals(results.get(0).getAlphaDataSize() > 0, transparent);
+
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+      final int[] actual = decoded.getRGB(0, 0, width, height, null, 0, width);
+      for (int i = 0; i < expected.length; i++) {
+         assertEquals(actual[i] >>> 24, expected[i] >>> 24, "Alpha of pixel " + i);
+      }
+   }
+
+   /**
+    * The data provider for {@link #testOpacityScan(boolean)}.
+    *
+    * @return whether to clear part of the image.
+    */
+   @DataProvider
+   public Object[][] createTransparency() {
+      return new Object[][] { new Object[] { false }, new Object[] { true } };
+   }
+
+   /**
+    * Tests that a write param can be reused, and can no longer be used once
+    * it has been closed.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testCloseWriteParam() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      final byte[] first = WebP.encode(writeParam, im);
+      assertTrue(Arrays.equals(WebP.encode(writeParam, im), first));
+
+      writeParam.close();
+      writeParam.close();
+      WebP.encode(writeParam, im);
+   }
+
+   /**
+    * Tests that a write param can be closed while the trials that timed out
+    * still encode with its configuration.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    * @throws InterruptedException
+    *            if interrupted while waiting for the trials.
+    */
+   @Test
+   public void testCloseDuringTrials() throws IOException, InterruptedException {
+      final RenderedImage im = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      writeParam.setTrialQualities(0.2f, 0.4f, 0.6f, 0.8f);
+      writeParam.setTrialMethods(0, 6);
+      writeParam.setTrialTimeout(1);
+      final ExecutorService executor = Executors.newFixedThreadPool(2);
+      writeParam.setTrialExecutor(executor);
+      try {
+         assertNotNull(WebP.encode(writeParam, im));
+         writeParam.close();
+      } finally {
+         executor.shutdown();
+      }
+      assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+   }
+
+   /**
+    * Tests that the settings of a write param start at the libwebp defaults,
+    * and that settings changed between encodes are used by the next encode.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test
+   public void testWriteParamSettings() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      assertEquals(writeParam.getMethod(), 4);
+      assertEquals(writeParam.getCompressionQuality(), 0.75f);
+      assertEquals(writeParam.getAlphaQuality(), 100);
+      assertFalse(writeParam.isReduceMemoryUsage());
+      final byte[] first = WebP.encode(writeParam, im);
+
+      writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      writeParam.setCompressionQuality(0.3f);
+      writeParam.setMethod(2);
+      writeParam.setTargetPSNR(30.5f);
+      writeParam.setTargetPSNR(0f);
+      writeParam.setReduceMemoryUsage(true);
+      assertEquals(writeParam.getMethod(), 2);
+      assertEquals(writeParam.getCompressionQuality(), 0.3f);
+      assertEquals(writeParam.getTargetPSNR(), 0f);
+      assertTrue(writeParam.isReduceMemoryUsage());
+      final byte[] second = WebP.encode(writeParam, im);
+      assertFalse(Arrays.equals(second, first));
+
+      final WebPWriteParam other = new WebPWriteParam(null);
+      other.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      other.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      other.setCompressionQuality(0.3f);
+      other.setMethod(2);
+      assertTrue(Arrays.equals(WebP.encode(other, im), second));
+   }
+
+   /**
+    * Tests that encodes, decodes and the native memory they use are counted
+    * by the codec statistics, which are registered with the platform MBean
+    * server.
+    *
+    * @throws Exception
+    *            if unable to encode or decode the image.
+    */
+   @Test
+   public void testCodecStats() throws Exception {
+      final RenderedImage im = loadImage("1.png");
+      final WebPCodecStats stats = WebPCodecStats.getInstance();
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      assertTrue(ManagementFactory.getPlatformMBeanServer()
+            .isRegistered(new ObjectName(WebPCodecStats.OBJECT_NAME)));
+
+      stats.resetCounters();
+      stats.resetPeakNativeBytes();
+      final long nativeBytes = stats.getNativeBytes();
+      final byte[] data = WebP.encode(writeParam, im);
+      assertEquals(stats.getEncodeCount(), 1);
+      assertEquals(stats.getEncodeBytesIn(), 4L * im.getWidth() * im.getHeight());
+      assertEquals(stats.getEncodeBytesOut(), data.length);
+      assertTrue(stats.getPeakNativeBytes() >= nativeBytes + data.length);
+      assertTrue(stats.getNativeBytes() <= nativeBytes);
+
+      final BufferedImage decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+      assertEquals(stats.getDecodeCount(), 1);
+      assertEquals(stats.getDecodeBytesIn(), data.length);
+      assertEquals(stats.getDecodeBytesOut(), 4L * decoded.getWidth() * decoded.getHeight());
+      long decodes = 0;
+      for (final long latency : stats.getDecodeLatencies()) {
+         decodes += latency;
+      }
+      assertEquals(decodes, 1);
+      writeParam.close();
+   }
+
+   /**
+    * Tests that encodes and decodes are recorded as Flight Recorder events
+    * with the size, alpha, compression and timing of the image. Skipped when
+    * Flight Recorder is not available.
+    *
+    * @throws Exception
+    *            if unable to encode or decode the image, or to record or read
+    *            the events.
+    */
+   @Test
+   public void testFlightRecorderEvents() throws Exception {
+      final Class<?> recordingClass;
+      try {
+         recordingClass = Class.forName("jdk.jfr.Recording");
+      } catch (final ClassNotFoundException e) {
+         throw new SkipException("Flight Recorder is not available");
+      }
+      final Class<?> pathClass = Class.forName("java.nio.file.Path");
+      final BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+      fill(image, new Rectangle(0, 0, 40, 30), 0x80ff0000);
+      fill(image, new Rectangle(10, 5, 20, 10), 0xff00ff00);
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+
+      final File file = File.createTempFile("webp", ".jfr");
+      final Object recording = recordingClass.getConstructor().newInstance();
+      final byte[] data;
+      final BufferedImage decoded;
+      try {
+         recordingClass.getMethod("enable", String.class).invoke(recording, "com.luciad.imageio.webp.Decode");
+         recordingClass.getMethod("enable", String.class).invoke(recording, "com.luciad.imageio.webp.Encode");
+         recordingClass.getMethod("start").invoke(recording);
+         data = WebP.encode(writeParam, image);
+         decoded = WebP.decode(new WebPReadParam(), data, 0, data.length);
+         recordingClass.getMethod("stop").invoke(recording);
+         recordingClass.getMethod("dump", pathClass).invoke(recording, File.class.getMethod("toPath").invoke(file));
+      } finally {
+         recordingClass.getMethod("close").invoke(recording);
+         writeParam.close();
+      }
+
+      try {
+         final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+               .getMethod("readAllEvents", pathClass).invoke(null, File.class.getMethod("toPath").invoke(file));
+         final Class<?> eventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+         final Class<?> objectClass = Class.forName("jdk.jfr.consumer.RecordedObject");
+         final Method getEventType = eventClass.getMethod("getEventType");
+         final Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+         final Method getInt = objectClass.getMethod("getInt", String.class);
+         final Method getLong = objectClass.getMethod("getLong", String.class);
+         final Method getBoolean = objectClass.getMethod("getBoolean", String.class);
+         final Method getString = objectClass.getMethod("getString", String.class);
+         int encodes = 0;
+         int decodes = 0;
+         for (final Object event : events) {
+            final Object name = getName.invoke(getEventType.invoke(event));
+            if ("com.luciad.imageio.webp.Encode".equals(name)) {
+               encodes++;
+               assertEquals(getInt.invoke(event, "width"), 40);
+               assertEquals(getInt.invoke(event, "height"), 30);
+               assertEquals(getLong.invoke(event, "bytesIn"), 4L * 40 * 30);
+               assertEquals(getLong.invoke(event, "bytesOut"), (long) data.length);
+               assertEquals(getBoolean.invoke(event, "alpha"), true);
+               assertEquals(getBoolean.invoke(event, "lossless"), true);
+               assertEquals(getString.invoke(event, "extraction"), "raster");
+               assertTrue((Long) getLong.invoke(event, "nativeTime") > 0);
+            } else if ("com.luciad.imageio.webp.Decode".equals(name)) {
+               decodes++;
+               assertEquals(getInt.invoke(event, "width"), decoded.getWidth());
+               assertEquals(getInt.invoke(event, "height"), decoded.getHeight());
+               assertEquals(getLong.invoke(event, "bytesIn"), (long) data.length);
+               assertEquals(getLong.invoke(event, "bytesOut"), 4L * 40 * 30);
+               assertEquals(getBoolean.invoke(event, "alpha"), true);
+               assertTrue((Long) getLong.invoke(event, "nativeTime") > 0);
+            }
+         }
+         assertEquals(encodes, 1);
+         assertEquals(decodes, 1);
+      } finally {
+         file.delete();
+      }
+   }
+
+   /**
+    * Tests that the writer streams the same file to all supported output
+    * types as the one that is encoded in memory.
+    *
+    * @param output
+    *           the output of the writer.
+    * @param bytes
+    *           the stream that receives what is written to the output.
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(dataProvider = "createOutputs", enabled = true)
+   public void testWriteOutput(final Object output, final ByteArrayOutputStream bytes) throws IOException {
+      final RenderedImage image = loadImage("1.png");
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+      final byte[] expected = WebP.encode(writeParam, image);
+
+      final ImageWriter writer = ImageIO.getImageWritersByMIMEType("image/webp").next();
+      try {
+         writer.setOutput(output);
+         writer.write(null, new IIOImage(image, null, null), writeParam);
+      } finally {
+         writer.dispose();
+      }
+      if (output instanceof ImageOutputStream) {
+         ((ImageOutputStream) output).close();
+      }
+
+      assertEquals(bytes.toByteArray(), expected);
+   }
+
+   /**
+    * The data provider for {@link #testWriteOutput(Object, ByteArrayOutputStream)}.
+    *
+    * @return the outputs and the streams they write to.
+    * @throws IOException
+    *            if unable to create an output.
+    */
+   @DataProvider
+   public Object[][] createOutputs() throws IOException {
+      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      final ByteArrayOutputStream channel = new ByteArrayOutputStream();
+      final ByteArrayOutputStream imageStream = new ByteArrayOutputStream();
+      return new Object[][] { new Object[] { stream, stream },
+            new Object[] { Channels.newChannel(channel), channel },
+            new Object[] { new MemoryCacheImageOutputStream(imageStream), imageStream } };
+   }
+
+   /**
+    * Tests that a sequence is written as an animation that shows the frames
+    * as they were composited, with frames that change nothing merged into
+    * the previous frame when frames are minimized.
+    *
+    * @param minimizeFrames
+    *           whether frames are minimized.
+    * @param expectedFrames
+    *           the indices of the canvases that the animation shows.
+    * @throws IOException
+    *            if unable to write or read the animation.
+    */
+   @Test(dataProvider = "createSequenceOptions", enabled = true)
+   public void testWriteSequence(final boolean minimizeFrames, final int[] expectedFrames) throws IOException {
+      final BufferedImage[] canvases = createSequenceCanvases();
+      final byte[] data = writeSequence(minimizeFrames);
+
+      final ImageReader reader = ImageIO.getImageReadersByMIMEType("image/webp").next();
+      try {
+         reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+         assertEquals(reader.getNumImages(true), expectedFrames.length);
+         for (int i = 0; i < expectedFrames.length; i++) {
+            final BufferedImage expected = canvases[expectedFrames[i]];
+            final BufferedImage actual = reader.read(i);
+            assertEquals(actual.getWidth(), expected.getWidth());
+            assertEquals(actual.getHeight(), expected.getHeight());
+            for (int y = 0; y < expected.getHeight(); y++) {
+               for (int x = 0; x < expected.getWidth(); x++) {
+                  final int pixel = expected.getRGB(x, y);
+                  if ((pixel >>> 24) == 0) {
+                     assertEquals(actual.getRGB(x, y) >>> 24, 0, "Frame " + i + " pixel " + x + ", " + y);
+                  } else {
+                     assertEquals(actual.getRGB(x, y), pixel, "Frame " + i + " pixel " + x + ", " + y);
+                  }
+               }
+            }
+         }
+      } finally {
+         reader.dispose();
+      }
+   }
+
+   /**
+    * The data provider for {@link #testWriteSequence(boolean, int[])}.
+    *
+    * @return the options and the expected frames.
+    */
+   @DataProvider
+   public Object[][] createSequenceOptions() {
+      return new Object[][] { new Object[] { true, new int[] { 0, 1, 3, 4 } },
+            new Object[] { false, new int[] { 0, 1, 2, 3, 4 } } };
+   }
+
+   /**
+    * Tests that minimizing the frames of a sequence makes the file smaller.
+    *
+    * @throws IOException
+    *            if unable to write the animation.
+    */
+   @Test(enabled = true)
+   public void testMinimizeSequence() throws IOException {
+      assertTrue(writeSequence(true).length < writeSequence(false).length);
+   }
+
+   /**
+    * Tests that trial encoding keeps the best quality that fits the target
+    * size, and the smallest result that meets the target PSNR.
+    *
+    * @throws IOException
+    *            if unable to encode the image.
+    */
+   @Test(enabled = true)
+   public void testTrialEncoding() throws IOException {
+      final RenderedImage image = loadImage("1.png");
+      final float[] qualities = { 0.3f, 0.6f, 0.9f };
+      final int[] sizes = new int[qualities.length];
+      for (int i = 0; i < qualities.length; i++) {
+         final WebPWriteParam writeParam = new WebPWriteParam(null);
+         writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+         writeParam.setCompressionQuality(qualities[i]);
+         sizes[i] = WebP.encode(writeParam, image).length;
+      }
+      assertTrue(sizes[0] < sizes[1] && sizes[1] < sizes[2]);
+
+      final WebPWriteParam sizeParam = new WebPWriteParam(null);
+      sizeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      sizeParam.setTrialQualities(qualities);
+      sizeParam.setTargetSize((sizes[1] + sizes[2]) / 2);
+      final int size = WebP.encode(sizeParam, image).length;
+      assertTrue(size <= sizeParam.getTargetSize(), "Size " + size);
+      assertTrue(size > (sizes[0] + sizes[1]) / 2, "Size " + size);
+
+      final WebPWriteParam psnrParam = new WebPWriteParam(null);
+      psnrParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+      psnrParam.setTrialQualities(qualities);
+      psnrParam.setTrialMethods(2, 4);
+      psnrParam.setTargetPSNR(1);
+      final byte[] data = WebP.encode(psnrParam, image);
+      assertTrue(data.length < (sizes[0] + sizes[1]) / 2, "Size " + data.length);
+      assertEquals(WebP.decode(new WebPReadParam(), data, 0, data.length).getWidth(), image.getWidth());
+
+      // Trial methods alone use the configured quality, whatever the compression mode.
+      final WebPWriteParam methodParam = new WebPWriteParam(null);
+      methodParam.setCompressionMode(ImageWriteParam.MODE_DEFAULT);
+      methodParam.setTrialMethods(4);
+      final WebPWriteParam plainParam = new WebPWriteParam(null);
+      plainParam.setCompressionMode(ImageWriteParam.MODE_DEFAULT);
+      assertTrue(Arrays.equals(WebP.encode(methodParam, image), WebP.encode(plainParam, image)));
+   }
+
+   /**
+    * Tests that a batch encoder returns the same data as encoding the images
+    * one by one, in the order of the images, also when fewer images than
+    * threads may be pending.
+    *
+    * @param maxPending
+    *           the maximum number of pending images.
+    * @throws IOException
+    *            if unable to encode the images.
+    */
+   @Test(dataProvider = "createMaxPending", enabled = true)
+   public void testBatchEncoder(final int maxPending) throws IOException {
+      final BufferedImage[] images = createSequenceCanvases();
+      final WebPWriteParam writeParam = new WebPWriteParam(null);
+      writeParam.setCompressionType(LOSSY_COMPRESSION_TYPE);
+
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      final WebPBatchEncoder encoder = new WebPBatchEncoder(writeParam, executor, maxPending);
+      try {
+         final List<byte[]> encoded = encoder.encode(Arrays.asList(images));
+         assertEquals(encoded.size(), images.length);
+         for (int i = 0; i < images.length; i++) {
+            assertEquals(encoded.get(i), WebP.encode(writeParam, images[i]), "Image " + i);
+         }
+      } finally {
+         encoder.close();
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * The data provider for {@link #testBatchEncoder(int)}.
+    *
+    * @return the maximum numbers of pending images.
+    */
+   @DataProvider
+   public Object[][] createMaxPending() {
+      return new Object[][] { new Object[] { 1 }, new Object[] { 3 }, new Object[] { 16 } };
+   }
+
+   /**
+    * Writes the frames of {@link #createSequenceCanvases()} as an animation.
+    *
+    * @param minimizeFrames
+    *           whether frames are minimized.
+    * @return the encoded animation.
+    * @throws IOException
+    *            if unable to write the animation.
+    */
+   private byte[] writeSequence(final boolean minimizeFrames) throws IOException {
+      final BufferedImage[] canvases = createSequenceCanvases();
+      final BufferedImage patch = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+      fill(patch, new Rectangle(10, 10), 0x80336699);
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ImageWriter writer = ImageIO.getImageWritersByMIMEType("image/webp").next();
+      try {
+         writer.setOutput(bytes);
+         writer.prepareWriteSequence(null);
+         for (int i = 0; i < 5; i++) {
+            final WebPWriteParam writeParam = new WebPWriteParam(null);
+            writeParam.setCompressionType(LOSSLESS_COMPRESSION_TYPE);
+            writeParam.setMinimizeFrames(minimizeFrames);
+            writeParam.setFrameDuration(100 + i);
+            writeParam.setFrameBlending(false);
+            RenderedImage frame = canvases[i];
+            if (i == 3) {
+               writeParam.setFrameOffset(4, 6);
+               writeParam.setDisposeFrameToBackground(true);
+               frame = patch;
+            } else if (i == 4) {
+               writeParam.setFrameBlending(true);
+               frame = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+            }
+            writer.writeToSequence(new IIOImage(frame, null, null), writeParam);
+         }
+         writer.endWriteSequence();
+      } finally {
+         writer.dispose();
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Creates the canvases that the frames of {@link #writeSequence(boolean)}
+    * should show: an image, the image with a changed area at odd
+    * coordinates, the same image again, a translucent patch that replaces
+    * part of the canvas, and the canvas with the patch disposed.
+    *
+    * @return the canvases.
+    * @throws IOException
+    *            if unable to load the image.
+    */
+   private BufferedImage[] createSequenceCanvases() throws IOException {
+      final RenderedImage im = loadImage("1.png");
+      final BufferedImage[] canvases = new BufferedImage[5];
+      canvases[0] = new BufferedImage(im.getWidth(), im.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      final Graphics2D graphics = canvases[0].createGraphics();
+      graphics.drawRenderedImage(im, new AffineTransform());
+      graphics.dispose();
+      canvases[1] = copy(canvases[0]);
+      fill(canvases[1], new Rectangle(13, 9, 7, 5), 0xffff0000);
+      canvases[2] = copy(canvases[1]);
+      canvases[3] = copy(canvases[2]);
+      fill(canvases[3], new Rectangle(4, 6, 10, 10), 0x80336699);
+      canvases[4] = copy(canvases[3]);
+      fill(canvases[4], new Rectangle(4, 6, 10, 10), 0);
+      return canvases;
+   }
+
+   /**
+    * Copies an image.
+    *
+    * @param image
+    *           the image to copy.
+    * @return the copy.
+    */
+   private static BufferedImage copy(final BufferedImage image) {
+      final BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+      copy.setData(image.getRaster());
+      return copy;
+   }
+
+   /**
+    * Sets the pixels of an area of an image, without blending.
+    *
+    * @param image
+    *           the image to modify.
+    * @param area
+    *           the area to fill.
+    * @param argb
+    *           the non-premultiplied ARGB value of the pixels.
+    */
+   private static void fill(final BufferedImage image, final Rectangle area, final int argb) {
+      for (int y = area.y; y < area.y + area.height; y++) {
+         for (int x = area.x; x < area.x + area.width; x++) {
+            image.setRGB(x, y, argb);
+         }
+      }
+   }
+
+   /**
+    * An {@link IIOWriteProgressListener} that records the events of a write,
+    * and can abort the write as soon as it makes progress.
+    */
+   private static final class ProgressRecorder implements IIOWriteProgressListener {
+      /** Whether to abort the write at the first progress report. */
+      private final boolean abort;
+
+      /** The reported percentages. */
+      final List<Float> progress = new ArrayList<Float>();
+
+      /** Whether the write has started. */
+      boolean started;
+
+      /** Whether the write has completed. */
+      boolean completed;
+
+      /** Whether the write has been aborted. */
+      boolean aborted;
+
+      /**
+       * Creates a new recorder.
+       *
+       * @param abort
+       *           whether to abort the write at the first progress report.
+       */
+      ProgressRecorder(final boolean abort) {
+         this.abort = abort;
+      }
+
+      @Override
+      public void imageStarted(final ImageWriter source, final int imageIndex) {
+         started = true;
+      }
+
+      @Override
+      public void imageProgress(final ImageWriter source, final float percentageDone) {
+         progress.add(percentageDone);
+         if (abort) {
+            source.abort();
+         }
+      }
+
+      @Override
+      public void imageComplete(final ImageWriter source) {
+         completed = true;
+      }
+
+      @Override
+      public void thumbnailStarted(final ImageWriter source, final int imageIndex, final int thumbnailIndex) {
+      }
+
+      @Override
+      public void thumbnailProgress(final ImageWriter source, final float percentageDone) {
+      }
+
+      @Override
+      public void thumbnailComplete(final ImageWriter source) {
+      }
+
+      @Override
+      public void writeAborted(final ImageWriter source) {
+         aborted = true;
+      }
+   }
+
+   /**
+    * A {@link RenderedImage} that exposes the raster of a
+    * {@link BufferedImage} as square tiles, at a non-zero origin. Copying
+    * the whole image through {@link #getData()} is not supported.
+    */
+   private static final class TiledImage implements RenderedImage {
+      /** The image that holds the pixels. */
+      private final BufferedImage image;
+
+      /** The x coordinate of the origin. */
+      private final int minX;
+
+      /** The y coordinate of the origin. */
+      private final int minY;
+
+      /** The width and height of the tiles. */
+      private final int tileSize;
+
+      /**
+       * Creates a new tiled image.
+       *
+       * @param image
+       *           the image that holds the pixels.
+       * @param minX
+       *           the x coordinate of the origin.
+       * @param minY
+       *           the y coordinate of the origin.
+       * @param tileSize
+       *           the width and height of the tiles.
+       */
+      TiledImage(final BufferedImage image, final int minX, final int minY, final int tileSize) {
+         this.image = image;
+         this.minX = minX;
+         this.minY = minY;
+         this.tileSize = tileSize;
+      }
+
+      @Override
+      public Vector<RenderedImage> getSources() {
+         return null;
+      }
+
+      @Override
+      public Object getProperty(final String name) {
+         return Image.UndefinedProperty;
+      }
+
+      @Override
+      public String[] getPropertyNames() {
+         return null;
+      }
+
+      @Override
+      public ColorModel getColorModel() {
+         return image.getColorModel();
+      }
+
+      @Override
+      public SampleModel getSampleModel() {
+         return image.getSampleModel();
+      }
+
+      @Override
+      public int getWidth() {
+         return image.getWidth();
+      }
+
+      @Override
+      public int getHeight() {
+         return image.getHeight();
+      }
+
+      @Override
+      public int getMinX() {
+         return minX;
+      }
+
+      @Override
+      public int getMinY() {
+         return minY;
+      }
+
+      @Override
+      public int getNumXTiles() {
+         return (minX + getWidth() + tileSize - 1) / tileSize - getMinTileX();
+      }
+
+      @Override
+      public int getNumYTiles() {
+         return (minY + getHeight() + tileSize - 1) / tileSize - getMinTileY();
+      }
+
+      @Override
+      public int getMinTileX() {
+         return minX / tileSize;
+      }
+
+      @Override
+      public int getMinTileY() {
+         return minY / tileSize;
+      }
+
+      @Override
+      public int getTileWidth() {
+         return tileSize;
+      }
+
+      @Override
+      public int getTileHeight() {
+         return tileSize;
+      }
+
+      @Override
+      public int getTileGridXOffset() {
+         return 0;
+      }
+
+      @Override
+      public int getTileGridYOffset() {
+         return 0;
+      }
+
+      @Override
+      public Raster getTile(final int tileX, final int tileY) {
+         final Rectangle bounds = new Rectangle(tileX * tileSize, tileY * tileSize, tileSize, tileSize)
+               .intersection(new Rectangle(minX, minY, getWidth(), getHeight()));
+         return image.getRaster().createChild(bounds.x - minX, bounds.y - minY, bounds.width, bounds.height,
+               bounds.x, bounds.y, null);
+      }
+
+      @Override
+      public Raster getData() {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Raster getData(final Rectangle rect) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WritableRaster copyData(final WritableRaster raster) {
+         throw new UnsupportedOperationException();
+      }
+   }
+
    /**
     * Loads the image with the given name.
     *